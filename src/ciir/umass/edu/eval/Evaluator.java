@@ -22,6 +22,7 @@ import ciir.umass.edu.metric.ERRScorer;
 import ciir.umass.edu.metric.METRIC;
 import ciir.umass.edu.metric.MetricScorer;
 import ciir.umass.edu.metric.MetricScorerFactory;
+import ciir.umass.edu.metric.MultiMetricScorer;
 import ciir.umass.edu.utilities.*;
 
 import java.io.*;
@@ -102,6 +103,12 @@ public class Evaluator {
                                            "(default=" + (int)SimpleMath.logBase2(ERRScorer.MAX) + ", i.e. 5-point scale {0,1,2,3,4})");
 			System.out.println("\t[ -qrel <file> ]\tTREC-style relevance judgment file. It only affects MAP and NDCG (default=unspecified)");
 			System.out.println("\t[ -silent ]\t\tDo not print progress messages (which are printed by default)");
+			System.out.println("\t[ -cache ]\t\tSave a binary copy (<file>" + BinaryFeatureFile.EXTENSION + ") of every data file read (training, validation,");
+			System.out.println("\t\t\t\ttest, scored or ranked). Up-to-date binary copies are always loaded instead of the text files,");
+			System.out.println("\t\t\t\twhether or not -cache is specified");
+			System.out.println("\t[ -pscore ]\t\tCompute the metric of many ranked lists at once (e.g. at each step of Coordinate Ascent) in parallel.");
+			System.out.println("\t\t\t\tResults are exactly the same as without it (default=unspecified)");
+			System.out.println("\t[ -seed <s> ]\t\tSeed the random number generators of the learners, for reproducible runs (default=unseeded)");
 
 			System.out.println("");
 			//System.out.println("        Use the entire specified training data");
@@ -114,7 +121,8 @@ public class Evaluator {
 			System.out.println("");
 			System.out.println("\t[ -test <file> ]\tSpecify if you want to evaluate the trained model on this data (default=unspecified)");
 			System.out.println("\t[ -tts <x \\in [0..1]> ]\tSet train-test split to be (x)(1.0-x). -tts will override -tvs");
-			System.out.println("\t[ -metric2T <metric> ]\tMetric to evaluate on the test data (default to the same as specified for -metric2t)");
+			System.out.println("\t[ -metric2T <metric> ]\tMetric to evaluate on the test data (default to the same as specified for -metric2t)." +
+                                           " A comma-separated list (e.g. NDCG@10,ERR@10,MAP) evaluates all of them at once");
 
 			System.out.println("");
 			System.out.println("\t[ -norm <method>]\tNormalize all feature vectors (default=no-normalization). Method can be:");
@@ -141,6 +149,12 @@ public class Evaluator {
 			System.out.println("\t[ -layer <layer> ]\tThe number of hidden layers (default=" + RankNet.nHiddenLayer + ")");
 			System.out.println("\t[ -node <node> ]\tThe number of hidden nodes per layer (default=" + RankNet.nHiddenNodePerLayer + ")");
 			System.out.println("\t[ -lr <rate> ]\t\tLearning rate (default=" + (new DecimalFormat("###.########")).format(RankNet.learningRate) + ")");
+			System.out.println("\t[ -factorized ]\t\tFold the pairs of each document into one lambda and back-propagate once per document,");
+			System.out.println("\t\t\t\tupdating the weights once per ranked list (also for LambdaRank; default=unspecified)");
+			System.out.println("\t[ -batch <n> ]\t\tMini-batch training: the factorized gradients of n ranked lists are computed in parallel");
+			System.out.println("\t\t\t\tand summed before each update (also for LambdaRank and ListNet; default=unspecified)");
+			System.out.println("\t[ -hogwild ]\t\tEach thread updates the weights after each of its ranked lists, without locking. Faster,");
+			System.out.println("\t\t\t\tbut only reproducible with one thread (also for LambdaRank and ListNet; default=unspecified)");
 
 			System.out.println("");
 			System.out.println("    [-] RankBoost-specific parameters");
@@ -162,6 +176,9 @@ public class Evaluator {
 			System.out.println("\t[ -i <iteration> ]\tThe number of iterations to search in each dimension (default=" + CoorAscent.nMaxIteration + ")");
 			System.out.println("\t[ -tolerance <t> ]\tPerformance tolerance between two solutions (default=" + CoorAscent.tolerance + ")");
 			System.out.println("\t[ -reg <slack> ]\tRegularization parameter (default=no-regularization)");
+			System.out.println("\t[ -pstep ]\t\tEvaluate all the step sizes tried for a feature in parallel. Restarts always run in parallel.");
+			System.out.println("\t\t\t\tThe search differs from the default one (feature removal is scored with a zero weight),");
+			System.out.println("\t\t\t\tso models differ; with -seed they do not depend on the number of threads (default=unspecified)");
 
 			System.out.println("");
 			System.out.println("    [-] {MART, LambdaMART}-specific parameters");
@@ -205,7 +222,8 @@ public class Evaluator {
 			System.out.println("\t\t\t\t  in which case the test/rank data will be partitioned accordingly.");
 			System.out.println("\t-test <file>\t\tTest data to evaluate the model(s) (specify either this or -rank but not both)");
 			System.out.println("\t-rank <file>\t\tRank the samples in the specified file (specify either this or -test but not both)");
-			System.out.println("\t[ -metric2T <metric> ]\tMetric to evaluate on the test data (default=" + trainMetric + ")");
+			System.out.println("\t[ -metric2T <metric> ]\tMetric to evaluate on the test data (default=" + trainMetric + ")." +
+                                           " A comma-separated list (e.g. NDCG@10,ERR@10,MAP) evaluates all of them at once");
 			System.out.println("\t[ -gmax <label> ]\tHighest judged relevance label. It affects the calculation of ERR (default=" + (int)SimpleMath.logBase2(ERRScorer.MAX) + ", i.e. 5-point scale {0,1,2,3,4})");
 			System.out.println("\t[ -score <file>]\tStore ranker's score for each object being ranked (has to be used with -rank)");
 			System.out.println("\t[ -qrel <file> ]\tTREC-style relevance judgment file. It only affects MAP and NDCG (default=unspecified)");
@@ -261,6 +279,12 @@ public class Evaluator {
 					throw RankLibError.create("Unknown normalizor: " + n);
 				}
 			}
+			else if (args[i].equalsIgnoreCase ("-cache"))
+				cacheInput = true;
+			else if (args[i].equalsIgnoreCase ("-seed"))
+				Ranker.seed = Long.parseLong(args[++i]);
+			else if (args[i].equalsIgnoreCase ("-pscore"))
+				MetricScorer.parallelScoring = true;
 			else if (args[i].equalsIgnoreCase ("-sparse"))
 				useSparseRepresentation = true;
 			else if (args[i].equalsIgnoreCase ("-save"))
@@ -295,6 +319,12 @@ public class Evaluator {
 				RankNet.nHiddenLayer = Integer.parseInt(args[++i]);
 			else if (args[i].equalsIgnoreCase ("-node"))
 				RankNet.nHiddenNodePerLayer = Integer.parseInt(args[++i]);
+			else if (args[i].equalsIgnoreCase ("-factorized"))
+				RankNet.factorizedGradient = true;
+			else if (args[i].equalsIgnoreCase ("-batch"))
+				RankNet.batchSize = Integer.parseInt(args[++i]);
+			else if (args[i].equalsIgnoreCase ("-hogwild"))
+				RankNet.hogwild = true;
 			else if (args[i].equalsIgnoreCase ("-lr"))
 			{
 				RankNet.learningRate = Double.parseDouble(args[++i]);
@@ -319,6 +349,8 @@ public class Evaluator {
 				CoorAscent.nRestart = Integer.parseInt(args[++i]);
 			else if (args[i].equalsIgnoreCase ("-i"))
 				CoorAscent.nMaxIteration = Integer.parseInt(args[++i]);
+			else if (args[i].equalsIgnoreCase ("-pstep"))
+				CoorAscent.parallelSteps = true;
 
 			//ranker-shared parameters
 			else if (args[i].equalsIgnoreCase ("-round"))
@@ -450,7 +482,7 @@ public class Evaluator {
 			System.out.println("Train metric:\t" + trainMetric);
 			System.out.println("Test metric:\t" + testMetric);
 
-			if(trainMetric.toUpperCase().startsWith("ERR") || testMetric.toUpperCase().startsWith("ERR"))
+			if(trainMetric.toUpperCase().startsWith("ERR") || testMetric.toUpperCase().contains("ERR"))
 				System.out.println("Highest relevance label (to compute ERR): " + (int)SimpleMath.logBase2(ERRScorer.MAX));
 			if(qrelFile.compareTo("") != 0)
 				System.out.println("TREC-format relevance judgment (only affects MAP and NDCG scores): " + qrelFile);
@@ -539,7 +571,7 @@ public class Evaluator {
 			else
 			{
 				System.out.println("Test metric:\t" + testMetric);
-				if(testMetric.startsWith("ERR"))
+				if(testMetric.toUpperCase().contains("ERR"))
 					System.out.println("Highest relevance label (to compute ERR): " + (int)SimpleMath.logBase2(ERRScorer.MAX));
 
 				if(savedModelFile.compareTo("") != 0)
@@ -567,6 +599,7 @@ public class Evaluator {
 	//main settings
 	public static boolean mustHaveRelDoc = false;
 	public static boolean useSparseRepresentation = false;
+	public static boolean cacheInput = false;//save a binary copy (<file>.rlbin) of each text file read
 	public static boolean normalize = false;
 	public static Normalizer nml = new SumNormalizor();
 	public static String modelFile = "";
@@ -588,6 +621,8 @@ public class Evaluator {
 
 	protected MetricScorer trainScorer = null;
 	protected MetricScorer testScorer = null;
+	//Number of ranked lists scored together (in parallel) when evaluating on test data
+	public static int scoreBatchSize = 1000;
 	protected RANKER_TYPE type = RANKER_TYPE.MART;
 
 
@@ -655,7 +690,59 @@ public class Evaluator {
 
 	public List<RankList> readInput(String inputFile)
 	{
-		return FeatureManager.readInput(inputFile, mustHaveRelDoc, useSparseRepresentation);
+		//an up-to-date binary copy of the file is always preferred over the text version
+		if(BinaryFeatureFile.isFresh(inputFile))
+			return BinaryFeatureFile.read(BinaryFeatureFile.cacheName(inputFile), mustHaveRelDoc, useSparseRepresentation);
+		if(!cacheInput)
+			return FeatureManager.readInput(inputFile, mustHaveRelDoc, useSparseRepresentation);
+
+		List<RankList> samples = FeatureManager.readInput(inputFile, false, useSparseRepresentation);
+		BinaryFeatureFile.write(samples, BinaryFeatureFile.cacheName(inputFile));
+		if(mustHaveRelDoc)
+		{
+			List<RankList> tmp = new ArrayList<>();
+			for(RankList rl : samples)
+			{
+				boolean hasRel = false;
+				for(int j=0;j<rl.size() && !hasRel;j++)
+					hasRel = (rl.get(j).getLabel() > 0);
+				if(hasRel)
+					tmp.add(rl);
+			}
+			samples = tmp;
+		}
+		return samples;
+	}
+
+
+	/**
+	 * Open a data file to be read one ranked list at a time (for testing/scoring/ranking, which only need one list in memory).
+	 * As in {@link #readInput(String)}, an up-to-date binary copy of the file is read instead of the text file. With -cache, a missing or
+	 * stale binary copy is written first, streaming the text file (see {@link BinaryFeatureFile#convert(String, String)}).
+	 */
+	public RankListReader openInput(String inputFile)
+	{
+		if(cacheInput && !BinaryFeatureFile.isFresh(inputFile))
+			BinaryFeatureFile.convert(inputFile, BinaryFeatureFile.cacheName(inputFile));
+		System.out.print("Reading feature file [" + inputFile + "]... ");
+		if(BinaryFeatureFile.isFresh(inputFile))
+		{
+			try {
+				return new RankListReader(new BinaryFeatureFile.Cursor(BinaryFeatureFile.cacheName(inputFile), useSparseRepresentation), mustHaveRelDoc);
+			}
+			catch(IOException ex)
+			{
+				throw RankLibError.create("Error in Evaluator::openInput(): ", ex);
+			}
+		}
+		return new RankListReader(inputFile, mustHaveRelDoc, useSparseRepresentation);
+	}
+
+
+	private void printInputSummary(RankListReader in, String inputFile)
+	{
+		System.out.println("\rReading feature file [" + inputFile + "]... [Done.]            ");
+		System.out.println("(" + in.getRankListCount() + " ranked lists, " + in.getEntryCount() + " entries read)");
 	}
 
 
@@ -690,11 +777,23 @@ public class Evaluator {
 	{
 		List<RankList> l = rl;
 		if(ranker != null)
-			l = ranker.rank(rl);
+			l = ranker.rank(rl, testScorer.getRankingDepth());
 		return testScorer.score(l);
 	}
 
 
+	/**
+	 * Same as {@link #evaluate(Ranker, List)}, but in each of the test measures. The lists are only ranked once for all of them.
+	 */
+	public double[] evaluateAll(Ranker ranker, List<RankList> rl)
+	{
+		List<RankList> l = rl;
+		if(ranker != null)
+			l = ranker.rank(rl, testScorer.getRankingDepth());
+		return testScorers().scoreEach(l);
+	}
+
+
 	/**
 	 * Evaluate the currently selected ranking algorithm using <training data, validation data, testing data and the defined features>.
 	 * @param trainFile
@@ -733,10 +832,7 @@ public class Evaluator {
 		Ranker ranker = trainer.train(type, train, validation, features, trainScorer);
 
 		if(test != null)
-		{
-			double rankScore = evaluate(ranker, test);
-			System.out.println(testScorer.name() + " on test data: " + SimpleMath.round(rankScore, 4));
-		}
+			printTestScores(evaluateAll(ranker, test));
 		if(modelFile.compareTo("")!=0)
 		{
 			System.out.println("");
@@ -771,9 +867,7 @@ public class Evaluator {
 		RankerTrainer trainer = new RankerTrainer();
 		Ranker ranker = trainer.train(type, trainingData, validation, features, trainScorer);
 
-		double rankScore = evaluate(ranker, testData);
-
-		System.out.println(testScorer.name() + " on test data: " + SimpleMath.round(rankScore, 4));
+		printTestScores(evaluateAll(ranker, testData));
 		if(modelFile.compareTo("")!=0)
 		{
 			System.out.println("");
@@ -810,10 +904,7 @@ public class Evaluator {
 		Ranker ranker = trainer.train(type, train, validation, features, trainScorer);
 
 		if(test != null)
-		{
-			double rankScore = evaluate(ranker, test);
-			System.out.println(testScorer.name() + " on test data: " + SimpleMath.round(rankScore, 4));
-		}
+			printTestScores(evaluateAll(ranker, test));
 		if(modelFile.compareTo("")!=0)
 		{
 			System.out.println("");
@@ -912,7 +1003,7 @@ public class Evaluator {
 			}
 		}
 		System.out.println("Summary:");
-		System.out.println(testScorer.name() + "\t|   Train\t| Test");
+		System.out.println(testScorers().getScorers().get(0).name() + "\t|   Train\t| Test");
 		System.out.println("----------------------------------");
 		for(int i=0;i<nFold;i++)
 			System.out.println("Fold " + (i+1) + "\t|   " + SimpleMath.round(scores[i][0], 4) + "\t|  " + SimpleMath.round(scores[i][1], 4) + "\t");
@@ -930,34 +1021,27 @@ public class Evaluator {
 	public void test(String testFile)
 	{
 		List<RankList> test = readInput(testFile);
-		double rankScore = evaluate(null, test);
-		System.out.println(testScorer.name() + " on test data: " + SimpleMath.round(rankScore, 4));
+		printTestScores(evaluateAll(null, test));
 	}
 
 
 	public void test(String testFile, String prpFile)
 	{
-		List<RankList> test = readInput(testFile);
-		double rankScore = 0.0;
+		MultiMetricScorer ms = testScorers();
 		List<String> ids = new ArrayList<>();
-		List<Double> scores = new ArrayList<>();
-		for (RankList l : test) {
-			double score = testScorer.score(l);
-			ids.add(l.getID());
-			scores.add(score);
-			rankScore += score;
-		}
-		rankScore /= test.size();
-		ids.add("all");
-		scores.add(rankScore);
-		System.out.println(testScorer.name() + " on test data: " + SimpleMath.round(rankScore, 4));
-
-		//if(prpFile.compareTo("") != 0)
-                if (!prpFile.isEmpty())
-		{
-			savePerRankListPerformanceFile(ids, scores, prpFile);
-			System.out.println("Per-ranked list performance saved to: " + prpFile);
+		List<double[]> scores = new ArrayList<>();
+		List<RankList> batch = new ArrayList<>();
+		try (RankListReader test = openInput(testFile)) {
+			while(test.hasNext())
+			{
+				batch.add(test.next());
+				if(batch.size() == scoreBatchSize)
+					scoreBatch(ms, batch, ids, scores);
+			}
+			scoreBatch(ms, batch, ids, scores);
+			printInputSummary(test, testFile);
 		}
+		report(ms, ids, scores, prpFile);
 	}
 
 
@@ -971,31 +1055,25 @@ public class Evaluator {
 	{
 		Ranker ranker = rFact.loadRankerFromFile(modelFile);
 		int[] features = ranker.getFeatures();
-		List<RankList> test = readInput(testFile);
-		if(normalize)
-			normalize(test, features);
 
-		double rankScore = 0.0;
+		MultiMetricScorer ms = testScorers();
 		List<String> ids = new ArrayList<>();
-		List<Double> scores = new ArrayList<>();
-		for (RankList aTest : test) {
-			RankList l = ranker.rank(aTest);
-			double score = testScorer.score(l);
-			ids.add(l.getID());
-			scores.add(score);
-			rankScore += score;
-		}
-		rankScore /= test.size();
-		ids.add("all");
-		scores.add(rankScore);
-		System.out.println(testScorer.name() + " on test data: " + SimpleMath.round(rankScore, 4));
-
-		//if(prpFile.compareTo("") != 0)
-		if (!prpFile.isEmpty())
-		{
-			savePerRankListPerformanceFile(ids, scores, prpFile);
-			System.out.println("Per-ranked list performance saved to: " + prpFile);
+		List<double[]> scores = new ArrayList<>();
+		List<RankList> batch = new ArrayList<>();
+		try (RankListReader test = openInput(testFile)) {
+			while(test.hasNext())
+			{
+				RankList aTest = test.next();
+				if(normalize)
+					nml.normalize(aTest, features);
+				batch.add(ranker.rank(aTest, ms.getRankingDepth()));
+				if(batch.size() == scoreBatchSize)
+					scoreBatch(ms, batch, ids, scores);
+			}
+			scoreBatch(ms, batch, ids, scores);
+			printInputSummary(test, testFile);
 		}
+		report(ms, ids, scores, prpFile);
 	}
 
 
@@ -1019,9 +1097,9 @@ public class Evaluator {
 		System.out.print("Preparing " + nFold + "-fold test data... ");
 		FeatureManager.prepareCV(samples, nFold, trainingData, testData);
 		System.out.println("[Done.]");
-		double rankScore = 0.0;
+		MultiMetricScorer ms = testScorers();
 		List<String> ids = new ArrayList<>();
-		List<Double> scores = new ArrayList<>();
+		List<double[]> scores = new ArrayList<>();
 		for(int f=0;f<nFold;f++)
 		{
 			List<RankList> test = testData.get(f);
@@ -1030,24 +1108,15 @@ public class Evaluator {
 			if(normalize)
 				normalize(test, features);
 
+			List<RankList> batch = new ArrayList<>();
 			for (RankList aTest : test) {
-				RankList l = ranker.rank(aTest);
-				double score = testScorer.score(l);
-				ids.add(l.getID());
-				scores.add(score);
-				rankScore += score;
+				batch.add(ranker.rank(aTest, ms.getRankingDepth()));
+				if(batch.size() == scoreBatchSize)
+					scoreBatch(ms, batch, ids, scores);
 			}
+			scoreBatch(ms, batch, ids, scores);
 		}
-		rankScore = rankScore/ids.size();
-		ids.add("all");
-		scores.add(rankScore);
-		System.out.println(testScorer.name() + " on test data: " + SimpleMath.round(rankScore, 4));
-		//if(prpFile.compareTo("") != 0)
-		if (!prpFile.isEmpty())
-		{
-			savePerRankListPerformanceFile(ids, scores, prpFile);
-			System.out.println("Per-ranked list performance saved to: " + prpFile);
-		}
+		report(ms, ids, scores, prpFile);
 	}
 
 
@@ -1060,41 +1129,95 @@ public class Evaluator {
 	public void test(List<String> modelFiles, List<String> testFiles, String prpFile)
 	{
 		int nFold = modelFiles.size();
-		double rankScore = 0.0;
+		MultiMetricScorer ms = testScorers();
 		List<String> ids = new ArrayList<>();
-		List<Double> scores = new ArrayList<>();
+		List<double[]> scores = new ArrayList<>();
 		for(int f=0;f<nFold;f++)
 		{
-		        //List<RankList> test = FeatureManager.readInput(testFiles.get(f));
-		        List<RankList> test = readInput(testFiles.get(f));
 			Ranker ranker = rFact.loadRankerFromFile(modelFiles.get(f));
 			int[] features = ranker.getFeatures();
 
-			if(normalize)
-				normalize(test, features);
-
-			for (RankList aTest : test) {
-				RankList l = ranker.rank(aTest);
-				double score = testScorer.score(l);
-				ids.add(l.getID());
-				scores.add(score);
-				rankScore += score;
+			List<RankList> batch = new ArrayList<>();
+			try (RankListReader test = openInput(testFiles.get(f))) {
+				while(test.hasNext())
+				{
+					RankList aTest = test.next();
+					if(normalize)
+						nml.normalize(aTest, features);
+					batch.add(ranker.rank(aTest, ms.getRankingDepth()));
+					if(batch.size() == scoreBatchSize)
+						scoreBatch(ms, batch, ids, scores);
+				}
+				scoreBatch(ms, batch, ids, scores);
+				printInputSummary(test, testFiles.get(f));
 			}
 		}
-		rankScore = rankScore/ids.size();
+		report(ms, ids, scores, prpFile);
+	}
+
+
+	/**
+	 * The test measure(s) as a {@link MultiMetricScorer}, so a single measure and a list of measures (e.g. -metric2T NDCG@10,ERR@10) are
+	 * evaluated the same way.
+	 */
+	protected MultiMetricScorer testScorers()
+	{
+		if(testScorer instanceof MultiMetricScorer)
+			return (MultiMetricScorer)testScorer;
+		List<MetricScorer> l = new ArrayList<>();
+		l.add(testScorer);
+		return new MultiMetricScorer(l);
+	}
+
+
+	/**
+	 * Score (in parallel) a batch of ranked lists in all the test measures, then empty the batch.
+	 * Ranking itself stays sequential since some rankers (e.g. the neural nets) keep per-document state while evaluating.
+	 */
+	private void scoreBatch(MultiMetricScorer ms, List<RankList> batch, List<String> ids, List<double[]> scores)
+	{
+		double[][] s = ms.scoreAll(batch);
+		for(int i=0;i<batch.size();i++)
+		{
+			ids.add(batch.get(i).getID());
+			scores.add(s[i]);
+		}
+		batch.clear();
+	}
+
+
+	/**
+	 * Print the average of each test measure over all the ranked lists, and save the per-ranked list performance if prpFile is not "".
+	 */
+	private void report(MultiMetricScorer ms, List<String> ids, List<double[]> scores, String prpFile)
+	{
+		double[] avg = new double[ms.size()];
+		for(double[] s : scores)
+			for(int j=0;j<avg.length;j++)
+				avg[j] += s[j];
+		for(int j=0;j<avg.length;j++)
+			avg[j] /= ids.size();
 		ids.add("all");
-		scores.add(rankScore);
-		System.out.println(testScorer.name() + " on test data: " + SimpleMath.round(rankScore, 4));
+		scores.add(avg);
+		printTestScores(avg);
 
 		//if(prpFile.compareTo("") != 0)
 		if (!prpFile.isEmpty())
 		{
-			savePerRankListPerformanceFile(ids, scores, prpFile);
+			savePerRankListPerformanceFile(ms, ids, scores, prpFile);
 			System.out.println("Per-ranked list performance saved to: " + prpFile);
 		}
 	}
 
 
+	private void printTestScores(double[] scores)
+	{
+		MultiMetricScorer ms = testScorers();
+		for(int j=0;j<scores.length;j++)
+			System.out.println(ms.getScorers().get(j).name() + " on test data: " + SimpleMath.round(scores[j], 4));
+	}
+
+
 	/**
 	 * Re-order the input rankings and measure their effectiveness (in -metric2T)
 	 * @param testFile Input rankings
@@ -1126,8 +1249,7 @@ public class Evaluator {
 				test.set(i, rl);
 			}
 
-			double rankScore = evaluate(null, test);
-			System.out.println(testScorer.name() + " on test data: " + SimpleMath.round(rankScore, 4));
+			printTestScores(evaluateAll(null, test));
 		} catch (IOException e) {
 			throw RankLibError.create(e);
 		}
@@ -1144,19 +1266,20 @@ public class Evaluator {
 	{
 		Ranker ranker = rFact.loadRankerFromFile(modelFile);
 		int[] features = ranker.getFeatures();
-		List<RankList> test = readInput(testFile);
-		if(normalize)
-			normalize(test, features);
 
-		try {
-			BufferedWriter out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(outputFile), "UTF-8"));
-			for (RankList l : test) {
+		try (RankListReader test = openInput(testFile);
+			BufferedWriter out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(outputFile), "UTF-8"))) {
+			while(test.hasNext())
+			{
+				RankList l = test.next();
+				if(normalize)
+					nml.normalize(l, features);
 				for (int j = 0; j < l.size(); j++) {
 					out.write(l.getID() + "\t" + j + "\t" + ranker.eval(l.get(j)) + "");
 					out.newLine();
 				}
 			}
-			out.close();
+			printInputSummary(test, testFile);
 		}
 		catch(IOException ex)
 		{
@@ -1221,19 +1344,21 @@ public class Evaluator {
 		try (BufferedWriter out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(outputFile), "UTF-8"))) {
 			for(int f=0;f<nFold;f++)
 			{
-                                //List<RankList> test = FeatureManager.readInput(testFiles.get(f));
-                                List<RankList> test = readInput(testFiles.get(f));
 				Ranker ranker = rFact.loadRankerFromFile(modelFiles.get(f));
 				int[] features = ranker.getFeatures();
 
-				if(normalize)
-					normalize(test, features);
-
-				for (RankList l : test) {
-					for (int j = 0; j < l.size(); j++) {
-						out.write(l.getID() + "\t" + j + "\t" + ranker.eval(l.get(j)) + "");
-						out.newLine();
+				try (RankListReader test = openInput(testFiles.get(f))) {
+					while(test.hasNext())
+					{
+						RankList l = test.next();
+						if(normalize)
+							nml.normalize(l, features);
+						for (int j = 0; j < l.size(); j++) {
+							out.write(l.getID() + "\t" + j + "\t" + ranker.eval(l.get(j)) + "");
+							out.newLine();
+						}
 					}
+					printInputSummary(test, testFiles.get(f));
 				}
 			}
 		}
@@ -1254,13 +1379,14 @@ public class Evaluator {
 	{
 		Ranker ranker = rFact.loadRankerFromFile(modelFile);
 		int[] features = ranker.getFeatures();
-		List<RankList> test = readInput(testFile);
 
-		if(normalize)
-			normalize(test, features);
-		try {
-			BufferedWriter out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(indriRanking), "UTF-8"));
-			for (RankList l : test) {
+		try (RankListReader test = openInput(testFile);
+			BufferedWriter out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(indriRanking), "UTF-8"))) {
+			while(test.hasNext())
+			{
+				RankList l = test.next();
+				if(normalize)
+					nml.normalize(l, features);
 				double[] scores = new double[l.size()];
 				for (int j = 0; j < l.size(); j++)
 					scores[j] = ranker.eval(l.get(j));
@@ -1273,7 +1399,7 @@ public class Evaluator {
 					out.newLine();
 				}
 			}
-			out.close();
+			printInputSummary(test, testFile);
 		}
 		catch(IOException ex)
 		{
@@ -1289,11 +1415,11 @@ public class Evaluator {
 	 */
 	public void rank(String testFile, String indriRanking)
 	{
-		List<RankList> test = readInput(testFile);
-
-		try {
-			BufferedWriter out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(indriRanking), "UTF-8"));
-			for (RankList l : test) {
+		try (RankListReader test = openInput(testFile);
+			BufferedWriter out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(indriRanking), "UTF-8"))) {
+			while(test.hasNext())
+			{
+				RankList l = test.next();
 				for (int j = 0; j < l.size(); j++) {
 					String str = l.getID() + " Q0 " + l.get(j).getDescription().replace("#", "").trim() + " " +
                                                      (j + 1) + " " + SimpleMath.round(1.0 - 0.0001 * j, 5) + " indri";
@@ -1301,7 +1427,7 @@ public class Evaluator {
 					out.newLine();
 				}
 			}
-			out.close();
+			printInputSummary(test, testFile);
 		}
 		catch(IOException ex)
 		{
@@ -1378,28 +1504,29 @@ public class Evaluator {
 
 			for(int f=0;f<nFold;f++)
 			{
-                                //List<RankList> test = FeatureManager.readInput(testFiles.get(f));
-				List<RankList> test = readInput(testFiles.get(f));
 				Ranker ranker = rFact.loadRankerFromFile(modelFiles.get(f));
 				int[] features = ranker.getFeatures();
-
-				if(normalize)
-					normalize(test, features);
-
-				for (RankList l : test) {
-					double[] scores = new double[l.size()];
-
-					for (int j = 0; j < l.size(); j++)
-						scores[j] = ranker.eval(l.get(j));
-
-					int[] idx = MergeSorter.sort(scores, false);
-
-					for (int j = 0; j < idx.length; j++) {
-						int k = idx[j];
-						String str = l.getID() + " Q0 " + l.get(k).getDescription().replace("#", "").trim() + " " + (j + 1) + " " + SimpleMath.round(scores[k], 5) + " indri";
-						out.write(str);
-						out.newLine();
+				try (RankListReader test = openInput(testFiles.get(f))) {
+					while(test.hasNext())
+					{
+						RankList l = test.next();
+						if(normalize)
+							nml.normalize(l, features);
+						double[] scores = new double[l.size()];
+
+						for (int j = 0; j < l.size(); j++)
+							scores[j] = ranker.eval(l.get(j));
+
+						int[] idx = MergeSorter.sort(scores, false);
+
+						for (int j = 0; j < idx.length; j++) {
+							int k = idx[j];
+							String str = l.getID() + " Q0 " + l.get(k).getDescription().replace("#", "").trim() + " " + (j + 1) + " " + SimpleMath.round(scores[k], 5) + " indri";
+							out.write(str);
+							out.newLine();
+						}
 					}
+					printInputSummary(test, testFiles.get(f));
 				}
 			}
 			out.close();
@@ -1448,13 +1575,35 @@ public class Evaluator {
 	 * @param prpFile Output filename.
 	 */
 	public void savePerRankListPerformanceFile(List<String> ids, List<Double> scores, String prpFile)
+	{
+		List<double[]> l = new ArrayList<>();
+		for(int i=0;i<scores.size();i++)
+			l.add(new double[]{scores.get(i)});
+		List<MetricScorer> ms = new ArrayList<>();
+		ms.add(testScorers().getScorers().get(0));
+		savePerRankListPerformanceFile(new MultiMetricScorer(ms), ids, l, prpFile);
+	}
+
+
+	/**
+	 * Save systems' performance in several measures to file (one line per measure for each ranked list).
+	 * @param ms The measures.
+	 * @param ids Ranked list IDs.
+	 * @param scores scores.get(i)[j]: the score of the i-th ranked list in the j-th measure.
+	 * @param prpFile Output filename.
+	 */
+	public void savePerRankListPerformanceFile(MultiMetricScorer ms, List<String> ids, List<double[]> scores, String prpFile)
 	{
 		try (BufferedWriter out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(prpFile)))) {
 			for(int i=0;i<ids.size();i++)
 			{
-				//out.write(testScorer.name() + "   " + ids.get(i) + "   " + SimpleMath.round(scores.get(i), 4));
-				out.write(testScorer.name() + "   " + ids.get(i) + "   " + scores.get(i));
-				out.newLine();
+				double[] s = scores.get(i);
+				for(int j=0;j<ms.size();j++)
+				{
+					//out.write(testScorer.name() + "   " + ids.get(i) + "   " + SimpleMath.round(scores.get(i), 4));
+					out.write(ms.getScorers().get(j).name() + "   " + ids.get(i) + "   " + s[j]);
+					out.newLine();
+				}
 			}
 		}
 		catch(Exception ex)
@@ -0,0 +1,597 @@
+/*===============================================================================
+ * Copyright (c) 2010-2016 University of Massachusetts.  All Rights Reserved.
+ *
+ * Use of the RankLib package is subject to the terms of the software license set
+ * forth in the LICENSE file included with this software, and also available at
+ * http://people.cs.umass.edu/~vdang/ranklib_license.html
+ *===============================================================================
+ */
+
+package ciir.umass.edu.features;
+
+import ciir.umass.edu.learning.DataPoint;
+import ciir.umass.edu.learning.DenseDataPoint;
+import ciir.umass.edu.learning.RankList;
+import ciir.umass.edu.learning.SparseDataPoint;
+import ciir.umass.edu.utilities.RankLibError;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Columnar binary copy of a feature file (<file>.rlbin) that can be loaded without any text parsing.
+ *
+ * Layout (little-endian, every section 4-byte aligned):
+ *   header:		magic, version, #ranked lists, #data points, #features (max feature id)
+ *   int[#lists+1]	index of the first data point of each ranked list
+ *   int[#lists+1]	offsets of the query ids in the id blob, followed by the UTF-8 id blob
+ *   float[#points]	relevance labels
+ *   int[#points]	length of the dense feature vector of each data point
+ *   int[#points]	number of known features of each data point
+ *   int[#points+1]	offsets of the descriptions in the description blob, followed by the UTF-8 description blob
+ *   float[#points]	one column per feature (1..#features), NaN for unknown values
+ *
+ * Sections are memory-mapped one at a time when the file is read, so loading is mostly a matter of paging the columns in.
+ */
+public class BinaryFeatureFile {
+
+	public static final String EXTENSION = ".rlbin";
+	private static final int MAGIC = 0x524C4249;//"RLBI"
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 5 * 4;
+
+	/**
+	 * @return Name of the binary cache of the given text feature file.
+	 */
+	public static String cacheName(String textFile)
+	{
+		return textFile + EXTENSION;
+	}
+	/**
+	 * @return true if the binary cache of the given text file exists and has been written after the text file was last modified.
+	 */
+	public static boolean isFresh(String textFile)
+	{
+		File text = new File(textFile);
+		File bin = new File(cacheName(textFile));
+		return bin.isFile() && text.isFile() && bin.lastModified() > text.lastModified();
+	}
+
+	/**
+	 * Write a set of ranked lists in binary format. The file is written under a temporary name and then renamed, so that a write that does
+	 * not complete never leaves a (fresh-looking) partial file behind.
+	 * @param samples
+	 * @param outputFile
+	 */
+	public static void write(List<RankList> samples, String outputFile)
+	{
+		Layout layout = new Layout(outputFile);
+		for(RankList rl : samples)
+			layout.add(rl);
+		try (Writer out = new Writer(layout, outputFile)) {
+			for(RankList rl : samples)
+				out.add(rl);
+			out.commit();
+		}
+		catch(IOException ex)
+		{
+			throw RankLibError.create("Error in BinaryFeatureFile::write(): ", ex);
+		}
+	}
+	/**
+	 * Write the binary copy of a text feature file. The text file is read twice, one ranked list at a time (see {@link RankListReader}),
+	 * so that only the current list is kept in memory.
+	 * @param textFile
+	 * @param outputFile
+	 */
+	public static void convert(String textFile, String outputFile)
+	{
+		Layout layout = new Layout(outputFile);
+		try (RankListReader in = new RankListReader(textFile, false, false)) {
+			while(in.hasNext())
+				layout.add(in.next());
+		}
+		try (Writer out = new Writer(layout, outputFile);
+			RankListReader in = new RankListReader(textFile, false, false)) {
+			while(in.hasNext())
+				out.add(in.next());
+			out.commit();
+		}
+		catch(IOException ex)
+		{
+			throw RankLibError.create("Error in BinaryFeatureFile::convert(): ", ex);
+		}
+	}
+
+	/**
+	 * Read a set of ranked lists stored in binary format.
+	 * @param inputFile
+	 * @param mustHaveRelDoc
+	 * @param useSparseRepresentation
+	 * @return
+	 */
+	public static List<RankList> read(String inputFile, boolean mustHaveRelDoc, boolean useSparseRepresentation)
+	{
+		System.out.print("Reading binary feature file [" + inputFile + "]... ");
+		List<RankList> samples = new ArrayList<>();
+		try (FileChannel in = FileChannel.open(Paths.get(inputFile), StandardOpenOption.READ)) {
+			IntBuffer header = map(in, 0, HEADER_SIZE).asIntBuffer();
+			if(header.get(0) != MAGIC || header.get(1) != VERSION)
+				throw RankLibError.create("Error in BinaryFeatureFile::read(): " + inputFile + " is not a (supported) binary feature file.");
+			int nLists = header.get(2);
+			int nPoints = header.get(3);
+			int nFeatures = header.get(4);
+			long offset = HEADER_SIZE;
+
+			int[] listStart = new int[nLists+1];
+			map(in, offset, 4L * (nLists+1)).asIntBuffer().get(listStart);
+			offset += 4L * (nLists+1);
+			int[] idOffsets = new int[nLists+1];
+			map(in, offset, 4L * (nLists+1)).asIntBuffer().get(idOffsets);
+			offset += 4L * (nLists+1);
+			String[] ids = getStrings(map(in, offset, idOffsets[nLists]), idOffsets);
+			offset += pad(idOffsets[nLists]);
+
+			float[] labels = new float[nPoints];
+			map(in, offset, 4L * nPoints).asFloatBuffer().get(labels);
+			offset += 4L * nPoints;
+			int[] lengths = new int[nPoints];
+			map(in, offset, 4L * nPoints).asIntBuffer().get(lengths);
+			offset += 4L * nPoints;
+			int[] known = new int[nPoints];
+			map(in, offset, 4L * nPoints).asIntBuffer().get(known);
+			offset += 4L * nPoints;
+			int[] descOffsets = new int[nPoints+1];
+			map(in, offset, 4L * (nPoints+1)).asIntBuffer().get(descOffsets);
+			offset += 4L * (nPoints+1);
+			String[] descriptions = getStrings(map(in, offset, descOffsets[nPoints]), descOffsets);
+			offset += pad(descOffsets[nPoints]);
+
+			float[][] vectors = new float[nPoints][];
+			for(int i=0;i<nPoints;i++)
+			{
+				vectors[i] = new float[lengths[i]];
+				if(lengths[i] > 0)
+					vectors[i][0] = Float.NaN;
+			}
+			float[] column = new float[nPoints];
+			for(int f=1;f<=nFeatures;f++)
+			{
+				FloatBuffer fb = map(in, offset, 4L * nPoints).asFloatBuffer();
+				fb.get(column);
+				offset += 4L * nPoints;
+				for(int i=0;i<nPoints;i++)
+					if(f < lengths[i])
+						vectors[i][f] = column[i];
+			}
+			DataPoint.updateFeatureCount(nFeatures);
+
+			int countEntries = 0;
+			for(int i=0;i<nLists;i++)
+			{
+				List<DataPoint> rl = new ArrayList<>();
+				boolean hasRel = false;
+				for(int j=listStart[i];j<listStart[i+1];j++)
+				{
+					DataPoint dp = null;
+					if(useSparseRepresentation)
+						dp = toSparse(labels[j], ids[i], descriptions[j], vectors[j]);
+					else
+						dp = new DenseDataPoint(labels[j], ids[i], descriptions[j], vectors[j], known[j]);
+					if(dp.getLabel() > 0)
+						hasRel = true;
+					rl.add(dp);
+				}
+				countEntries += rl.size();
+				if(rl.size() > 0 && (!mustHaveRelDoc || hasRel))
+					samples.add(new RankList(rl));
+			}
+			System.out.println("[Done.]");
+			System.out.println("(" + samples.size() + " ranked lists, " + countEntries + " entries read)");
+		}
+		catch(IOException ex)
+		{
+			throw RankLibError.create("Error in BinaryFeatureFile::read(): ", ex);
+		}
+		return samples;
+	}
+
+	/**
+	 * Reads the ranked lists of a binary feature file one at a time (see {@link RankListReader}). The sections of the file are memory-mapped
+	 * and only the data points of the current ranked list are built, so that files larger than the memory can be streamed.
+	 */
+	public static class Cursor implements Closeable {
+		private final FileChannel in;
+		private final boolean useSparseRepresentation;
+		private final int nLists;
+		private final int nFeatures;
+		private final int[] listStart;
+		private final String[] ids;
+		private final ByteBuffer labels;
+		private final ByteBuffer lengths;
+		private final ByteBuffer known;
+		private final ByteBuffer descOffsets;
+		private final ByteBuffer descriptions;
+		private final ByteBuffer[] columns;//columns[f-1]: values of feature f
+		private int list = 0;
+
+		public Cursor(String inputFile, boolean useSparseRepresentation) throws IOException
+		{
+			this.useSparseRepresentation = useSparseRepresentation;
+			in = FileChannel.open(Paths.get(inputFile), StandardOpenOption.READ);
+			try {
+				IntBuffer header = map(in, 0, HEADER_SIZE).asIntBuffer();
+				if(header.get(0) != MAGIC || header.get(1) != VERSION)
+					throw RankLibError.create("Error in BinaryFeatureFile.Cursor::Cursor(): " + inputFile + " is not a (supported) binary feature file.");
+				nLists = header.get(2);
+				int nPoints = header.get(3);
+				nFeatures = header.get(4);
+				long offset = HEADER_SIZE;
+
+				listStart = new int[nLists+1];
+				map(in, offset, 4L * (nLists+1)).asIntBuffer().get(listStart);
+				offset += 4L * (nLists+1);
+				int[] idOffsets = new int[nLists+1];
+				map(in, offset, 4L * (nLists+1)).asIntBuffer().get(idOffsets);
+				offset += 4L * (nLists+1);
+				ids = getStrings(map(in, offset, idOffsets[nLists]), idOffsets);
+				offset += pad(idOffsets[nLists]);
+
+				labels = map(in, offset, 4L * nPoints);
+				offset += 4L * nPoints;
+				lengths = map(in, offset, 4L * nPoints);
+				offset += 4L * nPoints;
+				known = map(in, offset, 4L * nPoints);
+				offset += 4L * nPoints;
+				descOffsets = map(in, offset, 4L * (nPoints+1));
+				offset += 4L * (nPoints+1);
+				int descLength = descOffsets.getInt(4 * nPoints);
+				descriptions = map(in, offset, descLength);
+				offset += pad(descLength);
+
+				columns = new ByteBuffer[nFeatures];
+				for(int f=1;f<=nFeatures;f++)
+				{
+					columns[f-1] = map(in, offset, 4L * nPoints);
+					offset += 4L * nPoints;
+				}
+			}
+			catch(IOException | RuntimeException ex)
+			{
+				in.close();
+				throw ex;
+			}
+			DataPoint.updateFeatureCount(nFeatures);
+		}
+		/**
+		 * @return The data points of the next ranked list, or null if all of them have been read.
+		 */
+		public List<DataPoint> nextList()
+		{
+			if(list == nLists)
+				return null;
+			List<DataPoint> rl = new ArrayList<>();
+			for(int j=listStart[list];j<listStart[list+1];j++)
+			{
+				float[] fVals = new float[lengths.getInt(4 * j)];
+				if(fVals.length > 0)
+					fVals[0] = Float.NaN;
+				for(int f=1;f<fVals.length;f++)
+					fVals[f] = columns[f-1].getFloat(4 * j);
+				int start = descOffsets.getInt(4 * j);
+				byte[] d = new byte[descOffsets.getInt(4 * (j+1)) - start];
+				for(int k=0;k<d.length;k++)
+					d[k] = descriptions.get(start + k);
+				String description = new String(d, StandardCharsets.UTF_8);
+				float label = labels.getFloat(4 * j);
+				if(useSparseRepresentation)
+					rl.add(toSparse(label, ids[list], description, fVals));
+				else
+					rl.add(new DenseDataPoint(label, ids[list], description, fVals, known.getInt(4 * j)));
+			}
+			list++;
+			return rl;
+		}
+		public void close() throws IOException
+		{
+			in.close();
+		}
+	}
+
+	private static SparseDataPoint toSparse(float label, String id, String description, float[] fVals)
+	{
+		int known = 0;
+		for(int f=1;f<fVals.length;f++)
+			if(!Float.isNaN(fVals[f]))
+				known++;
+		int[] fIds = new int[known];
+		float[] values = new float[known];
+		for(int f=1, k=0;f<fVals.length;f++)
+			if(!Float.isNaN(fVals[f]))
+			{
+				fIds[k] = f;
+				values[k++] = fVals[f];
+			}
+		return new SparseDataPoint(label, id, description, fIds, values);
+	}
+
+	private static ByteBuffer map(FileChannel in, long offset, long length) throws IOException
+	{
+		return in.map(FileChannel.MapMode.READ_ONLY, offset, length).order(ByteOrder.LITTLE_ENDIAN);
+	}
+	private static String[] getStrings(ByteBuffer blob, int[] offsets)
+	{
+		byte[] bytes = new byte[offsets[offsets.length-1]];
+		blob.get(bytes);
+		String[] s = new String[offsets.length-1];
+		for(int i=0;i<s.length;i++)
+			s[i] = new String(bytes, offsets[i], offsets[i+1] - offsets[i], StandardCharsets.UTF_8);
+		return s;
+	}
+	private static long pad(long length)
+	{
+		return (length + 3) & ~3L;
+	}
+
+	/**
+	 * @return Number of bytes of the UTF-8 encoding of @s (as produced by {@link String#getBytes(java.nio.charset.Charset)}).
+	 */
+	private static int utf8Length(String s)
+	{
+		int n = 0;
+		for(int i=0;i<s.length();i++)
+		{
+			char c = s.charAt(i);
+			if(c < 0x80)
+				n++;
+			else if(c < 0x800)
+				n += 2;
+			else if(Character.isHighSurrogate(c) && i+1 < s.length() && Character.isLowSurrogate(s.charAt(i+1)))
+			{
+				n += 4;
+				i++;
+			}
+			else if(Character.isSurrogate(c))//unpaired, encoded as '?'
+				n++;
+			else
+				n += 3;
+		}
+		return n;
+	}
+
+	/**
+	 * Sizes of the sections of a binary file, counted in a first pass over the ranked lists (without building any feature vector).
+	 */
+	private static class Layout {
+		private final String outputFile;
+		int nLists = 0;
+		int nPoints = 0;
+		//blob offsets are stored as ints
+		int idBytes = 0;
+		int descriptionBytes = 0;
+
+		Layout(String outputFile)
+		{
+			this.outputFile = outputFile;
+		}
+		void add(RankList rl)
+		{
+			try {
+				nLists = Math.addExact(nLists, 1);
+				nPoints = Math.addExact(nPoints, rl.size());
+				idBytes = Math.addExact(idBytes, utf8Length(rl.getID()));
+				for(int j=0;j<rl.size();j++)
+					descriptionBytes = Math.addExact(descriptionBytes, utf8Length(rl.get(j).getDescription()));
+			}
+			catch(ArithmeticException ex)
+			{
+				throw RankLibError.create("Error in BinaryFeatureFile::write(): the data points, query ids or descriptions of " + outputFile +
+						" take more than " + Integer.MAX_VALUE + " entries/bytes, which the binary format does not support.");
+			}
+		}
+	}
+
+	/**
+	 * Second pass: the ranked lists are appended one at a time, each section of the file being written sequentially at the offset given
+	 * by the {@link Layout}. The feature vector of each data point is built once.
+	 */
+	private static class Writer implements Closeable {
+		//buffer sizes of the fixed sections and of each feature column
+		private static final int SECTION_BUFFER = 1 << 16;
+		private static final int COLUMN_BUFFER = 1 << 14;
+
+		private final Layout layout;
+		private final Path target;
+		private final Path tmp;
+		private final FileChannel out;
+		private final Section listStart;
+		private final Section idOffsets;
+		private final Section idBlob;
+		private final Section labels;
+		private final Section lengths;
+		private final Section known;
+		private final Section descOffsets;
+		private final Section descBlob;
+		private final long columnStart;
+		private final List<Section> columns = new ArrayList<>();//columns.get(f-1): values of feature f
+		private int list = 0;
+		private int point = 0;
+		private int idOffset = 0;
+		private int descOffset = 0;
+		private boolean committed = false;
+
+		Writer(Layout layout, String outputFile) throws IOException
+		{
+			this.layout = layout;
+			target = Paths.get(outputFile).toAbsolutePath();
+			tmp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+			try {
+				out = FileChannel.open(tmp, StandardOpenOption.WRITE);
+			}
+			catch(IOException ex)
+			{
+				Files.deleteIfExists(tmp);
+				throw ex;
+			}
+			long offset = HEADER_SIZE;
+			listStart = new Section(out, offset, SECTION_BUFFER);
+			offset += 4L * (layout.nLists+1);
+			idOffsets = new Section(out, offset, SECTION_BUFFER);
+			offset += 4L * (layout.nLists+1);
+			idBlob = new Section(out, offset, SECTION_BUFFER);
+			offset += pad(layout.idBytes);
+			labels = new Section(out, offset, SECTION_BUFFER);
+			offset += 4L * layout.nPoints;
+			lengths = new Section(out, offset, SECTION_BUFFER);
+			offset += 4L * layout.nPoints;
+			known = new Section(out, offset, SECTION_BUFFER);
+			offset += 4L * layout.nPoints;
+			descOffsets = new Section(out, offset, SECTION_BUFFER);
+			offset += 4L * (layout.nPoints+1);
+			descBlob = new Section(out, offset, SECTION_BUFFER);
+			offset += pad(layout.descriptionBytes);
+			columnStart = offset;
+		}
+		void add(RankList rl) throws IOException
+		{
+			byte[] id = rl.getID().getBytes(StandardCharsets.UTF_8);
+			listStart.putInt(point);
+			idOffsets.putInt(idOffset);
+			idBlob.put(id);
+			idOffset += id.length;
+			for(int j=0;j<rl.size();j++)
+			{
+				DataPoint dp = rl.get(j);
+				float[] fVals = dp.getFeatureVector();
+				int nKnown = 0;
+				for(int f=1;f<fVals.length;f++)
+				{
+					if(!Float.isNaN(fVals[f]))
+						nKnown++;
+					column(f).putFloat(fVals[f]);
+				}
+				labels.putFloat(dp.getLabel());
+				lengths.putInt(fVals.length);
+				known.putInt(nKnown);
+				byte[] d = dp.getDescription().getBytes(StandardCharsets.UTF_8);
+				descOffsets.putInt(descOffset);
+				descBlob.put(d);
+				descOffset += d.length;
+				point++;
+			}
+			list++;
+		}
+		/**
+		 * @return The column of feature @f, padded with unknown values up to the current data point.
+		 */
+		private Section column(int f) throws IOException
+		{
+			while(columns.size() < f)
+				columns.add(new Section(out, columnStart + 4L * layout.nPoints * columns.size(), COLUMN_BUFFER));
+			Section c = columns.get(f-1);
+			while(c.count < point)
+				c.putFloat(Float.NaN);
+			return c;
+		}
+		/**
+		 * Complete the file and move it to its final name.
+		 */
+		void commit() throws IOException
+		{
+			if(list != layout.nLists || point != layout.nPoints || idOffset != layout.idBytes || descOffset != layout.descriptionBytes)
+				throw RankLibError.create("Error in BinaryFeatureFile::write(): the ranked lists written to " + target + " changed between the two passes.");
+			listStart.putInt(point);
+			idOffsets.putInt(idOffset);
+			descOffsets.putInt(descOffset);
+			for(Section s : new Section[]{listStart, idOffsets, idBlob, labels, lengths, known, descOffsets, descBlob})
+				s.flush();
+			for(int f=1;f<=columns.size();f++)
+				column(f).flush();
+
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			header.putInt(MAGIC).putInt(VERSION).putInt(layout.nLists).putInt(layout.nPoints).putInt(columns.size());
+			header.flip();
+			for(long pos=0;header.hasRemaining();)
+				pos += out.write(header, pos);
+			out.close();
+			Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			committed = true;
+		}
+		public void close() throws IOException
+		{
+			out.close();
+			try {
+				if(!committed)
+					Files.deleteIfExists(tmp);
+			}
+			catch(IOException ex)
+			{
+				//the temporary file is not used by anybody, leave it
+			}
+		}
+	}
+
+	/**
+	 * Buffered writer of one section of the file, which starts at a given offset and is filled sequentially.
+	 */
+	private static class Section {
+		private final FileChannel out;
+		private long position;
+		private final ByteBuffer bb;
+		int count = 0;//number of ints/floats written
+
+		Section(FileChannel out, long position, int bufferSize)
+		{
+			this.out = out;
+			this.position = position;
+			bb = ByteBuffer.allocate(bufferSize).order(ByteOrder.LITTLE_ENDIAN);
+		}
+		void putInt(int v) throws IOException
+		{
+			if(bb.remaining() < 4)
+				flush();
+			bb.putInt(v);
+			count++;
+		}
+		void putFloat(float v) throws IOException
+		{
+			if(bb.remaining() < 4)
+				flush();
+			bb.putFloat(v);
+			count++;
+		}
+		void put(byte[] b) throws IOException
+		{
+			int written = 0;
+			while(written < b.length)
+			{
+				if(!bb.hasRemaining())
+					flush();
+				int n = Math.min(bb.remaining(), b.length - written);
+				bb.put(b, written, n);
+				written += n;
+			}
+		}
+		void flush() throws IOException
+		{
+			bb.flip();
+			while(bb.hasRemaining())
+				position += out.write(bb, position);
+			bb.clear();
+		}
+	}
+}
@@ -10,19 +10,26 @@
 package ciir.umass.edu.features;
 
 import ciir.umass.edu.learning.DataPoint;
-import ciir.umass.edu.learning.DenseDataPoint;
+import ciir.umass.edu.learning.DataPointParser;
 import ciir.umass.edu.learning.RankList;
-import ciir.umass.edu.learning.SparseDataPoint;
 import ciir.umass.edu.utilities.FileUtils;
+import ciir.umass.edu.utilities.MyThreadPool;
 import ciir.umass.edu.utilities.RankLibError;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
 public class FeatureManager {
 
+	//files at least twice this size are read in parallel (when more than one thread is available)
+	public static long parallelChunkSize = 8 << 20;
+
 	/**
 	 * @param args
 	 */
@@ -31,6 +38,7 @@ public class FeatureManager {
 		List<String> rankingFiles = new ArrayList<>();
 		String outputDir = "";
 		boolean shuffle = false;
+		boolean binary = false;
 		int nFold = 0;
 		float tvs = -1;//train-validation split in each fold
 		
@@ -51,6 +59,11 @@ public class FeatureManager {
 			System.out.println("\t-k <fold>\t\tThe number of folds");
 			System.out.println("\t[ -tvs <x \\in [0..1]> ] Train-validation split ratio (x)(1.0-x)");
 			
+			System.out.println("");
+			System.out.println("  [+] Binary copy");
+			System.out.println("\t-binary\t\t\tSave a binary copy of each input file (<file>" + BinaryFeatureFile.EXTENSION + ") next to it. RankLib loads");
+			System.out.println("\t\t\t\tthe binary copy instead of the text file as long as the text file has not been modified since.");
+
 			System.out.println("");
 			System.out.println("  NOTE: If both -shuffle and -k are specified, the input data will be shuffled and then sequentially partitioned.");
 			System.out.println("");
@@ -65,12 +78,25 @@ public class FeatureManager {
 				nFold = Integer.parseInt(args[++i]);
 			else if (args[i].equalsIgnoreCase ("-shuffle"))
 				shuffle = true;
+			else if (args[i].equalsIgnoreCase ("-binary"))
+				binary = true;
 			else if (args[i].equalsIgnoreCase ("-tvs"))
 				tvs = Float.parseFloat(args[++i]);
 			else if (args[i].equalsIgnoreCase ("-output"))
 				outputDir = FileUtils.makePathStandard(args[++i]);
 		}		
 	
+		if(binary)
+		{
+			for(String file : rankingFiles)
+			{
+				List<RankList> samples = readInput(file);
+				System.out.print("Saving binary copy... ");
+				BinaryFeatureFile.write(samples, BinaryFeatureFile.cacheName(file));
+				System.out.println("[Done]");
+			}
+		}
+
 		if(shuffle || nFold > 0)
 		{
 			List<RankList> samples = readInput(rankingFiles);
@@ -78,6 +104,7 @@ public class FeatureManager {
 			if(samples.size() == 0)
 			{
 				System.out.println("Error: The input file is empty.");
+				MyThreadPool.getInstance().shutdown();
 				return;
 			}
 			
@@ -121,6 +148,7 @@ public class FeatureManager {
 				}
 			}
 		}
+		MyThreadPool.getInstance().shutdown();
 	}
 	
 
@@ -144,66 +172,152 @@ public class FeatureManager {
 	 */
 	public static List<RankList> readInput(String inputFile, boolean mustHaveRelDoc, boolean useSparseRepresentation)	
 	{
+		MyThreadPool p = MyThreadPool.getInstance();
+		if(p.size() > 1 && !p.isShutdown() && new File(inputFile).length() >= 2 * parallelChunkSize)
+			return readInputParallel(inputFile, mustHaveRelDoc, useSparseRepresentation);
+
 		List<RankList> samples = new ArrayList<>();
-		int countRL = 0;
-		int countEntries = 0;
+		try (RankListReader in = new RankListReader(inputFile, mustHaveRelDoc, useSparseRepresentation)) {
+			int lastPrint = -1;
+			while(in.hasNext())
+			{
+				samples.add(in.next());
+				if(in.getEntryCount() / 10000 != lastPrint)
+				{
+					lastPrint = in.getEntryCount() / 10000;
+					System.out.print("\rReading feature file [" + inputFile + "]: " + samples.size() + "... ");
+				}
+			}
+			System.out.println("\rReading feature file [" + inputFile + "]... [Done.]            ");
+			System.out.println("(" + samples.size() + " ranked lists, " + in.getEntryCount() + " entries read)");
+		}
+		catch(Exception ex)
+		{
+			throw RankLibError.create("Error in FeatureManager::readInput(): ", ex);
+		}
+		return samples;
+	}
 
-		try {
-			String content = "";
-			BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(inputFile), "ASCII"));
-			
-			String lastID = "";
-			boolean hasRel = false;
-			List<DataPoint> rl = new ArrayList<>();
 
-			while((content = in.readLine()) != null)
+	/**
+	 * Read a set of rankings from a single file using all threads of the pool. The file is split into byte ranges that start
+	 * where the query id changes, so each range holds complete ranked lists. Ranges are parsed concurrently and the results
+	 * are put back together in file order: the output is identical to that of the sequential reader.
+	 * @param inputFile
+	 * @param mustHaveRelDoc
+	 * @param useSparseRepresentation
+	 * @return
+	 */
+	public static List<RankList> readInputParallel(String inputFile, boolean mustHaveRelDoc, boolean useSparseRepresentation)
+	{
+		List<RankList> samples = new ArrayList<>();
+		System.out.print("\rReading feature file [" + inputFile + "]... ");
+		try (FileChannel channel = FileChannel.open(Paths.get(inputFile), StandardOpenOption.READ)) {
+			MyThreadPool p = MyThreadPool.getInstance();
+			long fileSize = channel.size();
+			int nChunks = (int)Math.max(1, Math.min(p.size() * 4L, fileSize / parallelChunkSize));
+			List<Long> boundaries = new ArrayList<>();
+			boundaries.add(0L);
+			for(int i=1;i<nChunks;i++)
 			{
-				content = content.trim();
-				if(content.length() == 0)
+				long last = boundaries.get(boundaries.size()-1);
+				//a query longer than a chunk: the boundary found past it already covers this split point
+				if(last >= fileSize * i / nChunks)
 					continue;
-
-				if(content.indexOf("#")==0)
-					continue;
-				
-				if(countEntries % 10000 == 0)
-					System.out.print("\rReading feature file [" + inputFile + "]: " + countRL + "... ");
-				
-				DataPoint qp = null;
-
-				if(useSparseRepresentation)
-					qp = new SparseDataPoint(content);
-				else
-					qp = new DenseDataPoint(content);
-
-				if(lastID.compareTo("")!=0 && lastID.compareTo(qp.getID())!=0)
-				{
-					if(!mustHaveRelDoc || hasRel)
-						samples.add(new RankList(rl));
-					rl = new ArrayList<>();
-					hasRel = false;
-				}
-				
-				if(qp.getLabel() > 0)
-					hasRel = true;
-				lastID = qp.getID();
-				rl.add(qp);
-				countEntries++;
+				long b = findQueryBoundary(channel, fileSize * i / nChunks);
+				if(b >= fileSize)
+					break;
+				if(b > last)
+					boundaries.add(b);
 			}
+			boundaries.add(fileSize);
 
-			if(rl.size() > 0 && (!mustHaveRelDoc || hasRel))
-				samples.add(new RankList(rl));
+			ChunkReader[] readers = new ChunkReader[boundaries.size()-1];
+			for(int i=0;i<readers.length;i++)
+			{
+				readers[i] = new ChunkReader(channel, boundaries.get(i), boundaries.get(i+1), mustHaveRelDoc, useSparseRepresentation);
+				p.execute(readers[i]);
+			}
+			p.await();
 
-			in.close();
+			int countEntries = 0;
+			for(ChunkReader r : readers)
+			{
+				if(r.error != null)
+					throw r.error;
+				samples.addAll(r.samples);
+				countEntries += r.countEntries;
+			}
 			System.out.println("\rReading feature file [" + inputFile + "]... [Done.]            ");
 			System.out.println("(" + samples.size() + " ranked lists, " + countEntries + " entries read)");
 		}
 		catch(Exception ex)
 		{
-			throw RankLibError.create("Error in FeatureManager::readInput(): ", ex);
+			throw RankLibError.create("Error in FeatureManager::readInputParallel(): ", ex);
 		}
 		return samples;
 	}
 
+	/**
+	 * @return Offset of the first data line at or after the line containing {@code offset} whose query id differs from the id of
+	 * the line before it (or the end of the file). Only the query ids are scanned, no data point is built.
+	 */
+	private static long findQueryBoundary(FileChannel channel, long offset) throws IOException
+	{
+		//move to the beginning of the next line
+		ByteBuffer bb = ByteBuffer.allocate(4096);
+		long lineStart = -1;
+		for(long pos=offset-1;lineStart < 0;pos+=bb.limit())
+		{
+			bb.clear();
+			if(channel.read(bb, pos) <= 0)
+				return channel.size();
+			bb.flip();
+			for(int i=0;i<bb.limit();i++)
+				if(bb.get(i) == '\n')
+				{
+					lineStart = pos + i + 1;
+					break;
+				}
+		}
+
+		try (DataPointParser parser = new DataPointParser(channel, lineStart, channel.size(), false)) {
+			return parser.skipQuery();
+		}
+	}
+
+	private static class ChunkReader implements Runnable {
+		private final FileChannel channel;
+		private final long start;
+		private final long end;
+		private final boolean mustHaveRelDoc;
+		private final boolean useSparseRepresentation;
+		List<RankList> samples = new ArrayList<>();
+		int countEntries = 0;
+		Exception error = null;
+
+		ChunkReader(FileChannel channel, long start, long end, boolean mustHaveRelDoc, boolean useSparseRepresentation)
+		{
+			this.channel = channel;
+			this.start = start;
+			this.end = end;
+			this.mustHaveRelDoc = mustHaveRelDoc;
+			this.useSparseRepresentation = useSparseRepresentation;
+		}
+		public void run()
+		{
+			try (RankListReader in = new RankListReader(channel, start, end, mustHaveRelDoc, useSparseRepresentation)) {
+				while(in.hasNext())
+					samples.add(in.next());
+				countEntries = in.getEntryCount();
+			}
+			catch(Exception ex)
+			{
+				error = ex;
+			}
+		}
+	}
+
 
 	/**
 	 * Read sets of rankings from multiple files. Then merge them altogether into a single ranking.
@@ -0,0 +1,160 @@
+/*===============================================================================
+ * Copyright (c) 2010-2016 University of Massachusetts.  All Rights Reserved.
+ *
+ * Use of the RankLib package is subject to the terms of the software license set
+ * forth in the LICENSE file included with this software, and also available at
+ * http://people.cs.umass.edu/~vdang/ranklib_license.html
+ *===============================================================================
+ */
+
+package ciir.umass.edu.features;
+
+import ciir.umass.edu.learning.DataPoint;
+import ciir.umass.edu.learning.DataPointParser;
+import ciir.umass.edu.learning.RankList;
+import ciir.umass.edu.utilities.RankLibError;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads the ranked lists of a feature file one at a time, so that only the current list has to be kept in memory.
+ * Consecutive data points with the same query id form a ranked list (same as {@link FeatureManager#readInput(String, boolean, boolean)}).
+ * The lists can also be read from the binary copy of the file (see {@link BinaryFeatureFile}).
+ */
+public class RankListReader implements Iterator<RankList>, Closeable {
+
+	private final DataPointParser parser;
+	private final BinaryFeatureFile.Cursor cursor;
+	private final boolean mustHaveRelDoc;
+	private DataPoint pending = null;//first data point of the next ranked list
+	private RankList next = null;
+	private int countEntries = 0;
+	private int countLists = 0;
+
+	public RankListReader(String inputFile, boolean mustHaveRelDoc, boolean useSparseRepresentation)
+	{
+		try {
+			parser = new DataPointParser(inputFile, useSparseRepresentation);
+		}
+		catch(IOException ex)
+		{
+			throw RankLibError.create("Error in RankListReader::RankListReader(): ", ex);
+		}
+		cursor = null;
+		this.mustHaveRelDoc = mustHaveRelDoc;
+	}
+	/**
+	 * Read the ranked lists of a binary feature file.
+	 */
+	public RankListReader(BinaryFeatureFile.Cursor cursor, boolean mustHaveRelDoc)
+	{
+		parser = null;
+		this.cursor = cursor;
+		this.mustHaveRelDoc = mustHaveRelDoc;
+	}
+	/**
+	 * Read the ranked lists stored in the byte range [start, end) of a file. Both ends of the range must be line boundaries.
+	 */
+	public RankListReader(FileChannel channel, long start, long end, boolean mustHaveRelDoc, boolean useSparseRepresentation) throws IOException
+	{
+		parser = new DataPointParser(channel, start, end, useSparseRepresentation);
+		cursor = null;
+		this.mustHaveRelDoc = mustHaveRelDoc;
+	}
+
+	public boolean hasNext()
+	{
+		while(next == null && cursor != null)
+		{
+			List<DataPoint> rl = cursor.nextList();
+			if(rl == null)
+				return false;
+			boolean hasRel = false;
+			for(int i=0;i<rl.size() && !hasRel;i++)
+				hasRel = (rl.get(i).getLabel() > 0);
+			countEntries += rl.size();
+			if(rl.size() > 0 && (!mustHaveRelDoc || hasRel))
+			{
+				next = new RankList(rl);
+				countLists++;
+			}
+		}
+		while(next == null)
+		{
+			DataPoint qp = (pending != null) ? pending : parser.next();
+			pending = null;
+			if(qp == null)
+				return false;
+
+			List<DataPoint> rl = new ArrayList<>();
+			String lastID = "";
+			boolean hasRel = false;
+			while(qp != null && (lastID.compareTo("")==0 || lastID.compareTo(qp.getID())==0))
+			{
+				if(qp.getLabel() > 0)
+					hasRel = true;
+				lastID = qp.getID();
+				rl.add(qp);
+				countEntries++;
+				qp = parser.next();
+			}
+			pending = qp;
+
+			if(!mustHaveRelDoc || hasRel)
+			{
+				next = new RankList(rl);
+				countLists++;
+			}
+		}
+		return true;
+	}
+
+	public RankList next()
+	{
+		if(!hasNext())
+			throw new NoSuchElementException();
+		RankList rl = next;
+		next = null;
+		return rl;
+	}
+
+	public void remove()
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * @return Number of data points read so far (including those of ranked lists skipped because they have no relevant document).
+	 */
+	public int getEntryCount()
+	{
+		return countEntries;
+	}
+	/**
+	 * @return Number of ranked lists returned so far.
+	 */
+	public int getRankListCount()
+	{
+		return countLists;
+	}
+
+	public void close()
+	{
+		try {
+			if(parser != null)
+				parser.close();
+			else
+				cursor.close();
+		}
+		catch(IOException ex)
+		{
+			throw RankLibError.create("Error in RankListReader::close(): ", ex);
+		}
+	}
+}
@@ -12,6 +12,7 @@ package ciir.umass.edu.learning;
 import ciir.umass.edu.metric.MetricScorer;
 import ciir.umass.edu.utilities.KeyValuePair;
 import ciir.umass.edu.utilities.MergeSorter;
+import ciir.umass.edu.utilities.MyThreadPool;
 import ciir.umass.edu.utilities.RankLibError;
 import ciir.umass.edu.utilities.SimpleMath;
 
@@ -21,6 +22,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Random;
 
 /**
  * @author vdang
@@ -39,12 +41,17 @@ public class CoorAscent extends Ranker {
 	public static boolean regularized = false;
 	public static double slack = 0.001;//regularized parameter
 	
+	//Evaluate all the step sizes tried for a feature in a direction at once, in parallel, each of them from the cached scores of the
+	//original weight (instead of one after another, each of them moving the cached scores by one more step). This changes the search,
+	//so the models learned are different (often better) than without it: the serial search probes the removal of a feature (direction 0)
+	//with a zero weight change, i.e. it scores the original weight again, and when that probe fails it adds origWeight*x to the cached
+	//scores, which then no longer match the weights. Here the removal is scored with a zero weight, and the cached scores always match the
+	//weights. The model learned does not depend on the number of threads.
+	public static boolean parallelSteps = false;
+	
 	//Local variables
 	public double[] weight = null;
 	
-	protected int current_feature = -1;//used only during learning
-	protected double weight_change = -1.0;//used only during learning
-	
 	public CoorAscent()
 	{
 		
@@ -66,179 +73,54 @@ public class CoorAscent extends Ranker {
 		double[] regVector = new double[weight.length];
 		copy(weight, regVector);//uniform weight distribution
 		
-		//this holds the final best model/score
-		double[] bestModel = null;
-		double bestModelScore = 0.0;
-
-		// look in both directions and with feature removed.
-		final int[] sign = new int[]{1, -1, 0};
-		
 		PRINTLN("---------------------------");
 		PRINTLN("Training starts...");
 		PRINTLN("---------------------------");
 		
+		//Restarts are independent of each other: run them concurrently if we can, each of them with its own copy of the data points (hence
+		//of their cached scores). Their progress is not printed then, since it would be interleaved.
+		MyThreadPool p = MyThreadPool.getInstance();
+		boolean parallel = nRestart > 1 && p.size() > 1 && !p.isWorkerThread();
+		Restart[] restarts = new Restart[nRestart];
 		for(int r=0;r<nRestart;r++)
 		{
-			PRINTLN("[+] Random restart #" + (r+1) + "/" + nRestart + "...");
-			int consecutive_fails = 0;
-			
-			//initialize weight vector
-			for(int i=0;i<weight.length;i++)
-				weight[i] = 1.0f/features.length;
-			
-			current_feature = -1;
-			double startScore = scorer.score(rank(samples));//compute all the scores (in whatever metric specified) and store them as cache
-			
-			//local best (within the current restart cycle)
-			double bestScore = startScore;
-			double[] bestWeight = new double[weight.length];
-			copy(weight, bestWeight);
-
-			//There must be at least one feature increasing whose weight helps
-			while((weight.length>1&&consecutive_fails < weight.length - 1) || (weight.length==1&&consecutive_fails==0))
-			{
-				PRINTLN("Shuffling features' order... [Done.]");
-				PRINTLN("Optimizing weight vector... ");
-				PRINTLN("------------------------------");
-				PRINTLN(new int[]{7, 8, 7}, new String[]{"Feature", "weight", scorer.name()});
-				PRINTLN("------------------------------");
-
-				int[] fids = getShuffledFeatures();//contain index of elements in the variable @features
-				//Try maximizing each feature individually
-				for(int i=0;i<fids.length;i++)
-				{
-					current_feature = fids[i];//this will trigger the "else" branch in the procedure rank()
-					
-					double origWeight = weight[fids[i]];
-					double totalStep = 0;
-					double bestTotalStep = 0;					
-					boolean succeeds = false;//whether or not we succeed in finding a better weight value for the current feature
-					for(int s=0;s<sign.length;s++)//search by both increasing and decreasing
-					{
-						int dir = sign[s];
-						double step = 0.001 * dir;
-						if(origWeight != 0.0 && Math.abs(step) > 0.5 * Math.abs(origWeight))
-					    	step = stepBase * Math.abs(origWeight);
-						totalStep = step;
-						int numIter = nMaxIteration;
-						if(dir == 0) {
-							numIter = 1;
-							totalStep = -origWeight;
-						}
-						for (int j = 0; j < numIter; j++)
-						{
-							double w = origWeight + totalStep;
-							weight_change = step;//weight_change is used in the "else" branch in the procedure rank()
-							weight[fids[i]] = w;
-							double score = scorer.score(rank(samples));
-							if(regularized)
-							{
-								double penalty = slack * getDistance(weight, regVector);
-								score -= penalty;
-								//PRINTLN("Penalty: " + penalty);
-							}
-							if(score > bestScore)//better than the local best, replace the local best with this model
-							{
-								bestScore = score;
-								bestTotalStep = totalStep;
-								succeeds = true;
-								String bw = ((weight[fids[i]]>0)?"+":"") + SimpleMath.round(weight[fids[i]], 4);
-								PRINTLN(new int[]{7, 8, 7}, new String[]{features[fids[i]]+"", bw+"", SimpleMath.round(bestScore, 4)+""});
-							}
-							if(j < nMaxIteration-1)
-							{
-								step *= stepScale;
-								totalStep += step;
-							}
-						}
-						if(succeeds)
-							break;//no need to search the other direction (e.g. sign = '-')
-						else if(s < sign.length-1)
-						{
-							weight_change = -totalStep;
-							updateCached();//restore the cached to reflect the orig. weight for the current feature 
-							//so that we can start searching in the other direction (since the optimization in the first direction failed)
-							weight[fids[i]] = origWeight;//restore the weight to its initial value
-						}
-					}
-					if(succeeds) 
-					{
-						weight_change = bestTotalStep - totalStep;
-						updateCached();//restore the cached to reflect the best weight for the current feature
-						weight[fids[i]] = origWeight + bestTotalStep;
-						consecutive_fails = 0;//since we found a better weight value
-						double sum = normalize(weight);
-						scaleCached(sum);
-						copy(weight, bestWeight);						
-					}
-					else
-					{
-						consecutive_fails++;
-						weight_change = -totalStep;
-						updateCached();//restore the cached to reflect the orig. weight for the current feature since the optimization failed
-						//Restore the orig. weight value
-						weight[fids[i]] = origWeight;
-					}
-				}
-				PRINTLN("------------------------------");
-				
-				//if we haven't made much progress then quit
-				if(bestScore - startScore < tolerance)
-					break;
-			}
+			restarts[r] = new Restart(r, regVector, parallel);
+			if(parallel)
+				p.execute(restarts[r]);
+			else
+				restarts[r].run();
+		}
+		if(parallel)
+			p.await();
+		
+		//this holds the final best model/score
+		double[] bestModel = null;
+		double bestModelScore = 0.0;
+		for(int r=0;r<nRestart;r++)
+		{
+			if(parallel)
+				PRINTLN("[+] Random restart #" + (r+1) + "/" + nRestart + ": " + scorer.name() + "=" + SimpleMath.round(restarts[r].bestScore, 4));
 			//update the (global) best model with the best model found in this round
-			if(validationSamples != null)
-			{
-				current_feature = -1;
-				bestScore = scorer.score(rank(validationSamples));
-			}			
-			if(bestModel == null || bestScore > bestModelScore)
+			if(bestModel == null || restarts[r].bestScore > bestModelScore)
 			{
-				bestModelScore = bestScore;
-				bestModel = bestWeight;
+				bestModelScore = restarts[r].bestScore;
+				bestModel = restarts[r].bestWeight;
 			}
 		}
 		
 		copy(bestModel, weight);
-		current_feature = -1;//turn off the cache mode
-		scoreOnTrainingData = SimpleMath.round(scorer.score(rank(samples)), 4);
+		scoreOnTrainingData = SimpleMath.round(scorer.score(rank(samples, scorer.getRankingDepth())), 4);
 		PRINTLN("---------------------------------");
 		PRINTLN("Finished sucessfully.");
 		PRINTLN(scorer.name() + " on training data: " + scoreOnTrainingData);
 
 		if(validationSamples != null)
 		{
-			bestScoreOnValidationData = scorer.score(rank(validationSamples));
+			bestScoreOnValidationData = scorer.score(rank(validationSamples, scorer.getRankingDepth()));
 			PRINTLN(scorer.name() + " on validation data: " + SimpleMath.round(bestScoreOnValidationData, 4));
 		}
 		PRINTLN("---------------------------------");
 	}
-	public RankList rank(RankList rl)
-	{
-		double[] score = new double[rl.size()];
-		if(current_feature == -1)
-		{
-			for(int i=0;i<rl.size();i++)
-			{
-				for(int j=0;j<features.length;j++)
-					score[i] += weight[j] * rl.get(i).getFeatureValue(features[j]);
-				rl.get(i).setCached(score[i]);//use cache of a data point to store its score given the model at this state
-			}
-		}
-		else//This branch is only active during the training process. Here we trade the "clean" codes for efficiency 
-		{
-			for(int i=0;i<rl.size();i++)
-			{
-				//cached score = a_1*x_1 + a_2*x_2 + ... + a_n*x_n
-				//a_2 ==> a'_2
-				//new score = cached score + (a'_2 - a_2)*x_2  ====> NO NEED TO RE-COMPUTE THE WHOLE THING
-				score[i] = rl.get(i).getCached() + weight_change * rl.get(i).getFeatureValue(features[current_feature]);
-				rl.get(i).setCached(score[i]);
-			}
-		}
-		int[] idx = MergeSorter.sort(score, false); 
-		return new RankList(rl, idx);
-	}
 	public double eval(DataPoint p)
 	{
 		double score = 0.0;
@@ -314,47 +196,16 @@ public class CoorAscent extends Ranker {
 			PRINTLN("Reg. param: " + slack);
 		else
 			PRINTLN("Regularization: No");
+		if(parallelSteps)
+			PRINTLN("Step sizes evaluated in parallel");
+		if(seed != -1)
+			PRINTLN("Seed: " + seed);
 	}
 	public String name()
 	{
 		return "Coordinate Ascent";
 	}
 	
-	private void updateCached()
-	{
-		for(int j=0;j<samples.size();j++)
-		{
-			RankList rl = samples.get(j);
-			for(int i=0;i<rl.size();i++)
-			{
-				//cached score = a_1*x_1 + a_2*x_2 + ... + a_n*x_n
-				//a_2 ==> a'_2
-				//new score = cached score + (a'_2 - a_2)*x_2  ====> NO NEED TO RE-COMPUTE THE WHOLE THING
-				double score = rl.get(i).getCached() + weight_change * rl.get(i).getFeatureValue(features[current_feature]);
-				rl.get(i).setCached(score);
-			}
-		}
-	}
-	private void scaleCached(double sum)
-	{
-		for(int j=0;j<samples.size();j++)
-		{
-			RankList rl = samples.get(j);
-			for(int i=0;i<rl.size();i++)
-				rl.get(i).setCached(rl.get(i).getCached()/sum);
-		}
-	}
-	private int[] getShuffledFeatures()
-	{
-		int[] fids = new int[features.length];
-		List<Integer> l = new ArrayList<Integer>();
-		for(int i=0;i<features.length;i++)
-			l.add(i);
-		Collections.shuffle(l);
-		for(int i=0;i<l.size();i++)
-			fids[i] = l.get(i);
-		return fids;
-	}
 	private double getDistance(double[] w1, double[] w2)
 	{
 		assert(w1.length == w2.length);
@@ -407,4 +258,354 @@ public class CoorAscent extends Ranker {
 	{
 		return getDistance(weight, ca.weight);
 	}
+
+	/**
+	 * @return A copy of @lists whose data points share the features of the original ones, but have their own cached scores.
+	 */
+	protected List<RankList> shallowCopy(List<RankList> lists)
+	{
+		List<RankList> copy = new ArrayList<RankList>();
+		for(int i=0;i<lists.size();i++)
+		{
+			RankList rl = lists.get(i);
+			List<DataPoint> l = new ArrayList<DataPoint>();
+			for(int j=0;j<rl.size();j++)
+				l.add(rl.get(j).shallowCopy());
+			copy.add(new RankList(l));
+		}
+		return copy;
+	}
+	
+	/**
+	 * One random restart. It has its own weight vector and its own cached scores (those of the data points it trains on, which are copies of
+	 * the training data points when restarts run concurrently), so that restarts can run at the same time.
+	 */
+	class Restart implements Runnable {
+		int r = 0;
+		double[] regVector = null;
+		boolean concurrent = false;
+		Random random = null;//null: shuffle with the default source of randomness (unseeded)
+		
+		List<RankList> lists = null;
+		List<List<RankList>> stepLists = new ArrayList<List<RankList>>();//lists the step sizes are evaluated on (see parallelSteps)
+		double[] weight = null;
+		int current_feature = -1;
+		double weight_change = -1.0;
+		
+		//the best model/score found in this restart
+		double[] bestWeight = null;
+		double bestScore = 0.0;
+		
+		Restart(int r, double[] regVector, boolean concurrent)
+		{
+			this.r = r;
+			this.regVector = regVector;
+			this.concurrent = concurrent;
+			if(seed != -1)
+				random = new Random(seed + r);
+		}
+		public void run()
+		{
+			log("[+] Random restart #" + (r+1) + "/" + nRestart + "...");
+			lists = concurrent ? shallowCopy(samples) : samples;
+			
+			// look in both directions and with feature removed.
+			final int[] sign = new int[]{1, -1, 0};
+			int consecutive_fails = 0;
+			
+			//initialize weight vector
+			weight = new double[features.length];
+			for(int i=0;i<weight.length;i++)
+				weight[i] = 1.0f/features.length;
+			
+			current_feature = -1;
+			double startScore = scorer.score(rank(lists, scorer.getRankingDepth()));//compute all the scores (in whatever metric specified) and store them as cache
+			
+			//local best (within the current restart cycle)
+			bestScore = startScore;
+			bestWeight = new double[weight.length];
+			copy(weight, bestWeight);
+
+			//There must be at least one feature increasing whose weight helps
+			while((weight.length>1&&consecutive_fails < weight.length - 1) || (weight.length==1&&consecutive_fails==0))
+			{
+				log("Shuffling features' order... [Done.]");
+				log("Optimizing weight vector... ");
+				log("------------------------------");
+				log(new int[]{7, 8, 7}, new String[]{"Feature", "weight", scorer.name()});
+				log("------------------------------");
+
+				int[] fids = getShuffledFeatures();//contain index of elements in the variable @features
+				//Try maximizing each feature individually
+				for(int i=0;i<fids.length;i++)
+				{
+					current_feature = fids[i];//this will trigger the "else" branch in the procedure rank()
+					
+					double origWeight = weight[fids[i]];
+					double totalStep = 0;
+					double bestTotalStep = 0;
+					double cachedStep = 0;//weight change the cached scores currently reflect for the current feature
+					boolean succeeds = false;//whether or not we succeed in finding a better weight value for the current feature
+					for(int s=0;s<sign.length;s++)//search by both increasing and decreasing
+					{
+						int dir = sign[s];
+						double step = 0.001 * dir;
+						if(origWeight != 0.0 && Math.abs(step) > 0.5 * Math.abs(origWeight))
+					    	step = stepBase * Math.abs(origWeight);
+						totalStep = step;
+						int numIter = nMaxIteration;
+						if(dir == 0) {
+							numIter = 1;
+							totalStep = -origWeight;
+						}
+						double[] scores = null;
+						if(parallelSteps)
+						{
+							double[] totalSteps = new double[numIter];
+							for(int j=0;j<numIter;j++)
+							{
+								totalSteps[j] = totalStep;
+								if(j < nMaxIteration-1)
+								{
+									step *= stepScale;
+									totalStep += step;
+								}
+							}
+							totalStep = totalSteps[numIter-1];
+							scores = scoreSteps(totalSteps);
+							for (int j = 0; j < numIter; j++)
+							{
+								weight[fids[i]] = origWeight + totalSteps[j];
+								if(improves(scores[j]))
+								{
+									bestTotalStep = totalSteps[j];
+									succeeds = true;
+								}
+							}
+						}
+						else
+						{
+							for (int j = 0; j < numIter; j++)
+							{
+								double w = origWeight + totalStep;
+								weight_change = step;//weight_change is used in the "else" branch in the procedure rank()
+								weight[fids[i]] = w;
+								if(improves(scorer.score(rank(lists, scorer.getRankingDepth()))))
+								{
+									bestTotalStep = totalStep;
+									succeeds = true;
+								}
+								if(j < nMaxIteration-1)
+								{
+									step *= stepScale;
+									totalStep += step;
+								}
+							}
+							cachedStep = totalStep;
+						}
+						if(succeeds)
+							break;//no need to search the other direction (e.g. sign = '-')
+						else if(s < sign.length-1)
+						{
+							if(!parallelSteps)
+							{
+								weight_change = -cachedStep;
+								updateCached();//restore the cached to reflect the orig. weight for the current feature 
+								//so that we can start searching in the other direction (since the optimization in the first direction failed)
+								cachedStep = 0;
+							}
+							weight[fids[i]] = origWeight;//restore the weight to its initial value
+						}
+					}
+					if(succeeds) 
+					{
+						weight_change = bestTotalStep - cachedStep;
+						updateCached();//restore the cached to reflect the best weight for the current feature
+						weight[fids[i]] = origWeight + bestTotalStep;
+						consecutive_fails = 0;//since we found a better weight value
+						double sum = normalize(weight);
+						scaleCached(sum);
+						copy(weight, bestWeight);						
+					}
+					else
+					{
+						consecutive_fails++;
+						if(!parallelSteps)
+						{
+							weight_change = -cachedStep;
+							updateCached();//restore the cached to reflect the orig. weight for the current feature since the optimization failed
+						}
+						//Restore the orig. weight value
+						weight[fids[i]] = origWeight;
+					}
+				}
+				log("------------------------------");
+				
+				//if we haven't made much progress then quit
+				if(bestScore - startScore < tolerance)
+					break;
+			}
+			if(validationSamples != null)
+			{
+				current_feature = -1;
+				bestScore = scorer.score(rank(concurrent ? shallowCopy(validationSamples) : validationSamples, scorer.getRankingDepth()));
+			}
+			lists = null;
+			stepLists = null;
+		}
+		/**
+		 * Keep track of @score (the score of the current weight vector before regularization) if it is better than the best one so far.
+		 */
+		private boolean improves(double score)
+		{
+			if(regularized)
+			{
+				double penalty = slack * getDistance(weight, regVector);
+				score -= penalty;
+				//PRINTLN("Penalty: " + penalty);
+			}
+			if(score > bestScore)//better than the local best, replace the local best with this model
+			{
+				bestScore = score;
+				String bw = ((weight[current_feature]>0)?"+":"") + SimpleMath.round(weight[current_feature], 4);
+				log(new int[]{7, 8, 7}, new String[]{features[current_feature]+"", bw+"", SimpleMath.round(bestScore, 4)+""});
+				return true;
+			}
+			return false;
+		}
+		/**
+		 * @return The score (before regularization) of each weight @totalSteps[j] away from the current weight of the current feature. The
+		 * cached scores are not changed. The steps are evaluated in parallel, each thread on its own copy of the training data points.
+		 */
+		private double[] scoreSteps(final double[] totalSteps)
+		{
+			final double[] scores = new double[totalSteps.length];
+			MyThreadPool p = MyThreadPool.getInstance();
+			int[] partition = (p.size() > 1 && !p.isWorkerThread()) ? p.partition(totalSteps.length) : new int[]{0, totalSteps.length};
+			while(stepLists.size() < partition.length-1)
+				stepLists.add(shallowCopy(lists));
+			for(int i=0;i<partition.length-1;i++)
+			{
+				final List<RankList> l = stepLists.get(i);
+				final int start = partition[i];
+				final int end = partition[i+1];
+				Runnable task = new Runnable() {
+					public void run()
+					{
+						for(int j=start;j<end;j++)
+							scores[j] = scorer.score(rankStep(l, totalSteps[j]));
+					}
+				};
+				if(partition.length == 2)
+					task.run();
+				else
+					p.execute(task);
+			}
+			if(partition.length > 2)
+				p.await();
+			return scores;
+		}
+		/**
+		 * Rank @l (a copy of @lists) with the current feature @totalStep away from its weight in the cached scores of @lists.
+		 */
+		private List<RankList> rankStep(List<RankList> l, double totalStep)
+		{
+			List<RankList> ll = new ArrayList<RankList>();
+			for(int j=0;j<l.size();j++)
+			{
+				RankList base = lists.get(j);
+				RankList rl = l.get(j);
+				double[] score = new double[rl.size()];
+				for(int i=0;i<rl.size();i++)
+				{
+					score[i] = base.get(i).getCached() + totalStep * rl.get(i).getFeatureValue(features[current_feature]);
+					rl.get(i).setCached(score[i]);
+				}
+				int[] idx = MergeSorter.sortTop(score, 0, score.length-1, scorer.getRankingDepth());
+				ll.add(new RankList(rl, idx));
+			}
+			return ll;
+		}
+		private List<RankList> rank(List<RankList> l, int depth)
+		{
+			List<RankList> ll = new ArrayList<RankList>();
+			for(int i=0;i<l.size();i++)
+				ll.add(rank(l.get(i), depth));
+			return ll;
+		}
+		private RankList rank(RankList rl, int depth)
+		{
+			double[] score = new double[rl.size()];
+			if(current_feature == -1)
+			{
+				for(int i=0;i<rl.size();i++)
+				{
+					for(int j=0;j<features.length;j++)
+						score[i] += weight[j] * rl.get(i).getFeatureValue(features[j]);
+					rl.get(i).setCached(score[i]);//use cache of a data point to store its score given the model at this state
+				}
+			}
+			else//This branch is only active during the training process. Here we trade the "clean" codes for efficiency 
+			{
+				for(int i=0;i<rl.size();i++)
+				{
+					//cached score = a_1*x_1 + a_2*x_2 + ... + a_n*x_n
+					//a_2 ==> a'_2
+					//new score = cached score + (a'_2 - a_2)*x_2  ====> NO NEED TO RE-COMPUTE THE WHOLE THING
+					score[i] = rl.get(i).getCached() + weight_change * rl.get(i).getFeatureValue(features[current_feature]);
+					rl.get(i).setCached(score[i]);
+				}
+			}
+			int[] idx = MergeSorter.sortTop(score, 0, score.length-1, depth);
+			return new RankList(rl, idx);
+		}
+		private void updateCached()
+		{
+			for(int j=0;j<lists.size();j++)
+			{
+				RankList rl = lists.get(j);
+				for(int i=0;i<rl.size();i++)
+				{
+					//cached score = a_1*x_1 + a_2*x_2 + ... + a_n*x_n
+					//a_2 ==> a'_2
+					//new score = cached score + (a'_2 - a_2)*x_2  ====> NO NEED TO RE-COMPUTE THE WHOLE THING
+					double score = rl.get(i).getCached() + weight_change * rl.get(i).getFeatureValue(features[current_feature]);
+					rl.get(i).setCached(score);
+				}
+			}
+		}
+		private void scaleCached(double sum)
+		{
+			for(int j=0;j<lists.size();j++)
+			{
+				RankList rl = lists.get(j);
+				for(int i=0;i<rl.size();i++)
+					rl.get(i).setCached(rl.get(i).getCached()/sum);
+			}
+		}
+		private int[] getShuffledFeatures()
+		{
+			int[] fids = new int[features.length];
+			List<Integer> l = new ArrayList<Integer>();
+			for(int i=0;i<features.length;i++)
+				l.add(i);
+			if(random == null)
+				Collections.shuffle(l);
+			else
+				Collections.shuffle(l, random);
+			for(int i=0;i<l.size();i++)
+				fids[i] = l.get(i);
+			return fids;
+		}
+		private void log(String msg)
+		{
+			if(!concurrent)
+				PRINTLN(msg);
+		}
+		private void log(int[] len, String[] msgs)
+		{
+			if(!concurrent)
+				PRINTLN(len, msgs);
+		}
+	}
 }
\ No newline at end of file
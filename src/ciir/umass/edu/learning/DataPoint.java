@@ -21,9 +21,11 @@ import java.util.Arrays;
  */
 public abstract class DataPoint {
 	
-	public static int MAX_FEATURE = 51;
+	public static volatile int MAX_FEATURE = 51;
 	public static int FEATURE_INCREASE = 10;
-	protected static int featureCount = 0;
+	protected static volatile int featureCount = 0;
+	//guards updates of MAX_FEATURE/featureCount when several files (or chunks of a file) are read concurrently
+	private static final Object featureCountLock = new Object();
 	
 	protected static float UNKNOWN = Float.NaN;
 	
@@ -59,7 +61,8 @@ public abstract class DataPoint {
 	 */
 	protected float[] parse(String text)
 	{
-		float[] fVals = new float[MAX_FEATURE];
+		int capacity = MAX_FEATURE;
+		float[] fVals = new float[capacity];
 		Arrays.fill(fVals, UNKNOWN);
 		int lastFeature = -1;
 		try {
@@ -86,23 +89,21 @@ public abstract class DataPoint {
 				val = getValue(fs[i]);
 				int f = Integer.parseInt(key);
 				if(f <= 0) throw RankLibError.create("Cannot use feature numbering less than or equal to zero. Start your features at 1.");
-				if(f >= MAX_FEATURE)
+				if(f >= capacity)
 				{
-					while(f >= MAX_FEATURE)
-						MAX_FEATURE += FEATURE_INCREASE;
-					float[] tmp = new float [MAX_FEATURE];
+					while(f >= capacity)
+						capacity += FEATURE_INCREASE;
+					float[] tmp = new float [capacity];
 					System.arraycopy(fVals, 0, tmp, 0, fVals.length);
-					Arrays.fill(tmp, fVals.length, MAX_FEATURE, UNKNOWN);
+					Arrays.fill(tmp, fVals.length, capacity, UNKNOWN);
 					fVals = tmp;
 				}
 				fVals[f] = Float.parseFloat(val);
 				
-				if(f > featureCount)//#feature will be the max_id observed
-					featureCount = f;
-				
 				if(f > lastFeature)//note that lastFeature is the max_id observed for this current data point, whereas featureCount is the max_id observed on the entire dataset
 					lastFeature = f;
 			}
+			updateFeatureCount(lastFeature);
 			//shrink fVals
 			float[] tmp = new float[lastFeature+1];
 			System.arraycopy(fVals, 0, tmp, 0, lastFeature+1);
@@ -139,6 +140,12 @@ public abstract class DataPoint {
 	*/
 	public abstract float[] getFeatureVector();
 	
+	/**
+	* Gets a data point with the same label, id, description, cached score and (shared, not copied) feature values, but whose cached score
+	* can be changed independently of this one's.
+	*/
+	public abstract DataPoint shallowCopy();
+	
 	/**
 	* Default constructor. No-op.
 	*/
@@ -154,6 +161,18 @@ public abstract class DataPoint {
 		setFeatureVector(fVals);
 	}
 	
+	/**
+	* Construct a data point from metadata that has already been parsed (e.g. by {@link DataPointParser}). 
+	* Subclasses are responsible for storing the feature values.
+	*/
+	protected DataPoint(float label, String id, String description, int knownFeatures)
+	{
+		this.label = label;
+		this.id = id;
+		this.description = description;
+		this.knownFeatures = knownFeatures;
+	}
+	
 	public String getID()
 	{
 		return id;
@@ -206,5 +225,24 @@ public abstract class DataPoint {
 	public static int getFeatureCount()
 	{
 		return featureCount;
-	}	
+	}
+	
+	/**
+	 * Record the largest feature id of a data point that has just been read. Safe to call from concurrent readers.
+	 * @param lastFeature
+	 */
+	public static void updateFeatureCount(int lastFeature)
+	{
+		if(lastFeature <= featureCount && lastFeature < MAX_FEATURE)
+			return;
+		synchronized(featureCountLock)
+		{
+			if(lastFeature > featureCount)//#feature will be the max_id observed
+				featureCount = lastFeature;
+			int max = MAX_FEATURE;
+			while(lastFeature >= max)
+				max += FEATURE_INCREASE;
+			MAX_FEATURE = max;
+		}
+	}
 }
\ No newline at end of file
@@ -0,0 +1,511 @@
+/*===============================================================================
+ * Copyright (c) 2010-2016 University of Massachusetts.  All Rights Reserved.
+ *
+ * Use of the RankLib package is subject to the terms of the software license set
+ * forth in the LICENSE file included with this software, and also available at
+ * http://people.cs.umass.edu/~vdang/ranklib_license.html
+ *===============================================================================
+ */
+
+package ciir.umass.edu.learning;
+
+import ciir.umass.edu.utilities.RankLibError;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Byte-level reader for files in the SVMlight/LETOR format. Lines are tokenized directly out of a {@link ByteBuffer} filled from a
+ * {@link FileChannel}: the only objects created per line are the data point itself, its feature array and its description.
+ * Numbers are parsed in place; the few that cannot be parsed exactly on the fast path fall back to {@link Float#parseFloat(String)},
+ * so the values are identical to those produced by {@link DataPoint#parse(String)}.
+ * Bytes are compared as unsigned values, so non-ASCII bytes are never taken for whitespace; like the ASCII text reader, they
+ * are decoded as U+FFFD in ids and descriptions.
+ *
+ * The parser only uses positional reads, so several parsers can share one channel (each on its own byte range).
+ */
+public class DataPointParser implements Closeable {
+
+	public static int BUFFER_SIZE = 1 << 20;
+
+	//powers of ten that are exactly representable as floats
+	private static final float[] POW10 = {1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f};
+	private static final long MAX_EXACT_MANTISSA = 1 << 24;
+
+	private final FileChannel channel;
+	private final boolean ownChannel;
+	private final boolean useSparse;
+
+	private long filePos;//offset of the next byte to read from the channel
+	private final long end;
+	private byte[] buf;
+	private int pos = 0;//start of the unparsed region of buf
+	private int limit = 0;//end of the valid region of buf
+	private boolean eof = false;
+	private long lineStart = 0;//offset of the line returned by the last call to next()
+
+	//per-line scratch, reused from line to line
+	private int[] fids = new int[64];
+	private float[] vals = new float[64];
+	//the query id of the previous line is reused as long as it does not change
+	private byte[] lastID = new byte[16];
+	private int lastIDLength = -1;
+	private String lastIDString = "";
+
+	/**
+	 * Parse the whole file.
+	 */
+	public DataPointParser(String file, boolean useSparse) throws IOException
+	{
+		this(FileChannel.open(Paths.get(file), StandardOpenOption.READ), true, 0, -1, useSparse);
+	}
+	/**
+	 * Parse the byte range [start, end) of a channel opened by the caller. Both ends of the range must be line boundaries
+	 * (or the end of the file).
+	 */
+	public DataPointParser(FileChannel channel, long start, long end, boolean useSparse) throws IOException
+	{
+		this(channel, false, start, end, useSparse);
+	}
+	private DataPointParser(FileChannel channel, boolean ownChannel, long start, long end, boolean useSparse) throws IOException
+	{
+		this.channel = channel;
+		this.ownChannel = ownChannel;
+		this.filePos = start;
+		this.end = (end < 0) ? channel.size() : end;
+		this.useSparse = useSparse;
+		this.lineStart = start;
+		buf = new byte[(int)Math.max(1024, Math.min(BUFFER_SIZE, this.end - start + 1))];
+	}
+
+	/**
+	 * @return The next data point, or null when the end of the range has been reached. Empty lines and comment lines are skipped.
+	 */
+	public DataPoint next()
+	{
+		try {
+			while(true)
+			{
+				long offset = filePos - (limit - pos);
+				int eol = findLineEnd();
+				if(eol < 0)
+					return null;
+				int ls = pos;
+				int le = eol;
+				pos = (eol < limit) ? eol + 1 : eol;//skip the '\n'
+
+				//trim
+				while(ls < le && (buf[ls] & 0xFF) <= ' ')
+					ls++;
+				while(le > ls && (buf[le-1] & 0xFF) <= ' ')
+					le--;
+				if(ls == le || buf[ls] == '#')
+					continue;
+				lineStart = offset;
+				return parseLine(ls, le);
+			}
+		}
+		catch(IOException ex)
+		{
+			throw RankLibError.create("Error in DataPointParser::next(): ", ex);
+		}
+	}
+
+	/**
+	 * Skip the data lines that have the query id of the next data line, without parsing them: only the bytes of the query id
+	 * are looked at.
+	 * @return The byte offset (within the file) of the first data line with another query id, or the end of the range.
+	 */
+	public long skipQuery()
+	{
+		try {
+			byte[] id = null;
+			int idLength = 0;
+			while(true)
+			{
+				long offset = filePos - (limit - pos);
+				int eol = findLineEnd();
+				if(eol < 0)
+					return end;
+				int ls = skipSpace(pos, eol);
+				pos = (eol < limit) ? eol + 1 : eol;//skip the '\n'
+				if(ls == eol || buf[ls] == '#')
+					continue;
+
+				//the id is what follows the last ':' of the second token (see parseID), which must come before any comment
+				int ts = skipSpace(tokenEnd(ls, eol), eol);
+				int te = tokenEnd(ts, eol);
+				for(int i=ls;i<te;i++)
+					if(buf[i] == '#')
+					{
+						te = i;
+						ts = Math.min(ts, te);
+						break;
+					}
+				for(int i=te-1;i>=ts;i--)
+					if(buf[i] == ':')
+					{
+						ts = i+1;
+						break;
+					}
+
+				int len = te - ts;
+				if(id == null)
+				{
+					id = Arrays.copyOfRange(buf, ts, te);
+					idLength = len;
+					continue;
+				}
+				boolean same = (len == idLength);
+				//non-ASCII bytes all decode to the same character
+				for(int i=0;i<len && same;i++)
+					same = (id[i] == buf[ts+i]) || (id[i] < 0 && buf[ts+i] < 0);
+				if(!same)
+					return offset;
+			}
+		}
+		catch(IOException ex)
+		{
+			throw RankLibError.create("Error in DataPointParser::skipQuery(): ", ex);
+		}
+	}
+
+	/**
+	 * @return The byte offset (within the file) of the line from which the last data point was parsed.
+	 */
+	public long getLineOffset()
+	{
+		return lineStart;
+	}
+
+	public void close() throws IOException
+	{
+		if(ownChannel)
+			channel.close();
+	}
+
+	/**
+	 * Locate the end of the current line, refilling (and if needed growing) the buffer.
+	 * @return Index of the terminating '\n' in buf, or of limit if the last line has no '\n'. -1 if there is nothing left.
+	 */
+	private int findLineEnd() throws IOException
+	{
+		int scanFrom = pos;
+		while(true)
+		{
+			for(int i=scanFrom;i<limit;i++)
+				if(buf[i] == '\n')
+					return i;
+			if(eof)
+				return (pos < limit) ? limit : -1;
+			scanFrom = limit - pos;
+			fill();
+		}
+	}
+
+	private void fill() throws IOException
+	{
+		int remaining = limit - pos;
+		if(remaining == buf.length)//a single line longer than the buffer
+			buf = Arrays.copyOf(buf, buf.length * 2);
+		else if(pos > 0)
+			System.arraycopy(buf, pos, buf, 0, remaining);
+		pos = 0;
+		limit = remaining;
+
+		int toRead = (int)Math.min(buf.length - limit, end - filePos);
+		ByteBuffer bb = ByteBuffer.wrap(buf, limit, toRead);
+		while(bb.hasRemaining())
+		{
+			int n = channel.read(bb, filePos);
+			if(n < 0)
+			{
+				eof = true;
+				break;
+			}
+			filePos += n;
+		}
+		limit = bb.position();
+		if(filePos >= end)
+			eof = true;
+	}
+
+	private DataPoint parseLine(int ls, int le)
+	{
+		int ce = le;//end of the content (without the comment)
+		String description = "";
+		for(int i=ls;i<le;i++)
+			if(buf[i] == '#')
+			{
+				description = new String(buf, i, le - i, StandardCharsets.US_ASCII);
+				ce = i;
+				while(ce > ls && (buf[ce-1] & 0xFF) <= ' ')
+					ce--;
+				break;
+			}
+
+		//relevance label
+		int ts = ls;
+		int te = tokenEnd(ts, ce);
+		float label = parseFloat(ts, te);
+		if(label < 0)
+			throw RankLibError.create("Error in DataPointParser::next(): relevance label cannot be negative.");
+
+		//query id
+		ts = skipSpace(te, ce);
+		if(ts == ce)
+			throw RankLibError.create("Error in DataPointParser::next(): missing query id in line [" + new String(buf, ls, le - ls, StandardCharsets.US_ASCII) + "]");
+		te = tokenEnd(ts, ce);
+		String id = parseID(ts, te);
+
+		//features
+		int count = 0;
+		int lastFeature = -1;
+		boolean sorted = true;
+		boolean hasNaN = false;
+		for(ts = skipSpace(te, ce); ts < ce; ts = skipSpace(te, ce))
+		{
+			te = tokenEnd(ts, ce);
+			int firstColon = -1;
+			int lastColon = -1;
+			for(int i=ts;i<te;i++)
+				if(buf[i] == ':')
+				{
+					if(firstColon < 0)
+						firstColon = i;
+					lastColon = i;
+				}
+			if(firstColon < 0)
+				throw RankLibError.create("Error in DataPointParser::next(): invalid feature [" + new String(buf, ts, te - ts, StandardCharsets.US_ASCII) + "]");
+			int f = parseInt(ts, firstColon);
+			if(f <= 0)
+				throw RankLibError.create("Cannot use feature numbering less than or equal to zero. Start your features at 1.");
+			float v = parseFloat(lastColon + 1, te);
+
+			if(count == fids.length)
+			{
+				fids = Arrays.copyOf(fids, count * 2);
+				vals = Arrays.copyOf(vals, count * 2);
+			}
+			fids[count] = f;
+			vals[count] = v;
+			count++;
+			if(f <= lastFeature)
+				sorted = false;
+			else
+				lastFeature = f;
+			if(Float.isNaN(v))
+				hasNaN = true;
+		}
+
+		DataPoint.updateFeatureCount(lastFeature);
+
+		if(useSparse && sorted && !hasNaN)
+			return new SparseDataPoint(label, id, description, Arrays.copyOf(fids, count), Arrays.copyOf(vals, count));
+
+		float[] fVals = new float[lastFeature+1];
+		Arrays.fill(fVals, DataPoint.UNKNOWN);
+		for(int i=0;i<count;i++)
+			fVals[fids[i]] = vals[i];
+		if(!useSparse)
+			return new DenseDataPoint(label, id, description, fVals, count);
+
+		//sparse point from unordered/duplicated features: go through the dense array
+		int known = 0;
+		for(int i=1;i<fVals.length;i++)
+			if(!DataPoint.isUnknown(fVals[i]))
+				known++;
+		int[] ids = new int[known];
+		float[] values = new float[known];
+		for(int i=1, k=0;i<fVals.length;i++)
+			if(!DataPoint.isUnknown(fVals[i]))
+			{
+				ids[k] = i;
+				values[k++] = fVals[i];
+			}
+		return new SparseDataPoint(label, id, description, ids, values);
+	}
+
+	private int skipSpace(int i, int e)
+	{
+		while(i < e && (buf[i] & 0xFF) <= ' ')
+			i++;
+		return i;
+	}
+	private int tokenEnd(int i, int e)
+	{
+		while(i < e && (buf[i] & 0xFF) > ' ')
+			i++;
+		return i;
+	}
+
+	private String parseID(int ts, int te)
+	{
+		for(int i=te-1;i>=ts;i--)
+			if(buf[i] == ':')
+			{
+				ts = i+1;
+				break;
+			}
+		int len = te - ts;
+		if(len == lastIDLength)
+		{
+			int i = 0;
+			while(i < len && lastID[i] == buf[ts+i])
+				i++;
+			if(i == len)
+				return lastIDString;
+		}
+		if(len > lastID.length)
+			lastID = new byte[len * 2];
+		System.arraycopy(buf, ts, lastID, 0, len);
+		lastIDLength = len;
+		lastIDString = new String(buf, ts, len, StandardCharsets.US_ASCII);
+		return lastIDString;
+	}
+
+	private int parseInt(int s, int e)
+	{
+		int i = s;
+		boolean neg = false;
+		if(i < e && (buf[i] == '-' || buf[i] == '+'))
+			neg = (buf[i++] == '-');
+		long v = 0;
+		if(i == e || e - i > 9)
+			return Integer.parseInt(new String(buf, s, e - s, StandardCharsets.US_ASCII));
+		for(;i<e;i++)
+		{
+			int d = buf[i] - '0';
+			if(d < 0 || d > 9)
+				return Integer.parseInt(new String(buf, s, e - s, StandardCharsets.US_ASCII));
+			v = v * 10 + d;
+		}
+		return (int)(neg ? -v : v);
+	}
+
+	/**
+	 * Plain decimals whose significand fits in 24 bits with at most 10 fractional digits are computed as one correctly
+	 * rounded float division of two exactly representable floats, which is exactly what {@link Float#parseFloat(String)} returns.
+	 * Anything else (exponents, NaN, long significands...) goes through {@link Float#parseFloat(String)}.
+	 */
+	private float parseFloat(int s, int e)
+	{
+		int i = s;
+		boolean neg = false;
+		if(i < e && (buf[i] == '-' || buf[i] == '+'))
+			neg = (buf[i++] == '-');
+		long mantissa = 0;
+		int scale = 0;
+		int digits = 0;
+		boolean dot = false;
+		boolean fast = false;//becomes true once a digit is seen
+		for(;i<e;i++)
+		{
+			int d = buf[i] - '0';
+			if(d >= 0 && d <= 9)
+			{
+				fast = true;
+				if(dot)
+					scale++;
+				if(mantissa > 0 || d > 0)
+				{
+					mantissa = mantissa * 10 + d;
+					if(++digits > 9)
+						break;
+				}
+			}
+			else if(buf[i] == '.' && !dot)
+				dot = true;
+			else
+				break;
+		}
+		if(fast && i == e && mantissa < MAX_EXACT_MANTISSA && scale < POW10.length)
+		{
+			float v = (float)mantissa;
+			if(scale > 0)
+				v /= POW10[scale];
+			return neg ? -v : v;
+		}
+		try {
+			return Float.parseFloat(new String(buf, s, e - s, StandardCharsets.US_ASCII));
+		}
+		catch(NumberFormatException ex)
+		{
+			throw RankLibError.create("Error in DataPointParser::next(): ", ex);
+		}
+	}
+
+	/**
+	 * Compare this parser against the String-based {@link DataPoint#parse(String)} path.
+	 * Usage: DataPointParser [#queries] [#docs/query] [#features] [sparse]
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		int nQueries = (args.length > 0) ? Integer.parseInt(args[0]) : 2000;
+		int nDocs = (args.length > 1) ? Integer.parseInt(args[1]) : 100;
+		int nFeatures = (args.length > 2) ? Integer.parseInt(args[2]) : 136;
+		boolean sparse = (args.length > 3) && args[3].equalsIgnoreCase("sparse");
+
+		File tmp = File.createTempFile("ranklib-parser", ".txt");
+		tmp.deleteOnExit();
+		Random r = new Random(0);
+		try (PrintWriter out = new PrintWriter(tmp, "ASCII")) {
+			for(int q=0;q<nQueries;q++)
+				for(int d=0;d<nDocs;d++)
+				{
+					StringBuilder sb = new StringBuilder();
+					sb.append(r.nextInt(5)).append(" qid:").append(q);
+					for(int f=1;f<=nFeatures;f++)
+						sb.append(' ').append(f).append(':').append(r.nextInt(1000000) / 1000000.0);
+					sb.append(" #docid = D").append(q).append('-').append(d);
+					out.println(sb.toString());
+				}
+		}
+		System.out.println("File: " + (tmp.length() >> 20) + "MB, " + (nQueries * nDocs) + " data points");
+
+		for(int trial=0;trial<3;trial++)
+		{
+			long start = System.nanoTime();
+			int n = 0;
+			double checksum = 0;
+			try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(tmp), "ASCII"))) {
+				String line;
+				while((line = in.readLine()) != null)
+				{
+					line = line.trim();
+					DataPoint dp = sparse ? new SparseDataPoint(line) : new DenseDataPoint(line);
+					checksum += dp.getFeatureValue(nFeatures);
+					n++;
+				}
+			}
+			long t1 = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			int m = 0;
+			double checksum2 = 0;
+			try (DataPointParser p = new DataPointParser(tmp.getAbsolutePath(), sparse)) {
+				DataPoint dp;
+				while((dp = p.next()) != null)
+				{
+					checksum2 += dp.getFeatureValue(nFeatures);
+					m++;
+				}
+			}
+			long t2 = System.nanoTime() - start;
+			System.out.println("DataPoint(String): " + (t1 / 1000000) + "ms\tDataPointParser: " + (t2 / 1000000) + "ms\tspeedup: "
+								+ String.format("%.2f", (double)t1 / t2) + ((n == m && checksum == checksum2) ? "" : "\t[MISMATCH]"));
+		}
+	}
+}
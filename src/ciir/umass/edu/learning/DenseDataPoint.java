@@ -8,6 +8,15 @@ public class DenseDataPoint extends DataPoint {
 		super(text);
 	}
 	
+	/**
+	 * @param fVals Dense array of feature values (fVals[0] is un-used, unknown values are NaN). The array is not copied.
+	 */
+	public DenseDataPoint(float label, String id, String description, float[] fVals, int knownFeatures)
+	{
+		super(label, id, description, knownFeatures);
+		this.fVals = fVals;
+	}
+	
 	public DenseDataPoint(DenseDataPoint dp)
 	{
 		label = dp.label;
@@ -18,6 +27,14 @@ public class DenseDataPoint extends DataPoint {
 		System.arraycopy(dp.fVals, 0, fVals, 0, dp.fVals.length);
 	}
 	
+	@Override
+	public DataPoint shallowCopy()
+	{
+		DenseDataPoint dp = new DenseDataPoint(label, id, description, fVals, knownFeatures);
+		dp.cached = cached;
+		return dp;
+	}
+	
 	@Override
 	public float getFeatureValue(int fid)
 	{
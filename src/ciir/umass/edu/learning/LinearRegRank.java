@@ -88,14 +88,14 @@ public class LinearRegRank extends Ranker {
 		weight = solve(xTx, xTy);
 		PRINTLN("[Done]");
 		
-		scoreOnTrainingData = SimpleMath.round(scorer.score(rank(samples)), 4);
+		scoreOnTrainingData = SimpleMath.round(scorer.score(rank(samples, scorer.getRankingDepth())), 4);
 		PRINTLN("---------------------------------");
 		PRINTLN("Finished sucessfully.");
 		PRINTLN(scorer.name() + " on training data: " + scoreOnTrainingData);
 
 		if(validationSamples != null)
 		{
-			bestScoreOnValidationData = scorer.score(rank(validationSamples));
+			bestScoreOnValidationData = scorer.score(rank(validationSamples, scorer.getRankingDepth()));
 			PRINTLN(scorer.name() + " on validation data: " + SimpleMath.round(bestScoreOnValidationData, 4));
 		}
 		PRINTLN("---------------------------------");
@@ -65,8 +65,8 @@ public class RankList {
     public void swap(int i, int j)
     {
         DataPoint temp = this.rl[i];
-        this.rl[j] = temp;
         this.rl[i] = this.rl[j];
+        this.rl[j] = temp;
     }
 	public RankList getCorrectRanking()
 	{
@@ -39,6 +39,8 @@ import java.nio.file.attribute.PosixFilePermissions;
  */
 public abstract class Ranker {
 	public static boolean verbose = true;
+	//Seed of the random number generator(s) of the rankers that use one (-1: not seeded, i.e. each run is different)
+	public static long seed = -1;
 
 	protected List<RankList> samples = new ArrayList<RankList>();//training samples
 	protected int[] features = null;
@@ -93,21 +95,34 @@ public abstract class Ranker {
 	}
 
 	public RankList rank(RankList rl)
+	{
+		return rank(rl, 0);
+	}
+	/**
+	 * Same as {@link #rank(RankList)}, but only the top @depth documents are guaranteed to be in order (the whole list if @depth &lt;= 0),
+	 * which is all a measure with a cut-off (e.g. {@link MetricScorer#getRankingDepth()}) looks at. The other documents are still in
+	 * the returned list so that measures normalized over the whole list (e.g. NDCG) are not affected.
+	 */
+	public RankList rank(RankList rl, int depth)
 	{
 		double[] scores = new double[rl.size()];
 		for(int i=0;i<rl.size();i++) {
 			scores[i] = eval(rl.get(i));
 			rl.get(i).setCached(scores[i]);
 		}
-		int[] idx = MergeSorter.sort(scores, false);
+		int[] idx = MergeSorter.sortTop(scores, 0, scores.length-1, depth);
 		return new RankList(rl, idx);
 	}
 
 	public List<RankList> rank(List<RankList> l)
+	{
+		return rank(l, 0);
+	}
+	public List<RankList> rank(List<RankList> l, int depth)
 	{
 		List<RankList> ll = new ArrayList<RankList>();
 		for(int i=0;i<l.size();i++)
-			ll.add(rank(l.get(i)));
+			ll.add(rank(l.get(i), depth));
 		return ll;
 	}
 
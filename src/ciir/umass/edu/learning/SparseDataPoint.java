@@ -39,6 +39,17 @@ public class SparseDataPoint extends DataPoint {
 		super(text);
 	}
 
+	/**
+	 * @param fIds Strictly increasing ids of the known features. Neither array is copied.
+	 * @param fVals Values of the corresponding features
+	 */
+	public SparseDataPoint(float label, String id, String description, int[] fIds, float[] fVals)
+	{
+		super(label, id, description, fIds.length);
+		this.fIds = fIds;
+		this.fVals = fVals;
+	}
+
 	public SparseDataPoint(SparseDataPoint dp)
  	{
 		label = dp.label;
@@ -50,6 +61,14 @@ public class SparseDataPoint extends DataPoint {
 		System.arraycopy(dp.fIds, 0, fIds, 0, dp.fIds.length);
 		System.arraycopy(dp.fVals, 0, fVals, 0, dp.fVals.length);
  	}
+
+	@Override
+	public DataPoint shallowCopy()
+	{
+		SparseDataPoint dp = new SparseDataPoint(label, id, description, fIds, fVals);
+		dp.cached = cached;
+		return dp;
+	}
  	
 	private int locate(int fid) {
 		if (searchPattern == accessPattern.SEQUENTIAL)
@@ -138,10 +157,10 @@ public class SparseDataPoint extends DataPoint {
 	@Override
 	public float[] getFeatureVector()
 	{
-		float[] dfVals = new float[fIds[knownFeatures -1]];
+		float[] dfVals = new float[(knownFeatures == 0) ? 0 : fIds[knownFeatures-1]+1];
 		Arrays.fill(dfVals, UNKNOWN);
 		for (int i=0; i<knownFeatures; i++)
 			dfVals[fIds[i]] = fVals[i];
 		return dfVals;
 	}
-}
\ No newline at end of file
+}
\ No newline at end of file
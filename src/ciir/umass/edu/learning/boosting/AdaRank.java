@@ -147,7 +147,7 @@ public class AdaRank extends Ranker {
 			//update the distribution of sample weight
 			double total = 0.0;
 			for (RankList sample : samples) {
-				double tmp = scorer.score(rank(sample));
+				double tmp = scorer.score(rank(sample, scorer.getRankingDepth()));
 				total += Math.exp(-alpha_t * tmp);
 				trainedScore += tmp;
 			}
@@ -190,7 +190,7 @@ public class AdaRank extends Ranker {
 			PRINT(new int[]{8, 9, }, new String[]{bestWR.getFID()+"", SimpleMath.round(trainedScore, 4)+""});
 			if(t % 1==0 && validationSamples != null)
 			{
-				double scoreOnValidation = scorer.score(rank(validationSamples));
+				double scoreOnValidation = scorer.score(rank(validationSamples, scorer.getRankingDepth()));
 				if(scoreOnValidation > bestScoreOnValidationData)
 				{
 					bestScoreOnValidationData = scoreOnValidation;
@@ -211,7 +211,7 @@ public class AdaRank extends Ranker {
 			
 			lastTrainedScore = trainedScore;
 			for(int i=0;i<sweight.length;i++)
-				sweight[i] *= Math.exp(-alpha_t*scorer.score(rank(samples.get(i))))/total;
+				sweight[i] *= Math.exp(-alpha_t*scorer.score(rank(samples.get(i), scorer.getRankingDepth())))/total;
 		}
 		return t;
 	}
@@ -272,13 +272,13 @@ public class AdaRank extends Ranker {
 		}
 		
 		//print learning score
-		scoreOnTrainingData = SimpleMath.round(scorer.score(rank(samples)), 4);
+		scoreOnTrainingData = SimpleMath.round(scorer.score(rank(samples, scorer.getRankingDepth())), 4);
 		PRINTLN("--------------------------------------------------------");
 		PRINTLN("Finished sucessfully.");
 		PRINTLN(scorer.name() + " on training data: " + scoreOnTrainingData);
 		if(validationSamples != null)
 		{
-			bestScoreOnValidationData = scorer.score(rank(validationSamples));
+			bestScoreOnValidationData = scorer.score(rank(validationSamples, scorer.getRankingDepth()));
 			PRINTLN(scorer.name() + " on validation data: " + SimpleMath.round(bestScoreOnValidationData, 4));
 		}
 		PRINTLN("---------------------------------");
@@ -308,10 +308,10 @@ public class RankBoost extends Ranker {
 			PRINT(new int[]{7, 8, 9, 9}, new String[]{t+"", wr.getFid()+"", SimpleMath.round(wr.getThreshold(), 4)+"", SimpleMath.round(R_t, 4)+""});
 			if(t % 1 == 0)
 			{
-				PRINT(new int[]{9}, new String[]{SimpleMath.round(scorer.score(rank(samples)), 4)+""});
+				PRINT(new int[]{9}, new String[]{SimpleMath.round(scorer.score(rank(samples, scorer.getRankingDepth())), 4)+""});
 				if(validationSamples != null)
 				{
-					double score = scorer.score(rank(validationSamples));
+					double score = scorer.score(rank(validationSamples, scorer.getRankingDepth()));
 					if(score > bestScoreOnValidationData)
 					{
 						bestScoreOnValidationData = score;
@@ -348,13 +348,13 @@ public class RankBoost extends Ranker {
 			rWeight.addAll(bestModelWeights);
 		}
 		
-		scoreOnTrainingData = SimpleMath.round(scorer.score(rank(samples)), 4);
+		scoreOnTrainingData = SimpleMath.round(scorer.score(rank(samples, scorer.getRankingDepth())), 4);
 		PRINTLN("--------------------------------------------------------------------");
 		PRINTLN("Finished sucessfully.");
 		PRINTLN(scorer.name() + " on training data: " + scoreOnTrainingData);
 		if(validationSamples != null)
 		{
-			bestScoreOnValidationData = scorer.score(rank(validationSamples));
+			bestScoreOnValidationData = scorer.score(rank(validationSamples, scorer.getRankingDepth()));
 			PRINTLN(scorer.name() + " on validation data: " + SimpleMath.round(bestScoreOnValidationData, 4));
 		}
 		PRINTLN("---------------------------------");
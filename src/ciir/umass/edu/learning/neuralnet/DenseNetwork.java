@@ -0,0 +1,738 @@
+/*===============================================================================
+ * Copyright (c) 2010-2016 University of Massachusetts.  All Rights Reserved.
+ *
+ * Use of the RankLib package is subject to the terms of the software license set
+ * forth in the LICENSE file included with this software, and also available at
+ * http://people.cs.umass.edu/~vdang/ranklib_license.html
+ *===============================================================================
+ */
+
+package ciir.umass.edu.learning.neuralnet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import ciir.umass.edu.learning.DataPoint;
+import ciir.umass.edu.learning.DenseDataPoint;
+import ciir.umass.edu.learning.RankList;
+
+/**
+ * Array-based feed-forward network used by {@link RankNet}, {@link LambdaRank} and {@link ListNet}. Layer 0 holds the input features, and
+ * each unit of the other layers is connected to all units of the previous layer plus a "bias" input fixed to 1.0. The weights into layer l
+ * are stored row-major in weights[l]: the row of unit j has one weight per unit of layer l-1, followed by its bias weight.
+ * The outputs of all documents of the ranked list being trained on are kept in outputs[l][doc][unit].
+ *
+ * Training does exactly the same updates as the original {@link Neuron}/{@link Synapse} object graph, without boxing or pointer chasing.
+ */
+public class DenseNetwork {
+
+	protected int[] sizes = null;//number of units in each layer (not counting the bias input)
+	protected double[][] weights = null;
+	protected TransferFunction tfunc = new LogiFunction();
+	protected double learningRate = 0.001;
+
+	//buffers for the ranked list being trained on
+	protected int nDocs = 0;
+	protected double[][][] outputs = null;//outputs[l][d][j]: output of unit j of layer l on document d
+	protected double[][][] derivatives = null;//derivatives[l][d][j]: the transfer function's derivative at outputs[l][d][j] (sic, as in Neuron)
+	protected double[][] deltaI = null;//deltaI[l][j]: delta of unit j of layer l for the current document
+	protected double[][][] deltasJ = null;//deltasJ[l][j][k]: delta of unit j of layer l for the k-th document paired with the current one
+	protected double[] sums = null;//per-input sums of the weight update of one unit
+	protected double[][] gradients = null;//gradients[l]: accumulated update of weights[l] (factorized and mini-batch training)
+	protected double[][] deltas = null;//deltas[l][j]: delta of unit j of layer l for one document (factorized training)
+	protected double[] scores = new double[0];//scores of the documents of the current ranked list (ListNet)
+	protected double[] probs = new double[0];//their exponentials, shifted by the highest score (ListNet)
+
+	//scratch outputs for eval(), one set per thread so that a trained network can score documents concurrently
+	private final ThreadLocal<double[][][]> evalBuffers = new ThreadLocal<double[][][]>() {
+		protected double[][][] initialValue()
+		{
+			double[][][] b = new double[sizes.length][1][];
+			for(int l=0;l<sizes.length;l++)
+				b[l][0] = new double[sizes[l]];
+			return b;
+		}
+	};
+
+	/**
+	 * @param nInput Number of input features.
+	 * @param hidden Number of units of each hidden layer.
+	 * @param nOutput Number of output units.
+	 * @param random Source of the initial weights, or null to start with all weights at 0 (e.g. before loading a model).
+	 */
+	public DenseNetwork(int nInput, int[] hidden, int nOutput, Random random)
+	{
+		sizes = new int[hidden.length+2];
+		sizes[0] = nInput;
+		for(int i=0;i<hidden.length;i++)
+			sizes[i+1] = hidden[i];
+		sizes[sizes.length-1] = nOutput;
+
+		weights = new double[sizes.length][];
+		for(int l=1;l<sizes.length;l++)
+			weights[l] = new double[sizes[l] * (sizes[l-1]+1)];
+		allocateBuffers();
+		if(random != null)
+			initWeights(random);
+	}
+	/**
+	 * A replica of @net: it shares its weights, but has its own buffers.
+	 */
+	protected DenseNetwork(DenseNetwork net)
+	{
+		sizes = net.sizes;
+		weights = net.weights;
+		learningRate = net.learningRate;
+		allocateBuffers();
+	}
+	/**
+	 * @return A network that shares (and updates) the weights of this one, but has its own training buffers, so that another thread can
+	 * train on other ranked lists at the same time.
+	 */
+	public DenseNetwork replicate()
+	{
+		return new DenseNetwork(this);
+	}
+	private void allocateBuffers()
+	{
+		outputs = new double[sizes.length][0][];
+		derivatives = new double[sizes.length][0][];
+		deltaI = new double[sizes.length][];
+		deltasJ = new double[sizes.length][][];
+		gradients = new double[sizes.length][];
+		deltas = new double[sizes.length][];
+		int maxIn = 0;
+		for(int l=1;l<sizes.length;l++)
+		{
+			maxIn = Math.max(maxIn, sizes[l-1]);
+			deltaI[l] = new double[sizes[l]];
+			deltasJ[l] = new double[sizes[l]][0];
+			gradients[l] = new double[weights[l].length];
+			deltas[l] = new double[sizes[l]];
+		}
+		sums = new double[maxIn+1];
+	}
+
+	/**
+	 * Random initial weights, drawn in the order the synapses of the original network were created: input features to the first layer,
+	 * each layer to the next one, and then the bias input to every unit.
+	 */
+	protected void initWeights(Random random)
+	{
+		int nLayer = sizes.length;
+		for(int i=0;i<sizes[0];i++)
+			for(int j=0;j<sizes[1];j++)
+				weights[1][index(1, j, i)] = randomWeight(random);
+		for(int l=1;l<nLayer-1;l++)
+			for(int j=0;j<sizes[l];j++)
+				for(int k=0;k<sizes[l+1];k++)
+					weights[l+1][index(l+1, k, j)] = randomWeight(random);
+		for(int l=1;l<nLayer;l++)
+			for(int j=0;j<sizes[l];j++)
+				weights[l][index(l, j, sizes[l-1])] = randomWeight(random);
+	}
+	private static double randomWeight(Random random)
+	{
+		return (random.nextInt(2)==0?1:-1)*random.nextFloat()/10;
+	}
+	/**
+	 * @return Index in weights[l] of the weight from unit @p of layer l-1 (or the bias input if @p == sizes[l-1]) to unit @j of layer @l.
+	 */
+	protected int index(int l, int j, int p)
+	{
+		return j * (sizes[l-1]+1) + p;
+	}
+
+	public void setLearningRate(double learningRate)
+	{
+		this.learningRate = learningRate;
+	}
+	public double getLearningRate()
+	{
+		return learningRate;
+	}
+	public int getLayerCount()
+	{
+		return sizes.length;
+	}
+	public int getLayerSize(int l)
+	{
+		return sizes[l];
+	}
+
+	/**
+	 * Output of the first output unit on @p.
+	 */
+	public double eval(DataPoint p, int[] features)
+	{
+		double[][][] b = evalBuffers.get();
+		double[] in = b[0][0];
+		for(int k=0;k<features.length;k++)
+			in[k] = p.getFeatureValue(features[k]);
+		forward(b, 0);
+		return b[sizes.length-1][0][0];
+	}
+	/**
+	 * Compute (and keep) the outputs of all units on each document of @rl, before training on it.
+	 */
+	public void feedForward(RankList rl, int[] features)
+	{
+		ensureCapacity(rl.size());
+		nDocs = rl.size();
+		for(int d=0;d<nDocs;d++)
+		{
+			DataPoint p = rl.get(d);
+			double[] in = outputs[0][d];
+			for(int k=0;k<features.length;k++)
+				in[k] = p.getFeatureValue(features[k]);
+			forward(outputs, d);
+			for(int l=1;l<sizes.length;l++)
+				for(int j=0;j<sizes[l];j++)
+					derivatives[l][d][j] = tfunc.computeDerivative(outputs[l][d][j]);
+		}
+	}
+	/**
+	 * @return The output of unit @j of the output layer on the @d-th document of the last {@link #feedForward(RankList, int[])}.
+	 */
+	public double getOutput(int d, int j)
+	{
+		return outputs[sizes.length-1][d][j];
+	}
+	protected void forward(double[][][] out, int d)
+	{
+		for(int l=1;l<sizes.length;l++)
+		{
+			double[] w = weights[l];
+			double[] x = out[l-1][d];
+			double[] y = out[l][d];
+			int nIn = sizes[l-1];
+			for(int j=0,o=0;j<sizes[l];j++,o+=nIn+1)
+			{
+				double wsum = 0.0;
+				for(int p=0;p<nIn;p++)
+					wsum += x[p] * w[o+p];
+				wsum += w[o+nIn];//the bias input is 1.0
+				y[j] = tfunc.compute(wsum);
+			}
+		}
+	}
+	protected void ensureCapacity(int n)
+	{
+		if(outputs[0].length >= n)
+			return;
+		int size = Math.max(n, 2 * outputs[0].length);
+		for(int l=0;l<sizes.length;l++)
+		{
+			outputs[l] = new double[size][sizes[l]];
+			if(l > 0)
+			{
+				derivatives[l] = new double[size][sizes[l]];
+				deltasJ[l] = new double[sizes[l]][size];
+			}
+		}
+	}
+
+	/**
+	 * RankNet/LambdaRank update for the @current document of the last {@link #feedForward(RankList, int[])}, paired with the documents @pairs.
+	 * @param pairWeight null for RankNet (the current document is preferred to all of its pairs). Otherwise (LambdaRank), the weight of each pair...
+	 * @param targetValue ...and its target probability that the current document is preferred.
+	 */
+	public void backPropagate(int current, int[] pairs, float[] pairWeight, float[] targetValue)
+	{
+		computeDeltas(current, pairs, pairWeight, targetValue);
+		updateWeights(current, pairs);
+	}
+	protected void computeDeltas(int current, int[] pairs, float[] pairWeight, float[] targetValue)
+	{
+		int out = sizes.length-1;
+		int n = pairs.length;
+		//the output layer
+		double[][] o = outputs[out];
+		double[][] dout = derivatives[out];
+		for(int u=0;u<sizes[out];u++)
+		{
+			double oi = o[current][u];
+			double[] dj = deltasJ[out][u];
+			double di = 0.0;
+			for(int k=0;k<n;k++)
+			{
+				double oj = o[pairs[k]][u];
+				float weight = 1;
+				double pij = 0;
+				if(pairWeight == null)//RankNet, no pair-weight needed
+					pij = 1.0 / (1.0 + Math.exp(oi-oj));//this is in fact not "pij", but "targetValue-pij":  1 - 1/(1+e^{-o_ij})
+				else//LambdaRank
+				{
+					weight = pairWeight[k];
+					pij = targetValue[k] - 1.0 / (1.0 + Math.exp(-(oi-oj)));
+				}
+				double lambda = weight * pij;
+				di += lambda;
+				dj[k] = lambda * dout[pairs[k]][u];
+			}
+			di *= dout[current][u];
+			deltaI[out][u] = di;
+		}
+		//back-propagate to the first hidden layer
+		for(int l=out-1;l>=1;l--)
+		{
+			double[] w = weights[l+1];
+			int stride = sizes[l]+1;
+			double[][] der = derivatives[l];
+			for(int h=0;h<sizes[l];h++)
+			{
+				double[] dj = deltasJ[l][h];
+				double di = 0.0;
+				for(int k=0;k<n;k++)
+				{
+					float weight = (pairWeight!=null)?pairWeight[k]:1.0F;
+					double errorSum = 0.0;
+					for(int u=0;u<sizes[l+1];u++)
+					{
+						double wuh = w[u*stride+h];
+						errorSum += deltasJ[l+1][u][k] * wuh;
+						if(k==0)
+							di += deltaI[l+1][u] * wuh;
+					}
+					if(k==0)
+						di *= weight * der[current][h];
+					dj[k] = errorSum * weight * der[pairs[k]][h];
+				}
+				deltaI[l][h] = di;
+			}
+		}
+	}
+	protected void updateWeights(int current, int[] pairs)
+	{
+		int n = pairs.length;
+		for(int l=sizes.length-1;l>=1;l--)
+		{
+			double[] w = weights[l];
+			double[][] x = outputs[l-1];
+			int nIn = sizes[l-1];
+			double[] xi = x[current];
+			for(int j=0,o=0;j<sizes[l];j++,o+=nIn+1)
+			{
+				double di = deltaI[l][j];
+				double[] dj = deltasJ[l][j];
+				//sum_j[p] = sum_k dj[k] * x[pairs[k]][p], accumulated one paired document (i.e. one contiguous row) at a time
+				for(int p=0;p<=nIn;p++)
+					sums[p] = 0.0;
+				for(int k=0;k<n;k++)
+				{
+					double d = dj[k];
+					double[] xj = x[pairs[k]];
+					for(int p=0;p<nIn;p++)
+						sums[p] += d * xj[p];
+					sums[nIn] += d;//the bias input
+				}
+				for(int p=0;p<nIn;p++)
+					w[o+p] += learningRate * (di * xi[p] - sums[p]);
+				w[o+nIn] += learningRate * (di - sums[nIn]);
+			}
+		}
+	}
+
+	/**
+	 * Factorized RankNet/LambdaRank update on the whole ranked list of the last {@link #feedForward(RankList, int[])}. The pairs of each document
+	 * are first folded into a single lambda per document, which is then back-propagated once. This is the sum of the changes that
+	 * {@link #backPropagate(int, int[], float[], float[])} would make for each document, except that the weights are only updated once, after the
+	 * whole list. It costs O(#docs) back-propagations per list instead of O(#pairs).
+	 * @param pairMap pairMap[i]: the documents paired with document i.
+	 * @param pairWeight null for RankNet, as in {@link #backPropagate(int, int[], float[], float[])}.
+	 * @param targetValue
+	 */
+	public void backPropagateFactorized(int[][] pairMap, float[][] pairWeight, float[][] targetValue)
+	{
+		backPropagateLambdas(computeLambdas(pairMap, pairWeight, targetValue));
+	}
+	/**
+	 * @return lambdas[d]: the sum, over the pairs (i, j) involving document d, of +lambda_ij if d is i and -lambda_ij if d is j.
+	 */
+	public double[] computeLambdas(int[][] pairMap, float[][] pairWeight, float[][] targetValue)
+	{
+		int out = sizes.length-1;
+		double[][] o = outputs[out];
+		double[] lambdas = new double[pairMap.length];
+		for(int i=0;i<pairMap.length;i++)
+		{
+			double oi = o[i][0];
+			for(int k=0;k<pairMap[i].length;k++)
+			{
+				int j = pairMap[i][k];
+				double oj = o[j][0];
+				double lambda = 0;
+				if(pairWeight == null)//RankNet
+					lambda = 1.0 / (1.0 + Math.exp(oi-oj));
+				else//LambdaRank
+					lambda = pairWeight[i][k] * (targetValue[i][k] - 1.0 / (1.0 + Math.exp(-(oi-oj))));
+				lambdas[i] += lambda;
+				lambdas[j] -= lambda;
+			}
+		}
+		return lambdas;
+	}
+	/**
+	 * Move the weights by learningRate * sum_d lambdas[d] * d(output on document d)/d(weights), with one back-propagation per document of the
+	 * last {@link #feedForward(RankList, int[])}. Only the first output unit is trained this way.
+	 */
+	public void backPropagateLambdas(double[] lambdas)
+	{
+		clearGradient();
+		accumulateGradient(lambdas);
+		applyGradient();
+	}
+	/**
+	 * Same as {@link #backPropagateLambdas(double[])}, but the change is only added to the gradient buffer (see {@link #applyGradient()}).
+	 */
+	public void accumulateGradient(double[] lambdas)
+	{
+		int out = sizes.length-1;
+		for(int d=0;d<nDocs;d++)
+		{
+			if(lambdas[d] == 0)
+				continue;
+			deltas[out][0] = lambdas[d] * derivatives[out][d][0];
+			for(int u=1;u<sizes[out];u++)
+				deltas[out][u] = 0;
+			for(int l=out-1;l>=1;l--)
+			{
+				double[] w = weights[l+1];
+				int stride = sizes[l]+1;
+				for(int h=0;h<sizes[l];h++)
+				{
+					double errorSum = 0.0;
+					for(int u=0;u<sizes[l+1];u++)
+						errorSum += deltas[l+1][u] * w[u*stride+h];
+					deltas[l][h] = errorSum * derivatives[l][d][h];
+				}
+			}
+			for(int l=1;l<sizes.length;l++)
+			{
+				double[] g = gradients[l];
+				double[] x = outputs[l-1][d];
+				int nIn = sizes[l-1];
+				for(int j=0,o=0;j<sizes[l];j++,o+=nIn+1)
+				{
+					double dj = deltas[l][j];
+					if(dj == 0)
+						continue;
+					for(int p=0;p<nIn;p++)
+						g[o+p] += dj * x[p];
+					g[o+nIn] += dj;//the bias input
+				}
+			}
+		}
+	}
+	public void clearGradient()
+	{
+		for(int l=1;l<sizes.length;l++)
+			Arrays.fill(gradients[l], 0.0);
+	}
+	/**
+	 * Add the gradient buffer of @net (e.g. a replica that trained on other ranked lists) to the one of this network.
+	 */
+	public void addGradient(DenseNetwork net)
+	{
+		for(int l=1;l<sizes.length;l++)
+		{
+			double[] g = gradients[l];
+			double[] h = net.gradients[l];
+			for(int p=0;p<g.length;p++)
+				g[p] += h[p];
+		}
+	}
+	/**
+	 * Move the weights by learningRate times the gradient buffer. Without any synchronization: replicas training concurrently may apply their
+	 * gradients at the same time (Hogwild!).
+	 */
+	public void applyGradient()
+	{
+		for(int l=1;l<sizes.length;l++)
+		{
+			double[] w = weights[l];
+			double[] g = gradients[l];
+			for(int p=0;p<w.length;p++)
+				w[p] += learningRate * g[p];
+		}
+	}
+
+	/**
+	 * ListNet on a network without hidden layers, in one go over the ranked list: the scores of its @n documents (whose features @x are
+	 * stored row-major), their top-one probabilities (softmax, shifted by the highest score so that it cannot overflow), and in a single pass
+	 * the cross entropy with the top-one probabilities @target of the labels and its gradient, which is added to the gradient buffer.
+	 * @return The cross entropy (log base 2, averaged over the documents).
+	 */
+	public double accumulateListGradient(float[] x, int n, double[] target)
+	{
+		double max = listScores(x, n);
+		double sum = 0;
+		for(int d=0;d<n;d++)
+		{
+			probs[d] = Math.exp(scores[d] - max);
+			sum += probs[d];
+		}
+		double logSum = Math.log(sum);
+
+		double loss = 0;
+		double[] grad = gradients[1];
+		int nIn = sizes[0];
+		for(int d=0,o=0;d<n;d++,o+=nIn)
+		{
+			loss -= target[d] * (scores[d] - max - logSum);
+			double g = target[d] - probs[d]/sum;
+			for(int p=0;p<nIn;p++)
+				grad[p] += g * x[o+p];
+			grad[nIn] += g;//the bias input
+		}
+		return loss / Math.log(2) / n;
+	}
+	/**
+	 * Fill scores[0..@n) with the output of the network on the documents of the feature block @x.
+	 * @return The highest score.
+	 */
+	private double listScores(float[] x, int n)
+	{
+		if(scores.length < n)
+		{
+			scores = new double[Math.max(n, 2 * scores.length)];
+			probs = new double[scores.length];
+		}
+		double[] w = weights[1];
+		int nIn = sizes[0];
+		double max = Double.NEGATIVE_INFINITY;
+		for(int d=0,o=0;d<n;d++,o+=nIn)
+		{
+			double wsum = 0.0;
+			for(int p=0;p<nIn;p++)
+				wsum += x[o+p] * w[p];
+			wsum += w[nIn];//the bias input is 1.0
+			scores[d] = tfunc.compute(wsum);
+			if(scores[d] > max)
+				max = scores[d];
+		}
+		return max;
+	}
+
+	/**
+	 * Out-links of unit @unit of layer @layer (the bias input being unit sizes[0] of layer 0) in the order the model files list their weights.
+	 * @return {layer of the target unit, index of the weight in weights[that layer]} for each link.
+	 */
+	protected int[][] outLinks(int layer, int unit)
+	{
+		List<int[]> links = new ArrayList<int[]>();
+		if(layer == 0 && unit == sizes[0])
+		{
+			for(int l=1;l<sizes.length;l++)
+				for(int j=0;j<sizes[l];j++)
+					links.add(new int[]{l, index(l, j, sizes[l-1])});
+		}
+		else
+		{
+			for(int j=0;j<sizes[layer+1];j++)
+				links.add(new int[]{layer+1, index(layer+1, j, unit)});
+		}
+		return links.toArray(new int[links.size()][]);
+	}
+	/**
+	 * Set the weights of the out-links of a unit (see {@link #outLinks(int, int)}) from @s, starting at @s[@offset].
+	 */
+	public void setOutWeights(int layer, int unit, String[] s, int offset)
+	{
+		int[][] links = outLinks(layer, unit);
+		for(int k=0;k<links.length;k++)
+			weights[links[k][0]][links[k][1]] = Double.parseDouble(s[k+offset]);
+	}
+	/**
+	 * @return A copy of the weights of the input links of unit @j of layer @l: one per unit of the previous layer, then the bias weight.
+	 */
+	public double[] getInWeights(int l, int j)
+	{
+		double[] w = new double[sizes[l-1]+1];
+		System.arraycopy(weights[l], index(l, j, 0), w, 0, w.length);
+		return w;
+	}
+	public double[][] copyWeights()
+	{
+		double[][] w = new double[weights.length][];
+		for(int l=1;l<weights.length;l++)
+			w[l] = weights[l].clone();
+		return w;
+	}
+	public void setWeights(double[][] w)
+	{
+		for(int l=1;l<weights.length;l++)
+			System.arraycopy(w[l], 0, weights[l], 0, weights[l].length);
+	}
+
+	/**
+	 * The weights in the format of the model files: a line "layer unit w1 w2 ..." with the weights of the out-links of each unit, for all layers but
+	 * the output one.
+	 */
+	public String toString()
+	{
+		StringBuilder output = new StringBuilder();
+		for(int l=0;l<sizes.length-1;l++)
+		{
+			int n = sizes[l] + ((l==0)?1:0);//the bias input is the last unit of layer 0
+			for(int j=0;j<n;j++)
+			{
+				output.append(l).append(" ").append(j).append(" ");
+				int[][] links = outLinks(l, j);
+				for(int k=0;k<links.length;k++)
+					output.append(weights[links[k][0]][links[k][1]]).append((k==links.length-1)?"":" ");
+				output.append("\n");
+			}
+		}
+		return output.toString();
+	}
+
+	/**
+	 * Benchmark: train the same RankNet for a few epochs with this network and with the original Neuron/Synapse object graph (and with the
+	 * factorized gradient).
+	 * Usage: DenseNetwork [#queries] [#docs per query] [#features] [#hidden units] [#epochs]
+	 */
+	public static void main(String[] args)
+	{
+		int nQuery = (args.length > 0) ? Integer.parseInt(args[0]) : 50;
+		int nDoc = (args.length > 1) ? Integer.parseInt(args[1]) : 50;
+		int nFeature = (args.length > 2) ? Integer.parseInt(args[2]) : 46;
+		int nHidden = (args.length > 3) ? Integer.parseInt(args[3]) : 10;
+		int nEpoch = (args.length > 4) ? Integer.parseInt(args[4]) : 3;
+
+		Random rd = new Random(1);
+		List<RankList> samples = new ArrayList<RankList>();
+		for(int q=0;q<nQuery;q++)
+		{
+			List<DataPoint> dps = new ArrayList<DataPoint>();
+			for(int d=0;d<nDoc;d++)
+			{
+				String s = rd.nextInt(5) + " qid:" + q;
+				for(int f=1;f<=nFeature;f++)
+					s += " " + f + ":" + rd.nextFloat();
+				dps.add(new DenseDataPoint(s));
+			}
+			samples.add(new RankList(dps));
+		}
+		int[] features = new int[nFeature];
+		for(int f=0;f<nFeature;f++)
+			features[f] = f+1;
+		int[][][] pairMaps = new int[nQuery][][];
+		for(int q=0;q<nQuery;q++)
+		{
+			RankList rl = samples.get(q);
+			pairMaps[q] = new int[rl.size()][];
+			for(int i=0;i<rl.size();i++)
+			{
+				List<Integer> l = new ArrayList<Integer>();
+				for(int j=0;j<rl.size();j++)
+					if(rl.get(i).getLabel() > rl.get(j).getLabel())
+						l.add(j);
+				pairMaps[q][i] = new int[l.size()];
+				for(int k=0;k<l.size();k++)
+					pairMaps[q][i][k] = l.get(k);
+			}
+		}
+
+		DenseNetwork net = new DenseNetwork(nFeature, new int[]{nHidden}, 1, new Random(7));
+		net.setLearningRate(0.00005);
+		LegacyNetwork legacy = new LegacyNetwork(nFeature, nHidden, new Random(7));
+		Neuron.learningRate = 0.00005;
+
+		long start = System.nanoTime();
+		for(int e=0;e<nEpoch;e++)
+			for(int q=0;q<nQuery;q++)
+			{
+				net.feedForward(samples.get(q), features);
+				for(int i=0;i<pairMaps[q].length;i++)
+					net.backPropagate(i, pairMaps[q][i], null, null);
+			}
+		double dense = (System.nanoTime() - start) / 1e9;
+
+		start = System.nanoTime();
+		for(int e=0;e<nEpoch;e++)
+			for(int q=0;q<nQuery;q++)
+				legacy.train(samples.get(q), features, pairMaps[q]);
+		double objects = (System.nanoTime() - start) / 1e9;
+
+		DenseNetwork fnet = new DenseNetwork(nFeature, new int[]{nHidden}, 1, new Random(7));
+		fnet.setLearningRate(0.00005);
+		start = System.nanoTime();
+		for(int e=0;e<nEpoch;e++)
+			for(int q=0;q<nQuery;q++)
+			{
+				fnet.feedForward(samples.get(q), features);
+				fnet.backPropagateFactorized(pairMaps[q], null, null);
+			}
+		double factorized = (System.nanoTime() - start) / 1e9;
+
+		String a = net.toString();
+		String b = legacy.toString();
+		System.out.println(nQuery + " queries x " + nDoc + " docs, " + nFeature + " features, " + nHidden + " hidden units, " + nEpoch + " epochs");
+		System.out.println("DenseNetwork: " + dense + "s; Neuron/Synapse: " + objects + "s (x" + (objects/dense) + ")" + (a.equals(b) ? "; same weights" : "; WEIGHTS DIFFER"));
+		System.out.println("DenseNetwork, factorized gradient: " + factorized + "s (x" + (objects/factorized) + ")");
+	}
+
+	/**
+	 * The original object graph with one hidden layer, trained the way RankNet used to train it (for the benchmark).
+	 */
+	static class LegacyNetwork {
+		List<Layer> layers = new ArrayList<Layer>();
+
+		LegacyNetwork(int nInput, int nHidden, Random random)
+		{
+			Random old = Synapse.random;
+			Synapse.random = random;
+			layers.add(new Layer(nInput+1));
+			layers.add(new Layer(nHidden));
+			layers.add(new Layer(1));
+			for(int i=0;i<nInput;i++)
+				for(int j=0;j<nHidden;j++)
+					new Synapse(layers.get(0).get(i), layers.get(1).get(j));
+			for(int j=0;j<nHidden;j++)
+				new Synapse(layers.get(1).get(j), layers.get(2).get(0));
+			for(int l=1;l<layers.size();l++)
+				for(int j=0;j<layers.get(l).size();j++)
+					new Synapse(layers.get(0).get(nInput), layers.get(l).get(j));
+			Synapse.random = old;
+		}
+		void train(RankList rl, int[] features, int[][] pairMap)
+		{
+			Layer input = layers.get(0);
+			for(int i=0;i<rl.size();i++)
+			{
+				for(int k=0;k<input.size()-1;k++)
+					input.get(k).addOutput(rl.get(i).getFeatureValue(features[k]));
+				input.get(input.size()-1).addOutput(1.0f);
+				for(int k=1;k<layers.size();k++)
+					layers.get(k).computeOutput(i);
+			}
+			for(int i=0;i<pairMap.length;i++)
+			{
+				PropParameter p = new PropParameter(i, pairMap);
+				layers.get(2).computeDelta(p);
+				layers.get(1).updateDelta(p);
+				layers.get(2).updateWeight(p);
+				layers.get(1).updateWeight(p);
+			}
+			for(int k=0;k<layers.size();k++)
+				layers.get(k).clearOutputs();
+		}
+		public String toString()
+		{
+			String output = "";
+			for(int i=0;i<layers.size()-1;i++)
+				for(int j=0;j<layers.get(i).size();j++)
+				{
+					output += i + " " + j + " ";
+					Neuron n = layers.get(i).get(j);
+					for(int k=0;k<n.getOutLinks().size();k++)
+						output += n.getOutLinks().get(k).getWeight() + ((k==n.getOutLinks().size()-1)?"":" ");
+					output += "\n";
+				}
+			return output;
+		}
+	}
+}
@@ -31,50 +31,50 @@ public class LambdaRank extends RankNet {
 		super(samples, features, scorer);
 	}
 	protected int[][] batchFeedForward(RankList rl)
+	{
+		net.feedForward(rl, features);
+		int[][] pairMap = computePairMap(rl);
+		targetValue = computeTargetValue(pairMap, rl);
+		return pairMap;
+	}
+	protected int[][] computePairMap(RankList rl)
 	{
 		int[][] pairMap = new int[rl.size()][];
-		targetValue = new float[rl.size()][];
 		for(int i=0;i<rl.size();i++)
 		{
-			addInput(rl.get(i));
-			propagate(i);
-			
 			int count = 0;
 			for(int j=0;j<rl.size();j++)
 				if(rl.get(i).getLabel() > rl.get(j).getLabel() || rl.get(i).getLabel() < rl.get(j).getLabel())
 					count++;
 			
 			pairMap[i] = new int[count];
-			targetValue[i] = new float[count];
 			
 			int k=0;
 			for(int j=0;j<rl.size();j++)
 				if(rl.get(i).getLabel() > rl.get(j).getLabel() || rl.get(i).getLabel() < rl.get(j).getLabel())
-				{
-					pairMap[i][k] = j;
-					if(rl.get(i).getLabel() > rl.get(j).getLabel())
-						targetValue[i][k] = 1;
-					else
-						targetValue[i][k] = 0;
-					k++;
-				}
+					pairMap[i][k++] = j;
 		}
 		return pairMap;
 	}
-	protected void batchBackPropagate(int[][] pairMap, float[][] pairWeight)
+	protected float[][] computeTargetValue(int[][] pairMap, RankList rl)
 	{
+		float[][] targetValue = new float[pairMap.length][];
 		for(int i=0;i<pairMap.length;i++)
 		{
-			PropParameter p = new PropParameter(i, pairMap, pairWeight, targetValue);
-			//back-propagate
-			outputLayer.computeDelta(p);//starting at the output layer
-			for(int j=layers.size()-2;j>=1;j--)//back-propagate to the first hidden layer
-				layers.get(j).updateDelta(p);
-			
-			//weight update
-			outputLayer.updateWeight(p);
-			for(int j=layers.size()-2;j>=1;j--)
-				layers.get(j).updateWeight(p);
+			targetValue[i] = new float[pairMap[i].length];
+			for(int k=0;k<pairMap[i].length;k++)
+				targetValue[i][k] = (rl.get(i).getLabel() > rl.get(pairMap[i][k]).getLabel()) ? 1 : 0;
+		}
+		return targetValue;
+	}
+	protected void batchBackPropagate(int[][] pairMap, float[][] pairWeight)
+	{
+		if(factorizedGradient)
+			net.backPropagateFactorized(pairMap, pairWeight, targetValue);
+		else
+		{
+			for(int i=0;i<pairMap.length;i++)
+				net.backPropagate(i, pairMap[i], pairWeight[i], targetValue[i]);
 		}
 	}
 	protected RankList internalReorder(RankList rl)
@@ -102,14 +102,15 @@ public class LambdaRank extends RankNet {
 		for(int j=0;j<samples.size();j++)
 		{
 			RankList rl = samples.get(j);
+			double[] o = eval(rl);
 			for(int k=0;k<rl.size()-1;k++)
 			{
-				double o1 = eval(rl.get(k));
+				double o1 = o[k];
 				for(int l=k+1;l<rl.size();l++)
 				{
 					if(rl.get(k).getLabel() > rl.get(l).getLabel())
 					{
-						double o2 = eval(rl.get(l));
+						double o2 = o[l];
 						//error += crossEntropy(o1, o2, 1.0f);
 						if(o1 < o2)
 							misorderedPairs++;
@@ -28,6 +28,10 @@ public class ListNet extends RankNet {
 	public static double learningRate = 0.00001; 
 	public static int nHiddenLayer = 0;//FIXED, it doesn't work with hidden layer
 	
+	//Variables
+	protected float[][] featureBlocks = null;//featureBlocks[q]: features of the documents of the q-th training ranked list, row-major
+	protected double[][] labelProbs = null;//labelProbs[q]: top-one probabilities of their labels
+	
 	public ListNet()
 	{		
 	}
@@ -36,68 +40,59 @@ public class ListNet extends RankNet {
 		super(samples, features, scorer);
 	}
 	
-	protected float[] feedForward(RankList rl)
+	/**
+	 * @return The features of the documents of @rl, row-major.
+	 */
+	protected float[] featureBlock(RankList rl)
 	{
-		float[] labels = new float[rl.size()];
-		for(int i=0;i<rl.size();i++)
+		float[] x = new float[rl.size() * features.length];
+		for(int i=0,o=0;i<rl.size();i++,o+=features.length)
 		{
-			addInput(rl.get(i));
-			propagate(i);
-			labels[i] = rl.get(i).getLabel();
+			DataPoint p = rl.get(i);
+			for(int k=0;k<features.length;k++)
+				x[o+k] = p.getFeatureValue(features[k]);
 		}
-		return labels;
-	}
-	protected void backPropagate(float[] labels)
-	{
-		//back-propagate
-		PropParameter p = new PropParameter(labels);
-		outputLayer.computeDelta(p);//starting at the output layer
-		
-		//weight update
-		outputLayer.updateWeight(p);
+		return x;
 	}
-	protected void estimateLoss() 
+	/**
+	 * @return The top-one probabilities of the labels of @rl (softmax, shifted by the highest label).
+	 */
+	protected double[] topOneProbabilities(RankList rl)
 	{
-		error = 0.0;
-		double sumLabelExp = 0;
-		double sumScoreExp = 0;
-		for(int i=0;i<samples.size();i++)
+		double max = Double.NEGATIVE_INFINITY;
+		for(int i=0;i<rl.size();i++)
+			max = Math.max(max, rl.get(i).getLabel());
+		double[] probs = new double[rl.size()];
+		double sum = 0;
+		for(int i=0;i<rl.size();i++)
 		{
-			RankList rl = samples.get(i);
-			double[] scores = new double[rl.size()];
-			double err = 0;
-			for(int j=0;j<rl.size();j++)
-			{
-				scores[j] = eval(rl.get(j));
-				sumLabelExp += Math.exp(rl.get(j).getLabel());
-				sumScoreExp += Math.exp(scores[j]);				
-			}
-			for(int j=0;j<rl.size();j++)
-			{
-				double p1 = Math.exp(rl.get(j).getLabel())/sumLabelExp;
-				double p2 = (Math.exp(scores[j])/sumScoreExp); 
-				err +=  - p1 * SimpleMath.logBase2(p2) ;
-			}
-			error += err/rl.size();
+			probs[i] = Math.exp(rl.get(i).getLabel() - max);
+			sum += probs[i];
 		}
-		//if(error > lastError && Neuron.learningRate > 0.0000001)
-			//Neuron.learningRate *= 0.9;
-		lastError = error;
+		for(int i=0;i<rl.size();i++)
+			probs[i] /= sum;
+		return probs;
+	}
+	protected double accumulateGradient(DenseNetwork n, int j)
+	{
+		return n.accumulateListGradient(featureBlocks[j], samples.get(j).size(), labelProbs[j]);
 	}
-	
 	public void init()
 	{
 		PRINT("Initializing... ");
 		
 		//Set up the network
-		setInputOutput(features.length, 1, 1);
-		wire();
-		
-		if(validationSamples != null)
-			for(int i=0;i<layers.size();i++)
-				bestModelOnValidation.add(new ArrayList<Double>());
+		setNetwork(features.length, 0, 0, weightRandom());
+		net.setLearningRate(learningRate);
 		
-		Neuron.learningRate = learningRate;
+		//the features and the label probabilities do not change from one epoch to the next
+		featureBlocks = new float[samples.size()][];
+		labelProbs = new double[samples.size()][];
+		for(int i=0;i<samples.size();i++)
+		{
+			featureBlocks[i] = featureBlock(samples.get(i));
+			labelProbs[i] = topOneProbabilities(samples.get(i));
+		}
 		PRINTLN("[Done]");
 	}
 	public void learn()
@@ -110,21 +105,27 @@ public class ListNet extends RankNet {
 		
 		for(int i=1;i<=nIteration;i++)
 		{
-			for(int j=0;j<samples.size();j++)
+			//the loss of each ranked list is computed along with its gradient, i.e. before the update it leads to
+			if(batchSize > 0 || hogwild)
+				error = parallelEpoch();
+			else
 			{
-				float[] labels = feedForward(samples.get(j));
-				backPropagate(labels);
-				clearNeuronOutputs();
+				error = 0.0;
+				for(int j=0;j<samples.size();j++)
+				{
+					net.clearGradient();
+					error += accumulateGradient(net, j);
+					net.applyGradient();
+				}
 			}
-			//estimateLoss();
 			PRINT(new int[]{7, 14}, new String[]{i+"", SimpleMath.round(error, 6)+""});
 			if(i % 1 == 0)
 			{
-				scoreOnTrainingData = scorer.score(rank(samples));
+				scoreOnTrainingData = scorer.score(rank(samples, scorer.getRankingDepth()));
 				PRINT(new int[]{9}, new String[]{SimpleMath.round(scoreOnTrainingData, 4)+""});
 				if(validationSamples != null)
 				{
-					double score = scorer.score(rank(validationSamples));
+					double score = scorer.score(rank(validationSamples, scorer.getRankingDepth()));
 					if(score > bestScoreOnValidationData)
 					{
 						bestScoreOnValidationData = score;
@@ -141,13 +142,13 @@ public class ListNet extends RankNet {
 		if(validationSamples != null)
 			restoreBestModelOnValidation();
 		
-		scoreOnTrainingData = SimpleMath.round(scorer.score(rank(samples)), 4);
+		scoreOnTrainingData = SimpleMath.round(scorer.score(rank(samples, scorer.getRankingDepth())), 4);
 		PRINTLN("--------------------------------------------------");
 		PRINTLN("Finished sucessfully.");
 		PRINTLN(scorer.name() + " on training data: " + scoreOnTrainingData);
 		if(validationSamples != null)
 		{
-			bestScoreOnValidationData = scorer.score(rank(validationSamples));
+			bestScoreOnValidationData = scorer.score(rank(validationSamples, scorer.getRankingDepth()));
 			PRINTLN(scorer.name() + " on validation data: " + SimpleMath.round(bestScoreOnValidationData, 4));
 		}
 		PRINTLN("---------------------------------");
@@ -212,19 +213,14 @@ public class ListNet extends RankNet {
 			for(;i<2+nHiddenLayer;i++)
 				nn[i-2] = Integer.parseInt(l.get(i));
 			//create the network
-			setInputOutput(features.length, 1);
-			for(int j=0;j<nHiddenLayer;j++)
-				addHiddenLayer(nn[j]);
-			wire();
+			setNetwork(features.length, nn, null);
 			//fill in weights
 			for(;i<l.size();i++)//loop through all layers
 			{
 				String[] s = l.get(i).split(" ");
 				int iLayer = Integer.parseInt(s[0]);//which layer?
 				int iNeuron = Integer.parseInt(s[1]);//which neuron?
-				Neuron n = layers.get(iLayer).get(iNeuron);
-				for(int k=0;k<n.getOutLinks().size();k++)//loop through all out links (synapses) of the current neuron
-					n.getOutLinks().get(k).setWeight(Double.parseDouble(s[k+2]));
+				net.setOutWeights(iLayer, iNeuron, s, 2);
 			}
 		}
 		catch(Exception ex)
@@ -236,6 +232,12 @@ public class ListNet extends RankNet {
 	{
 		PRINTLN("No. of epochs: " + nIteration);
 		PRINTLN("Learning rate: " + learningRate);
+		if(hogwild)
+			PRINTLN("Hogwild! training");
+		else if(batchSize > 0)
+			PRINTLN("Mini-batch size: " + batchSize);
+		if(seed != -1)
+			PRINTLN("Seed: " + seed);
 	}
 	public String name()
 	{
@@ -13,6 +13,7 @@ import ciir.umass.edu.learning.DataPoint;
 import ciir.umass.edu.learning.RankList;
 import ciir.umass.edu.learning.Ranker;
 import ciir.umass.edu.metric.MetricScorer;
+import ciir.umass.edu.utilities.MyThreadPool;
 import ciir.umass.edu.utilities.RankLibError;
 import ciir.umass.edu.utilities.SimpleMath;
 
@@ -20,6 +21,7 @@ import java.io.BufferedReader;
 import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 
 /**
  * @author vdang
@@ -35,14 +37,21 @@ public class RankNet extends Ranker {
 	public static int nHiddenLayer = 1;
 	public static int nHiddenNodePerLayer = 10;
 	public static double learningRate = 0.00005;
+	//Fold the pairs of each document into a single lambda and back-propagate once per document, updating the weights once per ranked list
+	//(instead of back-propagating each document with all of its pairs and updating the weights after each document)
+	public static boolean factorizedGradient = false;
+	//Mini-batch training: sum the (factorized) gradients of this many ranked lists, computed in parallel, before each weight update (0 = off)
+	public static int batchSize = 0;
+	//Hogwild!: each thread trains on its own share of the ranked lists and updates the shared weights after each of them, without locking.
+	//Faster than mini-batches, but the result depends on thread scheduling (unless there is only one thread)
+	public static boolean hogwild = false;
 	
 	//Variables
-	protected List<Layer> layers = new ArrayList<Layer>();
-	protected Layer inputLayer = null;
-	protected Layer outputLayer = null;
+	protected DenseNetwork net = null;
+	protected DenseNetwork[] replicas = null;//one per thread, for mini-batch/Hogwild! training
 	
 	//to store the best model on validation data (if specified)
-	protected List<List<Double>> bestModelOnValidation = new ArrayList<List<Double>>();
+	protected double[][] bestModelOnValidation = null;
 	
 	protected int totalPairs = 0;
 	protected int misorderedPairs = 0; 
@@ -62,86 +71,39 @@ public class RankNet extends Ranker {
 	/**
 	 * Setting up the Neural Network
 	 */
-	protected void setInputOutput(int nInput, int nOutput)
+	protected void setNetwork(int nInput, int nHiddenLayer, int nHiddenNodePerLayer, Random random)
 	{
-		inputLayer = new Layer(nInput+1);//plus the "bias" (output threshold)
-		outputLayer = new Layer(nOutput);
-		layers.clear();
-		layers.add(inputLayer);
-		layers.add(outputLayer);
-	}
-	protected void setInputOutput(int nInput, int nOutput, int nType)
-	{
-		inputLayer = new Layer(nInput+1, nType);//plus the "bias" (output threshold)
-		outputLayer = new Layer(nOutput, nType);
-		layers.clear();
-		layers.add(inputLayer);
-		layers.add(outputLayer);
+		int[] hidden = new int[nHiddenLayer];
+		for(int i=0;i<nHiddenLayer;i++)
+			hidden[i] = nHiddenNodePerLayer;
+		setNetwork(nInput, hidden, random);
 	}
-	protected void addHiddenLayer(int size)
+	protected void setNetwork(int nInput, int[] hidden, Random random)
 	{
-		layers.add(layers.size()-1, new Layer(size));
+		net = new DenseNetwork(nInput, hidden, 1, random);
+		replicas = null;
 	}
-	protected void wire()
-	{
-		//wire the input layer to the first hidden layer
-		for(int i=0;i<inputLayer.size()-1;i++)//don't touch the "bias" input (the last item in the list)
-			for(int j=0;j<layers.get(1).size();j++)
-				connect(0, i, 1, j);
-		
-		//wire one layer to the next, starting at layer 1 (the first hidden layer)
-		for(int i=1;i<layers.size()-1;i++)
-			for(int j=0;j<layers.get(i).size();j++)
-				for(int k=0;k<layers.get(i+1).size();k++)
-					connect(i, j, i+1, k);
-		
-		//wire the "bias" neuron to all others (in all layers)
-		for(int i=1;i<layers.size();i++)
-			for(int j=0;j<layers.get(i).size();j++)
-				connect(0, inputLayer.size()-1, i, j);
-		
-		//initialize weights
-		/*Random random = new Random();
-		for(int i=1;i<layers.size();i++)
-		{
-			for(int j=0;j<layers.get(i).size();j++)
-			{
-				Neuron n = layers.get(i).get(j);
-				int s = n.getInLinks().size();
-				double b = Math.sqrt(3.0/s);//if weight is drawn from Uniform(-b, b) ==> the standard deviation of weights will be 1.0/sqrt(m) 
-				for(int k=0;k<s;k++)
-					n.getInLinks().get(k).setWeight(b*random.nextDouble()*(random.nextInt(2)==0?1:-1));
-			}
-		}*/
-	}
-	protected void connect(int sourceLayer, int sourceNeuron, int targetLayer, int targetNeuron)
+	/**
+	 * @return The random number generator that initializes the weights: seeded with {@link Ranker#seed} if one is set.
+	 */
+	protected Random weightRandom()
 	{
-		new Synapse(layers.get(sourceLayer).get(sourceNeuron), layers.get(targetLayer).get(targetNeuron));
+		return (seed == -1) ? Synapse.random : new Random(seed);
 	}
 	
 	/**
 	 *  Auxiliary functions for pair-wise preference network learning.
 	 */
-	protected void addInput(DataPoint p)
-	{
-		for(int k=0;k<inputLayer.size()-1;k++)//not the "bias" node
-			inputLayer.get(k).addOutput(p.getFeatureValue(features[k]));
-		//  and now the bias node with a fix "1.0"
-		inputLayer.get(inputLayer.size()-1).addOutput(1.0f);
-	}
-	protected void propagate(int i)
+	protected int[][] batchFeedForward(RankList rl)
 	{
-		for(int k=1;k<layers.size();k++)//skip the input layer
-			layers.get(k).computeOutput(i);
+		net.feedForward(rl, features);
+		return computePairMap(rl);
 	}
-	protected int[][] batchFeedForward(RankList rl)
+	protected int[][] computePairMap(RankList rl)
 	{
 		int[][] pairMap = new int[rl.size()][];
 		for(int i=0;i<rl.size();i++)
 		{
-			addInput(rl.get(i));
-			propagate(i);
-			
 			int count = 0;
 			for(int j=0;j<rl.size();j++)
 				if(rl.get(i).getLabel() > rl.get(j).getLabel())
@@ -168,29 +130,94 @@ public class RankNet extends Ranker {
 	}
 	protected void batchBackPropagate(int[][] pairMap, float[][] pairWeight)
 	{
-		for(int i=0;i<pairMap.length;i++)
+		if(factorizedGradient)
+			net.backPropagateFactorized(pairMap, pairWeight, null);
+		else
 		{
-			//back-propagate
-			PropParameter p = new PropParameter(i, pairMap);
-			outputLayer.computeDelta(p);//starting at the output layer
-			for(int j=layers.size()-2;j>=1;j--)//back-propagate to the first hidden layer
-				layers.get(j).updateDelta(p);
-			
-			//weight update
-			outputLayer.updateWeight(p);
-			for(int j=layers.size()-2;j>=1;j--)
-				layers.get(j).updateWeight(p);
+			for(int i=0;i<pairMap.length;i++)
+				net.backPropagate(i, pairMap[i], (pairWeight != null) ? pairWeight[i] : null, null);
 		}
 	}
-	protected void clearNeuronOutputs()
+	protected float[][] computePairWeight(int[][] pairMap, RankList rl)
 	{
-		for(int k=0;k<layers.size();k++)//skip the input layer
-			layers.get(k).clearOutputs();
+		return null;
 	}
-	protected float[][] computePairWeight(int[][] pairMap, RankList rl)
+	protected float[][] computeTargetValue(int[][] pairMap, RankList rl)
 	{
 		return null;
 	}
+	/**
+	 * Add the factorized gradient of the @j-th training ranked list to the gradient buffer of @n (the network or one of its replicas). It only
+	 * reads the shared state of the ranker, so several threads can call it at once with different networks.
+	 * @return The loss on the list if it is computed along with the gradient (ListNet), 0 otherwise.
+	 */
+	protected double accumulateGradient(DenseNetwork n, int j)
+	{
+		RankList rl = internalReorder(samples.get(j));
+		n.feedForward(rl, features);
+		int[][] pairMap = computePairMap(rl);
+		float[][] pairWeight = computePairWeight(pairMap, rl);
+		n.accumulateGradient(n.computeLambdas(pairMap, pairWeight, computeTargetValue(pairMap, rl)));
+		return 0;
+	}
+	/**
+	 * One epoch of mini-batch or Hogwild! training: the ranked lists are split across the threads, each of them computing the gradients
+	 * with its own replica of the network. Mini-batch gradients are summed in a fixed order, so for a given number of threads (and seed)
+	 * the model learned is always the same.
+	 * @return The sum of the losses returned by {@link #accumulateGradient(DenseNetwork, int)}.
+	 */
+	protected double parallelEpoch()
+	{
+		MyThreadPool p = MyThreadPool.getInstance();
+		int nThreads = (p.size() > 1 && !p.isWorkerThread()) ? p.size() : 1;
+		if(replicas == null || replicas.length != nThreads)
+		{
+			replicas = new DenseNetwork[nThreads];
+			for(int i=0;i<nThreads;i++)
+				replicas[i] = net.replicate();
+		}
+
+		double loss = 0;
+		if(hogwild)
+		{
+			EpochWorker[] workers = runChunks(0, samples.size(), true);
+			for(int i=0;i<workers.length;i++)
+				loss += workers[i].loss;
+			return loss;
+		}
+		int size = (batchSize > 0) ? batchSize : 1;
+		for(int start=0;start<samples.size();start+=size)
+		{
+			EpochWorker[] workers = runChunks(start, Math.min(start+size, samples.size()), false);
+			net.clearGradient();
+			for(int i=0;i<workers.length;i++)
+			{
+				net.addGradient(workers[i].n);
+				loss += workers[i].loss;
+			}
+			net.applyGradient();
+		}
+		return loss;
+	}
+	private EpochWorker[] runChunks(int start, int end, boolean hogwild)
+	{
+		if(replicas.length == 1)
+		{
+			EpochWorker worker = new EpochWorker(replicas[0], start, end, hogwild);
+			worker.run();
+			return new EpochWorker[]{worker};
+		}
+		MyThreadPool p = MyThreadPool.getInstance();
+		int[] partition = p.partition(end - start);
+		EpochWorker[] workers = new EpochWorker[partition.length-1];
+		for(int i=0;i<workers.length;i++)
+		{
+			workers[i] = new EpochWorker(replicas[i], start+partition[i], start+partition[i+1], hogwild);
+			p.execute(workers[i]);
+		}
+		p.await();
+		return workers;
+	}
 	protected RankList internalReorder(RankList rl)
 	{
 		return rl;
@@ -201,32 +228,13 @@ public class RankNet extends Ranker {
 	 */
 	protected void saveBestModelOnValidation()
 	{
-		for(int i=0;i<layers.size()-1;i++)//loop through all layers
-		{
-			List<Double> l = bestModelOnValidation.get(i);
-			l.clear();
-			for(int j=0;j<layers.get(i).size();j++)//loop through all neurons on in the current layer
-			{
-				Neuron n = layers.get(i).get(j);
-				for(int k=0;k<n.getOutLinks().size();k++)//loop through all out links (synapses) of the current neuron
-					l.add(n.getOutLinks().get(k).getWeight());
-			}
-		}
+		bestModelOnValidation = net.copyWeights();
 	}
 	protected void restoreBestModelOnValidation()
 	{
 		try {
-			for(int i=0;i<layers.size()-1;i++)//loop through all layers
-			{
-				List<Double> l = bestModelOnValidation.get(i);
-				int c = 0;
-				for(int j=0;j<layers.get(i).size();j++)//loop through all neurons on in the current layer
-				{
-					Neuron n = layers.get(i).get(j);
-					for(int k=0;k<n.getOutLinks().size();k++)//loop through all out links (synapses) of the current neuron
-						n.getOutLinks().get(k).setWeight(l.get(c++));
-				}
-			}
+			if(bestModelOnValidation != null)
+				net.setWeights(bestModelOnValidation);
 		}
 		catch(Exception ex)
 		{
@@ -246,14 +254,15 @@ public class RankNet extends Ranker {
 		for(int j=0;j<samples.size();j++)
 		{
 			RankList rl = samples.get(j);
+			double[] o = eval(rl);
 			for(int k=0;k<rl.size()-1;k++)
 			{
-				double o1 = eval(rl.get(k));
+				double o1 = o[k];
 				for(int l=k+1;l<rl.size();l++)
 				{
 					if(rl.get(k).getLabel() > rl.get(l).getLabel())
 					{
-						double o2 = eval(rl.get(l));
+						double o2 = o[l];
 						error += crossEntropy(o1, o2, 1.0f);
 						if(o1 < o2)
 							misorderedPairs++;
@@ -276,10 +285,8 @@ public class RankNet extends Ranker {
 		PRINT("Initializing... ");
 		
 		//Set up the network
-		setInputOutput(features.length, 1);
-		for(int i=0;i<nHiddenLayer;i++)
-			addHiddenLayer(nHiddenNodePerLayer);
-		wire();
+		setNetwork(features.length, nHiddenLayer, nHiddenNodePerLayer, weightRandom());
+		net.setLearningRate(learningRate);
 		
 		totalPairs = 0;
 		for(int i=0;i<samples.size();i++)
@@ -291,11 +298,6 @@ public class RankNet extends Ranker {
 						totalPairs++;
 		}
 		
-		if(validationSamples != null)
-			for(int i=0;i<layers.size();i++)
-				bestModelOnValidation.add(new ArrayList<Double>());
-		
-		Neuron.learningRate = learningRate;
 		PRINTLN("[Done]");
 	}
 	public void learn()
@@ -309,17 +311,21 @@ public class RankNet extends Ranker {
 		
 		for(int i=1;i<=nIteration;i++)
 		{
-			for(int j=0;j<samples.size();j++)
+			if(batchSize > 0 || hogwild)
+				parallelEpoch();
+			else
 			{
-				RankList rl = internalReorder(samples.get(j));
-				int[][] pairMap = batchFeedForward(rl);
-				float[][] pairWeight = computePairWeight(pairMap, rl);
-				batchBackPropagate(pairMap, pairWeight);
-				clearNeuronOutputs();
+				for(int j=0;j<samples.size();j++)
+				{
+					RankList rl = internalReorder(samples.get(j));
+					int[][] pairMap = batchFeedForward(rl);
+					float[][] pairWeight = computePairWeight(pairMap, rl);
+					batchBackPropagate(pairMap, pairWeight);
+				}
 			}
 			
 			//printWeightVector();
-			scoreOnTrainingData = scorer.score(rank(samples));
+			scoreOnTrainingData = scorer.score(rank(samples, scorer.getRankingDepth()));
 			estimateLoss();
 			PRINT(new int[]{7, 14}, new String[]{i+"", SimpleMath.round(((double)misorderedPairs)/totalPairs, 4)+""});
 			//PRINT(new int[]{7, 14}, new String[]{i+"", SimpleMath.round(Neuron.learningRate, 9)+""});
@@ -328,7 +334,7 @@ public class RankNet extends Ranker {
 				PRINT(new int[]{9}, new String[]{SimpleMath.round(scoreOnTrainingData, 4)+""});
 				if(validationSamples != null)
 				{
-					double score = scorer.score(rank(validationSamples));
+					double score = scorer.score(rank(validationSamples, scorer.getRankingDepth()));
 					if(score > bestScoreOnValidationData)
 					{
 						bestScoreOnValidationData = score;
@@ -345,66 +351,56 @@ public class RankNet extends Ranker {
 		if(validationSamples != null)
 			restoreBestModelOnValidation();
 		
-		scoreOnTrainingData = SimpleMath.round(scorer.score(rank(samples)), 4);
+		scoreOnTrainingData = SimpleMath.round(scorer.score(rank(samples, scorer.getRankingDepth())), 4);
 		PRINTLN("--------------------------------------------------");
 		PRINTLN("Finished sucessfully.");
 		PRINTLN(scorer.name() + " on training data: " + scoreOnTrainingData);
 		if(validationSamples != null)
 		{
-			bestScoreOnValidationData = scorer.score(rank(validationSamples));
+			bestScoreOnValidationData = scorer.score(rank(validationSamples, scorer.getRankingDepth()));
 			PRINTLN(scorer.name() + " on validation data: " + SimpleMath.round(bestScoreOnValidationData, 4));
 		}
 		PRINTLN("---------------------------------");
 	}
 	public double eval(DataPoint p)
 	{
-		//feed input
-		for(int k=0;k<inputLayer.size()-1;k++)//not the "bias" node
-			inputLayer.get(k).setOutput(p.getFeatureValue(features[k]));
-		//and now the bias node with a fix "1.0"
-		inputLayer.get(inputLayer.size()-1).setOutput(1.0f);		
-		//propagate
-		for(int k=1;k<layers.size();k++)//skip the input layer
-			layers.get(k).computeOutput();		
-		return outputLayer.get(0).getOutput();
-	}	
+		return net.eval(p, features);
+	}
+	/**
+	 * @return The output of the network on each document of @rl.
+	 */
+	protected double[] eval(RankList rl)
+	{
+		double[] o = new double[rl.size()];
+		for(int i=0;i<rl.size();i++)
+			o[i] = eval(rl.get(i));
+		return o;
+	}
 	public Ranker createNew()
 	{
 		return new RankNet();
 	}
 	public String toString()
 	{
-		String output = "";
-		for(int i=0;i<layers.size()-1;i++)//loop through all layers
-		{
-			for(int j=0;j<layers.get(i).size();j++)//loop through all neurons on in the current layer
-			{
-				output += i + " " + j + " ";
-				Neuron n = layers.get(i).get(j);
-				for(int k=0;k<n.getOutLinks().size();k++)//loop through all out links (synapses) of the current neuron
-					output += n.getOutLinks().get(k).getWeight() + ((k==n.getOutLinks().size()-1)?"":" ");
-				output += "\n";
-			}
-		}
-		return output;
+		return net.toString();
 	}
 	public String model()
 	{
 		String output = "## " + name() + "\n";
 		output += "## Epochs = " + nIteration + "\n";
 		output += "## No. of features = " + features.length + "\n";
-		output += "## No. of hidden layers = " + (layers.size()-2) + "\n";
-		for(int i=1;i<layers.size()-1;i++)
-			output += "## Layer " + i + ": " + layers.get(i).size() + " neurons\n";
+		output += "## No. of hidden layers = " + (net.getLayerCount()-2) + "\n";
+		for(int i=1;i<net.getLayerCount()-1;i++)
+			output += "## Layer " + i + ": " + net.getLayerSize(i) + " neurons\n";
 		
 		//print used features
 		for(int i=0;i<features.length;i++)
 			output += features[i] + ((i==features.length-1)?"":" ");
 		output += "\n";
 		//print network information
-		output += layers.size()-2 + "\n";//[# hidden layers]
-		for(int i=1;i<layers.size()-1;i++)
-			output += layers.get(i).size() + "\n";//[#neurons]
+		output += net.getLayerCount()-2 + "\n";//[# hidden layers]
+		for(int i=1;i<net.getLayerCount()-1;i++)
+			output += net.getLayerSize(i) + "\n";//[#neurons]
 		//print learned weights
 		output += toString();
 		return output;
@@ -440,19 +436,14 @@ public class RankNet extends Ranker {
 			for(;i<2+nHiddenLayer;i++)
 				nn[i-2] = Integer.parseInt(l.get(i));
 			//create the network
-			setInputOutput(features.length, 1);
-			for(int j=0;j<nHiddenLayer;j++)
-				addHiddenLayer(nn[j]);
-			wire();
+			setNetwork(features.length, nn, null);
 			//fill in weights
 			for(;i<l.size();i++)//loop through all layers
 			{
 				String[] s = l.get(i).split(" ");
 				int iLayer = Integer.parseInt(s[0]);//which layer?
 				int iNeuron = Integer.parseInt(s[1]);//which neuron?
-				Neuron n = layers.get(iLayer).get(iNeuron);
-				for(int k=0;k<n.getOutLinks().size();k++)//loop through all out links (synapses) of the current neuron
-					n.getOutLinks().get(k).setWeight(Double.parseDouble(s[k+2]));
+				net.setOutWeights(iLayer, iNeuron, s, 2);
 			}
 		}
 		catch(Exception ex)
@@ -466,6 +457,14 @@ public class RankNet extends Ranker {
 		PRINTLN("No. of hidden layers: " + nHiddenLayer);
 		PRINTLN("No. of hidden nodes per layer: " + nHiddenNodePerLayer);
 		PRINTLN("Learning rate: " + learningRate);
+		if(factorizedGradient)
+			PRINTLN("Factorized gradient: one back-propagation per document");
+		if(hogwild)
+			PRINTLN("Hogwild! training");
+		else if(batchSize > 0)
+			PRINTLN("Mini-batch size: " + batchSize);
+		if(seed != -1)
+			PRINTLN("Seed: " + seed);
 	}
 	public String name()
 	{
@@ -476,15 +475,15 @@ public class RankNet extends Ranker {
 	 */
 	protected void printNetworkConfig()
 	{
-		for(int i=1;i<layers.size();i++)
+		for(int i=1;i<net.getLayerCount();i++)
 		{
 			System.out.println("Layer-" + (i+1));
-			for(int j=0;j<layers.get(i).size();j++)
+			for(int j=0;j<net.getLayerSize(i);j++)
 			{
-				Neuron n = layers.get(i).get(j);
-				System.out.print("Neuron-" + (j+1) + ": " + n.getInLinks().size() + " inputs\t");
-				for(int k=0;k<n.getInLinks().size();k++)
-					System.out.print(n.getInLinks().get(k).getWeight() + "\t");
+				double[] w = net.getInWeights(i, j);
+				System.out.print("Neuron-" + (j+1) + ": " + w.length + " inputs\t");
+				for(int k=0;k<w.length;k++)
+					System.out.print(w[k] + "\t");
 				System.out.println("");
 			}
 		}
@@ -497,8 +496,38 @@ public class RankNet extends Ranker {
 			w[j] = inputLayer.get(j).getOutLinks().get(0).getWeight();
 			System.out.print(w[j] + " ");
 		}*/
-		for(int j=0;j<outputLayer.get(0).getInLinks().size();j++)
-			System.out.print(outputLayer.get(0).getInLinks().get(j).getWeight() + " ");
+		double[] w = net.getInWeights(net.getLayerCount()-1, 0);
+		for(int j=0;j<w.length;j++)
+			System.out.print(w[j] + " ");
 		System.out.println("");
 	}
+
+	class EpochWorker implements Runnable {
+		DenseNetwork n = null;
+		int start = -1;
+		int end = -1;
+		boolean hogwild = false;
+		double loss = 0;
+
+		EpochWorker(DenseNetwork n, int start, int end, boolean hogwild)
+		{
+			this.n = n;
+			this.start = start;
+			this.end = end;
+			this.hogwild = hogwild;
+		}
+		public void run()
+		{
+			n.clearGradient();
+			for(int j=start;j<end;j++)
+			{
+				loss += accumulateGradient(n, j);
+				if(hogwild)
+				{
+					n.applyGradient();
+					n.clearGradient();
+				}
+			}
+		}
+	}
 }
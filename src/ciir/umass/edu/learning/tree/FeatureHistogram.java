@@ -30,6 +30,9 @@ public class FeatureHistogram {
 	
 	//Parameter
 	public static float samplingRate = 1;
+	public static boolean packBins = true;//store the threshold index of each sample in a byte (<= 256 thresholds) or a short (<= 65536 thresholds) instead of an int
+	public static boolean sampleParallel = true;//split the samples (instead of the features) among the threads when there are fewer features than threads
+	public static int minSamplesPerThread = 10000;//...but only for nodes with at least this many samples per thread
 	
 	//Variables
 	public int[] features = null;
@@ -38,11 +41,16 @@ public class FeatureHistogram {
 	public double sumResponse = 0;
 	public double sqSumResponse = 0;
 	public int[][] count = null;
+	//index of the threshold (bin) each sample falls into. For any feature, only one of the three maps is allocated, depending on @packBins and its number of thresholds.
 	public int[][] sampleToThresholdMap = null;
+	public byte[][] sampleToThresholdMap8 = null;//unsigned
+	public short[][] sampleToThresholdMap16 = null;//unsigned
 	
 	//whether to re-use its parents @sum and @count instead of cleaning up the parent and re-allocate for the children.
 	//@sum and @count of any intermediate tree node (except for root) can be re-used.  
 	private boolean reuseParent = false;
+	//@sum and @count of all nodes other than the root are taken from (and given back to) this pool, which is shared by all nodes of the same root
+	private HistogramPool pool = null;
 	
 	public FeatureHistogram()
 	{
@@ -51,7 +59,11 @@ public class FeatureHistogram {
 	
 	public void construct(DataPoint[] samples, double[] labels, int[][] sampleSortedIdx, int[] features, float[][] thresholds)
 	{
-		this.features = features;
+		construct(new FeatureMatrix(samples, features), labels, sampleSortedIdx, thresholds);
+	}
+	public void construct(FeatureMatrix samples, double[] labels, int[][] sampleSortedIdx, float[][] thresholds)
+	{
+		this.features = samples.getFeatures();
 		this.thresholds = thresholds;
 		
 		sumResponse = 0;
@@ -59,19 +71,22 @@ public class FeatureHistogram {
 		
 		sum = new double[features.length][];
 		count = new int[features.length][];
+		pool = new HistogramPool(this);
 		sampleToThresholdMap = new int[features.length][];
+		sampleToThresholdMap8 = new byte[features.length][];
+		sampleToThresholdMap16 = new short[features.length][];
 		
 		MyThreadPool p = MyThreadPool.getInstance();
-		if(p.size() == 1)
+		if(p.size() == 1 || p.isWorkerThread())
 			construct(samples, labels, sampleSortedIdx, thresholds, 0, features.length-1);
 		else
 			p.execute(new Worker(this, samples, labels, sampleSortedIdx, thresholds), features.length);			
 	}
-	protected void construct(DataPoint[] samples, double[] labels, int[][] sampleSortedIdx, float[][] thresholds, int start, int end)
+	protected void construct(FeatureMatrix samples, double[] labels, int[][] sampleSortedIdx, float[][] thresholds, int start, int end)
 	{
 		for(int i=start;i<=end;i++)
 		{
-			int fid = features[i];			
+			float[] column = samples.getColumn(i);
 			//get the list of samples associated with this node (sorted in ascending order with respect to the current feature)
 			int[] idx = sampleSortedIdx[i];
 			
@@ -79,7 +94,7 @@ public class FeatureHistogram {
 			float[] threshold = thresholds[i];
 			double[] sumLabel = new double[threshold.length];
 			int[] c = new int[threshold.length];
-			int[] stMap = new int[samples.length];
+			allocateThresholdMap(i, samples.getSampleCount());
 			
 			int last = -1;
 			for(int t=0;t<threshold.length;t++)
@@ -89,7 +104,7 @@ public class FeatureHistogram {
 				for(;j<idx.length;j++)
 				{
 					int k = idx[j];
-					if(samples[k].getFeatureValue(fid) >  threshold[t])
+					if(column[k] >  threshold[t])
 						break;
 					sumLeft += labels[k];
 					if(i == 0)
@@ -97,13 +112,12 @@ public class FeatureHistogram {
 						sumResponse += labels[k];
 						sqSumResponse += labels[k] * labels[k];
 					}
-					stMap[k] =  t;
+					setThreshold(i, k, t);
 				}
 				last = j-1;	
 				sumLabel[t] = sumLeft;
 				c[t] = last+1;
 			}
-			sampleToThresholdMap[i] = stMap;
 			sum[i] = sumLabel;
 			count[i] = c;
 		}
@@ -115,7 +129,9 @@ public class FeatureHistogram {
 		sqSumResponse = 0;
 		
 		MyThreadPool p = MyThreadPool.getInstance();
-		if(p.size() == 1)
+		if(isSampleParallel(labels.length))
+			accumulate(null, labels, labels.length);
+		else if(p.size() == 1 || p.isWorkerThread())
 			update(labels, 0, features.length-1);
 		else
 			p.execute(new Worker(this, labels), features.length);
@@ -123,26 +139,16 @@ public class FeatureHistogram {
 	protected void update(double[] labels, int start, int end)
 	{
 		for(int f=start;f<=end;f++)
-			Arrays.fill(sum[f], 0);
-		for(int k=0;k<labels.length;k++)
 		{
-			for(int f=start;f<=end;f++)
-			{
-				int t = sampleToThresholdMap[f][k];
-				sum[f][t] += labels[k];
-				if(f == 0)
-				{
-					sumResponse += labels[k];
-					sqSumResponse += labels[k]*labels[k];
-				}
-				//count doesn't change, so no need to re-compute
-			}
-		}
-		for(int f=start;f<=end;f++)
-		{			
-			for(int t=1;t<thresholds[f].length;t++)
-				sum[f][t] += sum[f][t-1];
+			double[] sumLabel = sum[f];
+			Arrays.fill(sumLabel, 0);
+			accumulate(f, null, labels, 0, labels.length-1, sumLabel, null);
+			//count doesn't change, so no need to re-compute
+			for(int t=1;t<sumLabel.length;t++)
+				sumLabel[t] += sumLabel[t-1];
 		}
+		if(start == 0)
+			accumulateResponse(null, labels, 0, labels.length-1);
 	}
 	
 	public void construct(FeatureHistogram parent, int[] soi, double[] labels)
@@ -151,99 +157,271 @@ public class FeatureHistogram {
 		this.thresholds = parent.thresholds;
 		sumResponse = 0;
 		sqSumResponse = 0;
-		sum = new double[features.length][];
-		count = new int[features.length][];
-		sampleToThresholdMap = parent.sampleToThresholdMap;
+		pool = parent.pool;
+		pool.acquire(this);
+		shareThresholdMaps(parent);
 		
 		MyThreadPool p = MyThreadPool.getInstance();
-		if(p.size() == 1)
+		if(isSampleParallel(soi.length))
+			accumulate(soi, labels, soi.length);
+		else if(p.size() == 1 || p.isWorkerThread())
 			construct(parent, soi, labels, 0, features.length-1);
 		else
 			p.execute(new Worker(this, parent, soi, labels), features.length);	
 	}
 	protected void construct(FeatureHistogram parent, int[] soi, double[] labels, int start, int end)
 	{
-		//init
-		for(int i=start;i<=end;i++)
-		{			
-			float[] threshold = thresholds[i];
-			sum[i] = new double[threshold.length];
-			count[i] = new int[threshold.length];
-			Arrays.fill(sum[i], 0);
-			Arrays.fill(count[i], 0);
+		for(int f=start;f<=end;f++)
+		{
+			double[] sumLabel = sum[f];
+			int[] c = count[f];
+			Arrays.fill(sumLabel, 0);
+			Arrays.fill(c, 0);
+			accumulate(f, soi, labels, 0, soi.length-1, sumLabel, c);
+			for(int t=1;t<sumLabel.length;t++)
+			{
+				sumLabel[t] += sumLabel[t-1];
+				c[t] += c[t-1];
+			}
 		}
-		
-		//update
-		for(int i=0;i<soi.length;i++)
+		if(start == 0)
+			accumulateResponse(soi, labels, 0, soi.length-1);
+	}
+	
+	/**
+	 * Add the labels of samples soi[from..to] to the (non-cumulative) histogram of feature @f.
+	 * If @soi is null, samples [from..to] are used instead and only @sumLabel is updated (sample counts never change in {@link #update(double[])}).
+	 */
+	private void accumulate(int f, int[] soi, double[] labels, int from, int to, double[] sumLabel, int[] c)
+	{
+		byte[] stMap8 = sampleToThresholdMap8[f];
+		short[] stMap16 = sampleToThresholdMap16[f];
+		int[] stMap = sampleToThresholdMap[f];
+		if(soi == null)
 		{
-			int k = soi[i];
-			for(int f=start;f<=end;f++)
+			if(stMap8 != null)
 			{
-				int t = sampleToThresholdMap[f][k];
-				sum[f][t] += labels[k];
-				count[f][t] ++;
-				if(f == 0)
-				{
-					sumResponse += labels[k];
-					sqSumResponse += labels[k]*labels[k];
-				}
+				for(int k=from;k<=to;k++)
+					sumLabel[stMap8[k] & 0xFF] += labels[k];
+			}
+			else if(stMap16 != null)
+			{
+				for(int k=from;k<=to;k++)
+					sumLabel[stMap16[k] & 0xFFFF] += labels[k];
+			}
+			else
+			{
+				for(int k=from;k<=to;k++)
+					sumLabel[stMap[k]] += labels[k];
 			}
 		}
-		
+		else if(stMap8 != null)
+		{
+			for(int i=from;i<=to;i++)
+			{
+				int k = soi[i];
+				int t = stMap8[k] & 0xFF;
+				sumLabel[t] += labels[k];
+				c[t]++;
+			}
+		}
+		else if(stMap16 != null)
+		{
+			for(int i=from;i<=to;i++)
+			{
+				int k = soi[i];
+				int t = stMap16[k] & 0xFFFF;
+				sumLabel[t] += labels[k];
+				c[t]++;
+			}
+		}
+		else
+		{
+			for(int i=from;i<=to;i++)
+			{
+				int k = soi[i];
+				int t = stMap[k];
+				sumLabel[t] += labels[k];
+				c[t]++;
+			}
+		}
+	}
+	private void accumulateResponse(int[] soi, double[] labels, int from, int to)
+	{
+		for(int i=from;i<=to;i++)
+		{
+			int k = (soi == null) ? i : soi[i];
+			sumResponse += labels[k];
+			sqSumResponse += labels[k]*labels[k];
+		}
+	}
+	
+	/**
+	 * Splitting the features among the threads leaves some of them idle when there are fewer features than threads.
+	 * In that case, large nodes are processed by splitting their samples among the threads instead.
+	 * @param nSamples Number of samples of the node.
+	 */
+	protected boolean isSampleParallel(int nSamples)
+	{
+		MyThreadPool p = MyThreadPool.getInstance();
+		return sampleParallel && p.size() > 1 && !p.isWorkerThread() && features.length < p.size() && nSamples >= (long)p.size() * minSamplesPerThread;
+	}
+	/**
+	 * Sample-parallel version of {@link #update(double[], int, int)} and {@link #construct(FeatureHistogram, int[], double[], int, int)}:
+	 * each thread builds the histogram of a range of samples (for all features), then the partial histograms are added up
+	 * in the order of their sample range, so the result does not depend on thread scheduling.
+	 */
+	protected void accumulate(int[] soi, double[] labels, int nSamples)
+	{
+		MyThreadPool p = MyThreadPool.getInstance();
+		WorkerThread[] workers = p.execute(new Worker(this, soi, labels), nSamples);
+		FeatureHistogram[] partials = new FeatureHistogram[workers.length];
+		for(int i=0;i<workers.length;i++)
+		{
+			partials[i] = ((Worker)workers[i]).partial;
+			sumResponse += partials[i].sumResponse;
+			sqSumResponse += partials[i].sqSumResponse;
+		}
+		p.execute(new Worker(this, partials, soi != null), features.length);
+		for(int i=0;i<partials.length;i++)
+			pool.release(partials[i].sum, partials[i].count);
+	}
+	protected FeatureHistogram accumulate(int[] soi, double[] labels, int from, int to)
+	{
+		FeatureHistogram partial = new FeatureHistogram();
+		pool.acquire(partial);
+		for(int f=0;f<features.length;f++)
+		{
+			Arrays.fill(partial.sum[f], 0);
+			Arrays.fill(partial.count[f], 0);
+			accumulate(f, soi, labels, from, to, partial.sum[f], partial.count[f]);
+		}
+		partial.accumulateResponse(soi, labels, from, to);
+		return partial;
+	}
+	protected void reduce(FeatureHistogram[] partials, boolean withCount, int start, int end)
+	{
 		for(int f=start;f<=end;f++)
-		{			
-			for(int t=1;t<thresholds[f].length;t++)
+		{
+			double[] sumLabel = sum[f];
+			int[] c = count[f];
+			Arrays.fill(sumLabel, 0);
+			if(withCount)
+				Arrays.fill(c, 0);
+			for(int i=0;i<partials.length;i++)
 			{
-				sum[f][t] += sum[f][t-1];
-				count[f][t] += count[f][t-1];
+				double[] ps = partials[i].sum[f];
+				for(int t=0;t<sumLabel.length;t++)
+					sumLabel[t] += ps[t];
+				if(withCount)
+				{
+					int[] pc = partials[i].count[f];
+					for(int t=0;t<c.length;t++)
+						c[t] += pc[t];
+				}
 			}
+			for(int t=1;t<sumLabel.length;t++)
+				sumLabel[t] += sumLabel[t-1];
+			if(withCount)
+				for(int t=1;t<c.length;t++)
+					c[t] += c[t-1];
 		}
-	}	
+	}
 	
-	public void construct(FeatureHistogram parent, FeatureHistogram leftSibling, boolean reuseParent)
+	public void construct(FeatureHistogram parent, FeatureHistogram sibling, boolean reuseParent)
 	{
 		this.reuseParent = reuseParent;
 		this.features = parent.features;
 		this.thresholds = parent.thresholds;
-		sumResponse = parent.sumResponse - leftSibling.sumResponse;
-		sqSumResponse = parent.sqSumResponse - leftSibling.sqSumResponse;
+		sumResponse = parent.sumResponse - sibling.sumResponse;
+		sqSumResponse = parent.sqSumResponse - sibling.sqSumResponse;
 		
+		pool = parent.pool;
 		if(reuseParent)
 		{
 			sum = parent.sum;
 			count = parent.count;
 		}
 		else
-		{
-			sum = new double[features.length][];
-			count = new int[features.length][];
-		}
-		sampleToThresholdMap = parent.sampleToThresholdMap;
+			pool.acquire(this);
+		shareThresholdMaps(parent);
 		
 		MyThreadPool p = MyThreadPool.getInstance();
-		if(p.size() == 1)
-			construct(parent, leftSibling, 0, features.length-1);
+		if(p.size() == 1 || p.isWorkerThread())
+			construct(parent, sibling, 0, features.length-1);
 		else
-			p.execute(new Worker(this, parent, leftSibling), features.length);
+			p.execute(new Worker(this, parent, sibling), features.length);
 	}
-	protected void construct(FeatureHistogram parent, FeatureHistogram leftSibling, int start, int end)
+	protected void construct(FeatureHistogram parent, FeatureHistogram sibling, int start, int end)
 	{
 		for(int f=start;f<=end;f++)
 		{
-			float[] threshold = thresholds[f];
-			if(!reuseParent)
-			{
-				sum[f] = new double[threshold.length];
-				count[f] = new int[threshold.length];
-			}
-			for(int t=0;t<threshold.length;t++)
+			double[] sumLabel = sum[f];
+			int[] c = count[f];
+			double[] parentSum = parent.sum[f];
+			int[] parentCount = parent.count[f];
+			double[] siblingSum = sibling.sum[f];
+			int[] siblingCount = sibling.count[f];
+			for(int t=0;t<sumLabel.length;t++)
 			{
-				sum[f][t] = parent.sum[f][t] - leftSibling.sum[f][t];
-				count[f][t] = parent.count[f][t] - leftSibling.count[f][t];
+				sumLabel[t] = parentSum[t] - siblingSum[t];
+				c[t] = parentCount[t] - siblingCount[t];
 			}
 		}
 	}
 	
+	/**
+	 * Give @sum and @count back to the pool once this histogram is no longer needed. This has no effect on the root histogram.
+	 */
+	public void release()
+	{
+		if(pool != null && pool.root != this && sum != null)
+		{
+			pool.release(sum, count);
+			sum = null;
+			count = null;
+		}
+	}
+	
+	private void allocateThresholdMap(int f, int nSamples)
+	{
+		int nThresholds = thresholds[f].length;
+		if(packBins && nThresholds <= 256)
+			sampleToThresholdMap8[f] = new byte[nSamples];
+		else if(packBins && nThresholds <= 65536)
+			sampleToThresholdMap16[f] = new short[nSamples];
+		else
+			sampleToThresholdMap[f] = new int[nSamples];
+	}
+	private void setThreshold(int f, int k, int t)
+	{
+		if(sampleToThresholdMap8[f] != null)
+			sampleToThresholdMap8[f][k] = (byte)t;
+		else if(sampleToThresholdMap16[f] != null)
+			sampleToThresholdMap16[f][k] = (short)t;
+		else
+			sampleToThresholdMap[f][k] = t;
+	}
+	/**
+	 * @param f Index of the feature in @features.
+	 * @param k Index of the sample.
+	 * @return Index of the threshold (bin) of feature @f the sample falls into.
+	 */
+	public int getThreshold(int f, int k)
+	{
+		if(sampleToThresholdMap8[f] != null)
+			return sampleToThresholdMap8[f][k] & 0xFF;
+		if(sampleToThresholdMap16[f] != null)
+			return sampleToThresholdMap16[f][k] & 0xFFFF;
+		return sampleToThresholdMap[f][k];
+	}
+	private void shareThresholdMaps(FeatureHistogram parent)
+	{
+		sampleToThresholdMap = parent.sampleToThresholdMap;
+		sampleToThresholdMap8 = parent.sampleToThresholdMap8;
+		sampleToThresholdMap16 = parent.sampleToThresholdMap16;
+	}
+	
 	protected Config findBestSplit(int[] usedFeatures, int minLeafSupport, int start, int end)
 	{
 		Config cfg = new Config();
@@ -307,7 +485,7 @@ public class FeatureHistogram {
 		//find the best split
 		Config best = new Config();
 		MyThreadPool p = MyThreadPool.getInstance();
-		if(p.size() == 1)
+		if(p.size() == 1 || p.isWorkerThread())
 			best = findBestSplit(usedFeatures, minLeafSupport, 0, usedFeatures.length-1);
 		else
 		{
@@ -347,16 +525,25 @@ public class FeatureHistogram {
 		for(int j=0;j<idx.length;j++)
 		{
 			k = idx[j];
-			if(sampleToThresholdMap[best.featureIdx][k] <= best.thresholdIdx)//go to the left
+			if(getThreshold(best.featureIdx, k) <= best.thresholdIdx)//go to the left
 				left[l++] = k;
 			else//go to the right
 				right[r++] = k;
 		}
 		
+		//only scan the samples of the smaller child. The histogram of the other one is the difference between the parent's and its sibling's.
 		FeatureHistogram lh = new FeatureHistogram();
-		lh.construct(sp.hist, left, labels);
 		FeatureHistogram rh = new FeatureHistogram();
-		rh.construct(sp.hist, lh, !sp.isRoot());
+		if(left.length <= right.length)
+		{
+			lh.construct(sp.hist, left, labels);
+			rh.construct(sp.hist, lh, !sp.isRoot());
+		}
+		else
+		{
+			rh.construct(sp.hist, right, labels);
+			lh.construct(sp.hist, rh, !sp.isRoot());
+		}
 
 		double var = sqSumResponse - sumResponse * sumResponse / idx.length;
 		double varLeft = lh.sqSumResponse - lh.sumResponse * lh.sumResponse / left.length;
@@ -371,6 +558,43 @@ public class FeatureHistogram {
 		return true;
 	}	
 
+	/**
+	 * Free list of histogram arrays (@sum and @count) that all have the same shape as the root's.
+	 */
+	static class HistogramPool {
+		private FeatureHistogram root = null;
+		private float[][] thresholds = null;
+		private List<double[][]> sums = new ArrayList<double[][]>();
+		private List<int[][]> counts = new ArrayList<int[][]>();
+		
+		HistogramPool(FeatureHistogram root)
+		{
+			this.root = root;
+			this.thresholds = root.thresholds;
+		}
+		synchronized void acquire(FeatureHistogram fh)
+		{
+			if(sums.size() > 0)
+			{
+				fh.sum = sums.remove(sums.size()-1);
+				fh.count = counts.remove(counts.size()-1);
+				return;
+			}
+			fh.sum = new double[thresholds.length][];
+			fh.count = new int[thresholds.length][];
+			for(int f=0;f<thresholds.length;f++)
+			{
+				fh.sum[f] = new double[thresholds[f].length];
+				fh.count[f] = new int[thresholds[f].length];
+			}
+		}
+		synchronized void release(double[][] sum, int[][] count)
+		{
+			sums.add(sum);
+			counts.add(count);
+		}
+	}
+
 	class Worker extends WorkerThread {
 		FeatureHistogram fh = null;
 		int type = -1;
@@ -388,13 +612,20 @@ public class FeatureHistogram {
 		int[] soi = null;
 		
 		//construct (type = 3)
-		FeatureHistogram leftSibling = null;
+		FeatureHistogram sibling = null;
 		
 		//construct (type = 4)
-		DataPoint[] samples;
+		FeatureMatrix samples;
 		int[][] sampleSortedIdx;
 		float[][] thresholds;
 		
+		//sample-parallel accumulation (type = 5)
+		FeatureHistogram partial = null;
+		
+		//sample-parallel reduction (type = 6)
+		FeatureHistogram[] partials = null;
+		boolean withCount = false;
+		
 		public Worker()
 		{
 		}
@@ -419,14 +650,14 @@ public class FeatureHistogram {
 			this.soi = soi;
 			this.labels = labels;
 		}
-		public Worker(FeatureHistogram fh, FeatureHistogram parent, FeatureHistogram leftSibling)
+		public Worker(FeatureHistogram fh, FeatureHistogram parent, FeatureHistogram sibling)
 		{
 			type = 3;
 			this.fh = fh;
 			this.parent = parent;
-			this.leftSibling = leftSibling;
+			this.sibling = sibling;
 		}
-		public Worker(FeatureHistogram fh, DataPoint[] samples, double[] labels, int[][] sampleSortedIdx, float[][] thresholds)
+		public Worker(FeatureHistogram fh, FeatureMatrix samples, double[] labels, int[][] sampleSortedIdx, float[][] thresholds)
 		{
 			type = 4;
 			this.fh = fh;
@@ -435,6 +666,20 @@ public class FeatureHistogram {
 			this.sampleSortedIdx = sampleSortedIdx;
 			this.thresholds = thresholds;			
 		}
+		public Worker(FeatureHistogram fh, int[] soi, double[] labels)
+		{
+			type = 5;
+			this.fh = fh;
+			this.soi = soi;
+			this.labels = labels;
+		}
+		public Worker(FeatureHistogram fh, FeatureHistogram[] partials, boolean withCount)
+		{
+			type = 6;
+			this.fh = fh;
+			this.partials = partials;
+			this.withCount = withCount;
+		}
 		public void run()
 		{
 			if(type == 0)
@@ -444,9 +689,13 @@ public class FeatureHistogram {
 			else if(type == 2)
 				fh.construct(parent, soi, labels, start, end);
 			else if(type == 3)
-				fh.construct(parent, leftSibling, start, end);
+				fh.construct(parent, sibling, start, end);
 			else if(type == 4)
 				fh.construct(samples, labels, sampleSortedIdx, thresholds, start, end);
+			else if(type == 5)
+				partial = fh.accumulate(soi, labels, start, end);
+			else if(type == 6)
+				fh.reduce(partials, withCount, start, end);
 		}		
 		public WorkerThread clone()
 		{
@@ -467,13 +716,17 @@ public class FeatureHistogram {
 			wk.soi = soi;
 			
 			//construct (type = 3)
-			wk.leftSibling = leftSibling;
+			wk.sibling = sibling;
 			
 			//construct (type = 1)
 			wk.samples = samples;
 			wk.sampleSortedIdx = sampleSortedIdx;
 			wk.thresholds = thresholds;			
 			
+			//sample-parallel accumulation/reduction (type = 5, 6)
+			wk.partials = partials;
+			wk.withCount = withCount;
+			
 			return wk;
 		}
 	}
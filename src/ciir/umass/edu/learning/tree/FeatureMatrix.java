@@ -0,0 +1,91 @@
+/*===============================================================================
+ * Copyright (c) 2010-2016 University of Massachusetts.  All Rights Reserved.
+ *
+ * Use of the RankLib package is subject to the terms of the software license set
+ * forth in the LICENSE file included with this software, and also available at
+ * http://people.cs.umass.edu/~vdang/ranklib_license.html
+ *===============================================================================
+ */
+
+package ciir.umass.edu.learning.tree;
+
+import ciir.umass.edu.learning.DataPoint;
+import ciir.umass.edu.utilities.MyThreadPool;
+import ciir.umass.edu.utilities.WorkerThread;
+
+/**
+ * Column-major copy of the training samples used by the tree learners: one float[] per feature across all samples.
+ * Unknown feature values are stored as 0 (same as {@link DataPoint#getFeatureValue(int)}).
+ */
+public class FeatureMatrix {
+	private int[] features = null;
+	private float[][] columns = null;//columns[i][k]: value of feature features[i] on sample k
+	private int nSamples = 0;
+
+	public FeatureMatrix(DataPoint[] samples, int[] features)
+	{
+		this.features = features;
+		nSamples = samples.length;
+		columns = new float[features.length][samples.length];
+
+		MyThreadPool p = MyThreadPool.getInstance();
+		if(p.size() == 1 || samples.length == 0)
+			fill(samples, 0, samples.length-1);
+		else
+			p.execute(new Worker(this, samples), samples.length);
+	}
+
+	protected void fill(DataPoint[] samples, int start, int end)
+	{
+		for(int k=start;k<=end;k++)
+		{
+			DataPoint dp = samples[k];
+			for(int i=0;i<features.length;i++)
+				columns[i][k] = dp.getFeatureValue(features[i]);
+		}
+	}
+
+	public int[] getFeatures()
+	{
+		return features;
+	}
+	public int getFeatureCount()
+	{
+		return features.length;
+	}
+	public int getSampleCount()
+	{
+		return nSamples;
+	}
+	/**
+	 * @param i Index of the feature in {@link #getFeatures()} (not the feature id).
+	 * @return Values of this feature on all samples. The array is shared, so do not modify it.
+	 */
+	public float[] getColumn(int i)
+	{
+		return columns[i];
+	}
+	public float get(int i, int k)
+	{
+		return columns[i][k];
+	}
+
+	class Worker extends WorkerThread {
+		FeatureMatrix fm = null;
+		DataPoint[] samples = null;
+
+		Worker(FeatureMatrix fm, DataPoint[] samples)
+		{
+			this.fm = fm;
+			this.samples = samples;
+		}
+		public void run()
+		{
+			fm.fill(samples, start, end);
+		}
+		public WorkerThread clone()
+		{
+			return new Worker(fm, samples);
+		}
+	}
+}
@@ -13,6 +13,7 @@ import ciir.umass.edu.learning.DataPoint;
 import ciir.umass.edu.learning.RankList;
 import ciir.umass.edu.learning.Ranker;
 import ciir.umass.edu.metric.MetricScorer;
+import ciir.umass.edu.metric.SwapChangeListener;
 import ciir.umass.edu.utilities.MergeSorter;
 import ciir.umass.edu.utilities.MyThreadPool;
 import ciir.umass.edu.utilities.RankLibError;
@@ -53,10 +54,13 @@ public class LambdaMART extends Ranker {
 
 	//Training instances prepared for MART
 	protected DataPoint[] martSamples = null;//Need initializing only once
+	protected FeatureMatrix featureMatrix = null;//feature values of @martSamples, stored by feature -- Only needed during init()
 	protected int[][] sortedIdx = null;//sorted list of samples in @martSamples by each feature -- Need initializing only once
 	protected FeatureHistogram hist = null;
 	protected double[] pseudoResponses = null;//different for each iteration
 	protected double[] weights = null;//different for each iteration
+	protected RankList[] rankedSamples = null;//@samples re-ordered by model scores, refilled in each iteration
+	protected List<LambdaComputationWorker> lambdaWorkers = null;//each of them owns the buffers needed to compute lambdas for its share of @samples
 
 	public LambdaMART()
 	{
@@ -95,6 +99,12 @@ public class LambdaMART extends Ranker {
 			current += rl.size();
 		}
 
+		//precompute the per-query data of the scorer (e.g. ideal DCG) shared by all lambda workers
+		scorer.bind(samples);
+
+		//copy the feature values into a column-major matrix so that the tree learner doesn't need to go through the DataPoint objects
+		featureMatrix = new FeatureMatrix(martSamples, features);
+
 		//sort (MART) samples by each feature so that we can quickly retrieve a sorted list of samples by any feature later on.
 		sortedIdx = new int[features.length][];
 		MyThreadPool p = MyThreadPool.getInstance();
@@ -112,14 +122,16 @@ public class LambdaMART extends Ranker {
 		thresholds = new float[features.length][];
 		for(int f=0;f<features.length;f++)
 		{
+			float[] column = featureMatrix.getColumn(f);
+			int[] sorted = sortedIdx[f];
 			//For this feature, keep track of the list of unique values and the max/min
 			List<Float> values = new ArrayList<Float>();
 			float fmax = Float.NEGATIVE_INFINITY;
 			float fmin = Float.MAX_VALUE;
 			for(int i=0;i<martSamples.length;i++)
 			{
-				int k = sortedIdx[f][i];//get samples sorted with respect to this feature
-				float fv = martSamples[k].getFeatureValue(features[f]);
+				int k = sorted[i];//get samples sorted with respect to this feature
+				float fv = column[k];
 				values.add(fv);
 				if(fmax < fv)
 					fmax = fv;
@@ -129,7 +141,7 @@ public class LambdaMART extends Ranker {
 				int j=i+1;
 				while(j < martSamples.length)
 				{
-					if(martSamples[sortedIdx[f][j]].getFeatureValue(features[f]) > fv)
+					if(column[sorted[j]] > fv)
 						break;
 					j++;
 				}
@@ -166,9 +178,10 @@ public class LambdaMART extends Ranker {
 
 		//compute the feature histogram (this is used to speed up the procedure of finding the best tree split later on)
 		hist = new FeatureHistogram();
-		hist.construct(martSamples, pseudoResponses, sortedIdx, features, thresholds);
-		//we no longer need the sorted indexes of samples
+		hist.construct(featureMatrix, pseudoResponses, sortedIdx, thresholds);
+		//we no longer need the sorted indexes of samples, nor their feature values
 		sortedIdx = null;
+		featureMatrix = null;
 
 		System.gc();
 		PRINTLN("[Done]");
@@ -268,13 +281,13 @@ public class LambdaMART extends Ranker {
 			ensemble.remove(ensemble.treeCount()-1);
 
 		//Finishing up
-		scoreOnTrainingData = scorer.score(rank(samples));
+		scoreOnTrainingData = scorer.score(rank(samples, scorer.getRankingDepth()));
 		PRINTLN("---------------------------------");
 		PRINTLN("Finished sucessfully.");
 		PRINTLN(scorer.name() + " on training data: " + SimpleMath.round(scoreOnTrainingData, 4));
 		if(validationSamples != null)
 		{
-			bestScoreOnValidationData = scorer.score(rank(validationSamples));
+			bestScoreOnValidationData = scorer.score(rank(validationSamples, scorer.getRankingDepth()));
 			PRINTLN(scorer.name() + " on validation data: " + SimpleMath.round(bestScoreOnValidationData, 4));
 		}
 		PRINTLN("---------------------------------");
@@ -362,71 +375,93 @@ public class LambdaMART extends Ranker {
 	{
 		Arrays.fill(pseudoResponses, 0F);
 		Arrays.fill(weights, 0);
-		MyThreadPool p = MyThreadPool.getInstance();
-		if(p.size() == 1)//single-thread
-			computePseudoResponses(0, samples.size()-1, 0);
+		if(lambdaWorkers == null)
+			initLambdaWorkers();
+		if(lambdaWorkers.size() == 1)//single-thread
+			lambdaWorkers.get(0).run();
 		else //multi-threading
 		{
-			List<LambdaComputationWorker> workers = new ArrayList<LambdaMART.LambdaComputationWorker>();
+			MyThreadPool p = MyThreadPool.getInstance();
+			for(int i=0;i<lambdaWorkers.size();i++)
+				p.execute(lambdaWorkers.get(i));
+			//wait for all workers to complete before we move on to the next stage
+			p.await();
+		}
+	}
+
+	protected void initLambdaWorkers()
+	{
+		rankedSamples = new RankList[samples.size()];
+		for(int i=0;i<samples.size();i++)
+			rankedSamples[i] = new RankList(samples.get(i));
+
+		lambdaWorkers = new ArrayList<LambdaMART.LambdaComputationWorker>();
+		MyThreadPool p = MyThreadPool.getInstance();
+		if(p.size() == 1)
+			lambdaWorkers.add(new LambdaComputationWorker(this, 0, samples.size()-1, 0));
+		else
+		{
 			//divide the entire dataset into chunks of equal size for each worker thread
 			int[] partition = p.partition(samples.size());
 			int current = 0;
 			for(int i=0;i<partition.length-1;i++)
 			{
-				//execute the worker
-				LambdaComputationWorker wk = new LambdaComputationWorker(this, partition[i], partition[i+1]-1, current);
-				workers.add(wk);//keep it so we can get back results from it later on
-				p.execute(wk);
-
-				if(i < partition.length-2)
-					for(int j=partition[i]; j<=partition[i+1]-1;j++)
-						current += samples.get(j).size();
+				lambdaWorkers.add(new LambdaComputationWorker(this, partition[i], partition[i+1]-1, current));
+				for(int j=partition[i]; j<=partition[i+1]-1;j++)
+					current += samples.get(j).size();
 			}
-
-			//wait for all workers to complete before we move on to the next stage
-			p.await();
 		}
 	}
 
-	protected void computePseudoResponses(int start, int end, int current)
+	/**
+	 * Compute the lambdas of ranked lists [start, end], whose first document is @current in @martSamples, using the buffers of @wk.
+	 */
+	protected void computePseudoResponses(int start, int end, int current, LambdaComputationWorker wk)
 	{
 		int cutoff = scorer.getK();
 		//compute the lambda for each document (a.k.a "pseudo response")
 		for(int i=start;i<=end;i++)
 		{
 			RankList orig = samples.get(i);
-			int[] idx = MergeSorter.sort(modelScores, current, current+orig.size()-1, false);
-			RankList rl = new RankList(orig, idx, current);
-			double[][] changes = scorer.swapChange(rl);
-			//NOTE: j, k are indices in the sorted (by modelScore) list, not the original
-			// ==> need to map back with idx[j] and idx[k]
-			for(int j=0;j<rl.size();j++)
+			int n = orig.size();
+			//scorers that look at the predictions themselves (e.g. correlations) read them from the cache
+			for(int j=0;j<n;j++)
+				orig.get(j).setCached(modelScores[current+j]);
+			MergeSorter.sort(modelScores, current, current+n-1, false, wk.idx, wk.tmp, wk.ph);
+			RankList rl = rankedSamples[i];
+			for(int j=0;j<n;j++)
+				rl.set(j, orig.get(wk.idx[j]-current));
+			wk.rl = rl;
+			//swaping pairs below the cut-off point won't result in any change in target measures, so they are not even reported
+			scorer.swapChange(rl, cutoff+1, wk);
+			current += n;
+		}
+	}
+	/**
+	 * Add the lambdas of the documents at positions @j and @k of @rl given the change in the target measure when swapping them.
+	 * NOTE: j, k are indices in the sorted (by modelScore) list, not the original ==> need to map back with idx[j] and idx[k]
+	 */
+	protected void computePseudoResponses(RankList rl, int[] idx, int j, int k, double change)
+	{
+		double deltaNDCG = Math.abs(change);
+		if(deltaNDCG > 0)
+		{
+			int mj = idx[j];
+			int mk = idx[k];
+			if(rl.get(j).getLabel() < rl.get(k).getLabel())
 			{
-				DataPoint p1 = rl.get(j);
-				int mj = idx[j];
-				for(int k=0;k<rl.size();k++)
-				{
-					if(j > cutoff && k > cutoff)//swaping these pair won't result in any change in target measures since they're below the cut-off point
-						break;
-					DataPoint p2 = rl.get(k);
-					int mk = idx[k];
-					if(p1.getLabel() > p2.getLabel())
-					{
-						double deltaNDCG = Math.abs(changes[j][k]);
-						if(deltaNDCG > 0)
-						{
-							double rho = 1.0 / (1 + Math.exp(modelScores[mj] - modelScores[mk]));
-							double lambda = rho * deltaNDCG;
-							pseudoResponses[mj] += lambda;
-							pseudoResponses[mk] -= lambda;
-							double delta = rho * (1.0 - rho) * deltaNDCG;
-							weights[mj] += delta;
-							weights[mk] += delta;
-						}
-					}
-				}
+				mj = idx[k];
+				mk = idx[j];
 			}
-			current += orig.size();
+			else if(!(rl.get(j).getLabel() > rl.get(k).getLabel()))
+				return;
+			double rho = 1.0 / (1 + Math.exp(modelScores[mj] - modelScores[mk]));
+			double lambda = rho * deltaNDCG;
+			pseudoResponses[mj] += lambda;
+			pseudoResponses[mk] -= lambda;
+			double delta = rho * (1.0 - rho) * deltaNDCG;
+			weights[mj] += delta;
+			weights[mk] += delta;
 		}
 	}
 
@@ -475,7 +510,7 @@ public class LambdaMART extends Ranker {
 			scores[i] = modelScores[current+i];
 			orig.get(i).setCached(scores[i]);
 		}
-		int[] idx = MergeSorter.sort(scores, false);
+		int[] idx = MergeSorter.sortTop(scores, 0, scores.length-1, scorer.getRankingDepth());
 		return new RankList(orig, idx);
 	}
 
@@ -557,8 +592,11 @@ public class LambdaMART extends Ranker {
 		float score = 0;
 		for(int i=start;i<=end;i++)
 		{
-			int[] idx = MergeSorter.sort(modelScoresOnValidation[i], false);
-			score += scorer.score(new RankList(validationSamples.get(i), idx));
+			RankList rl = validationSamples.get(i);
+			for(int j=0;j<rl.size();j++)
+				rl.get(j).setCached(modelScoresOnValidation[i][j]);
+			int[] idx = MergeSorter.sortTop(modelScoresOnValidation[i], 0, rl.size()-1, scorer.getRankingDepth());
+			score += scorer.score(new RankList(rl, idx));
 		}
 		return score;
 	}
@@ -566,7 +604,7 @@ public class LambdaMART extends Ranker {
 	protected void sortSamplesByFeature(int fStart, int fEnd)
 	{
 		for(int i=fStart;i<=fEnd; i++)
-			sortedIdx[i] = sortSamplesByFeature(martSamples, features[i]);
+			sortedIdx[i] = MergeSorter.sort(featureMatrix.getColumn(i), true);
 	}
 
 	//For multi-threading processing
@@ -588,23 +626,39 @@ public class LambdaMART extends Ranker {
 		}
 	}
 
-	class LambdaComputationWorker implements Runnable {
+	class LambdaComputationWorker implements Runnable, SwapChangeListener {
 		LambdaMART ranker = null;
 		int rlStart = -1;
 		int rlEnd = -1;
 		int martStart = -1;
 
+		//buffers re-used across iterations, sized for the largest ranked list of this worker
+		int[] idx = null;
+		int[] tmp = null;
+		int[] ph = null;
+		RankList rl = null;//the ranked list whose swap changes are being reported
+
 		LambdaComputationWorker(LambdaMART ranker, int rlStart, int rlEnd, int martStart)
 		{
 			this.ranker = ranker;
 			this.rlStart = rlStart;
 			this.rlEnd = rlEnd;
 			this.martStart = martStart;
+			int maxSize = 0;
+			for(int i=rlStart;i<=rlEnd;i++)
+				maxSize = Math.max(maxSize, ranker.samples.get(i).size());
+			idx = new int[maxSize];
+			tmp = new int[maxSize];
+			ph = new int[maxSize/2+3];
 		}
 
 		public void run()
 		{
-			ranker.computePseudoResponses(rlStart, rlEnd, martStart);
+			ranker.computePseudoResponses(rlStart, rlEnd, martStart, this);
+		}
+		public void swapChange(int i, int j, double change)
+		{
+			ranker.computePseudoResponses(rl, idx, i, j, change);
 		}
 	}
 
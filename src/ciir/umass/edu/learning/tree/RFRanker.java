@@ -91,13 +91,13 @@ public class RFRanker extends Ranker {
 			ensembles[i] = r.getEnsemble();
 		}
 		//Finishing up
-		scoreOnTrainingData = scorer.score(rank(samples));
+		scoreOnTrainingData = scorer.score(rank(samples, scorer.getRankingDepth()));
 		PRINTLN("------------------------------------");
 		PRINTLN("Finished sucessfully.");
 		PRINTLN(scorer.name() + " on training data: " + SimpleMath.round(scoreOnTrainingData, 4));
 		if(validationSamples != null)
 		{
-			bestScoreOnValidationData = scorer.score(rank(validationSamples));
+			bestScoreOnValidationData = scorer.score(rank(validationSamples, scorer.getRankingDepth()));
 			PRINTLN(scorer.name() + " on validation data: " + SimpleMath.round(bestScoreOnValidationData, 4));
 		}
 		PRINTLN("------------------------------------");
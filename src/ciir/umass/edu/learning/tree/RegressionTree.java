@@ -11,14 +11,21 @@ package ciir.umass.edu.learning.tree;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.PriorityQueue;
 
 import ciir.umass.edu.learning.DataPoint;
+import ciir.umass.edu.utilities.MyThreadPool;
 
 /**
  * @author vdang
  */
 public class RegressionTree {
 
+	//Whether to split up to one leaf per thread at a time (instead of one leaf at a time, each of them using all threads).
+	//This gives each thread more work between two synchronization points when trees have many leaves, but the tree grown can be different
+	//since leaves are no longer always split in the order of their deviance.
+	public static boolean parallelExpansion = false;
+
 	//Parameters
 	protected int nodes = 10;//-1 for unlimited number of nodes (the size of the tree will then be controlled *ONLY* by minLeafSupport)
 	protected int minLeafSupport = 1;
@@ -56,37 +63,69 @@ public class RegressionTree {
 	 */
 	public void fit()
 	{
-		List<Split> queue = new ArrayList<Split>();
+		PriorityQueue<Candidate> queue = new PriorityQueue<Candidate>();
+		int order = 0;
 		root = new Split(index, hist, Float.MAX_VALUE, 0);
 		root.setRoot(true);
 
 		// Ensure inserts occur only after successful splits
 		if(root.split(trainingLabels, minLeafSupport)) {
-	              insert(queue, root.getLeft());
-		      insert(queue, root.getRight());
+			queue.add(new Candidate(root.getLeft(), order++));
+			queue.add(new Candidate(root.getRight(), order++));
 		}
 
+		MyThreadPool p = MyThreadPool.getInstance();
+		boolean parallel = parallelExpansion && p.size() > 1 && !p.isWorkerThread();
 		int taken = 0;
 		while( (nodes == -1 || taken + queue.size() < nodes) && queue.size() > 0)
 		{
-			Split leaf = queue.get(0);
-			queue.remove(0);
+			//each successful split adds one leaf to the tree, so we can split as many leaves at once as we have leaves left
+			int batch = 1;
+			if(parallel)
+				batch = (nodes == -1) ? p.size() : Math.min(p.size(), nodes - taken - queue.size());
+			List<Split> ls = new ArrayList<Split>();
+			while(ls.size() < batch && queue.size() > 0)
+			{
+				Split leaf = queue.poll().split;
+				if(leaf.getSamples().length < 2 * minLeafSupport)
+					taken++;
+				else
+					ls.add(leaf);
+			}
 
-			if(leaf.getSamples().length < 2 * minLeafSupport)
+			boolean[] success = new boolean[ls.size()];
+			if(ls.size() == 1)
+				success[0] = ls.get(0).split(trainingLabels, minLeafSupport);
+			else if(ls.size() > 1)
 			{
-				taken++;
-				continue;
+				SplitWorker[] workers = new SplitWorker[ls.size()];
+				for(int i=0;i<ls.size();i++)
+				{
+					workers[i] = new SplitWorker(ls.get(i));
+					p.execute(workers[i]);
+				}
+				p.await();
+				for(int i=0;i<ls.size();i++)
+					success[i] = workers[i].success;
 			}
 
-			if(!leaf.split(trainingLabels, minLeafSupport))//unsplitable (i.e. variance(s)==0; or after-split variance is higher than before)
-				taken++;
-			else
+			for(int i=0;i<ls.size();i++)
 			{
-				insert(queue, leaf.getLeft());
-				insert(queue, leaf.getRight());
+				if(!success[i])//unsplitable (i.e. variance(s)==0; or after-split variance is higher than before)
+					taken++;
+				else
+				{
+					queue.add(new Candidate(ls.get(i).getLeft(), order++));
+					queue.add(new Candidate(ls.get(i).getRight(), order++));
+				}
 			}
 		}
 		leaves = root.leaves();
+
+		//the histograms of the leaves are no longer needed, hand their arrays back for the next tree
+		for(int i=0;i<leaves.size();i++)
+			if(leaves.get(i).hist != null)
+				leaves.get(i).hist.release();
 	}
 
 	/**
@@ -145,17 +184,39 @@ public class RegressionTree {
 		return var;
 	}
 
-	protected void insert(List<Split> ls, Split s)
-	{
-		int i=0;
-		while(i < ls.size())
+	/**
+	 * Leaf of the tree being grown. Leaves are split in decreasing order of deviance, and the most recently created leaf first in case of ties.
+	 */
+	static class Candidate implements Comparable<Candidate> {
+		Split split = null;
+		int order = 0;
+
+		Candidate(Split split, int order)
 		{
-			if(ls.get(i).getDeviance() > s.getDeviance())
-				i++;
-			else
-				break;
+			this.split = split;
+			this.order = order;
+		}
+		public int compareTo(Candidate o)
+		{
+			if(split.getDeviance() > o.split.getDeviance())
+				return -1;
+			if(split.getDeviance() < o.split.getDeviance())
+				return 1;
+			return o.order - order;
 		}
-		ls.add(i, s);
 	}
 
+	class SplitWorker implements Runnable {
+		Split leaf = null;
+		boolean success = false;
+
+		SplitWorker(Split leaf)
+		{
+			this.leaf = leaf;
+		}
+		public void run()
+		{
+			success = leaf.split(trainingLabels, minLeafSupport);
+		}
+	}
 }
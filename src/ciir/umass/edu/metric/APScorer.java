@@ -16,7 +16,6 @@ import java.io.BufferedReader;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.util.Arrays;
 import java.util.HashMap;
 
 /**
@@ -101,6 +100,16 @@ public class APScorer extends MetricScorer {
 		return "MAP";
 	}
 	public double[][] swapChange(RankList rl)
+	{
+		double[][] changes = new double[rl.size()][rl.size()];
+		swapChange(rl, changes);
+		return changes;
+	}
+	public void swapChange(RankList rl, double[][] changes)
+	{
+		fillSwapChanges(rl, changes);
+	}
+	public void swapChange(RankList rl, int limit, SwapChangeListener listener)
 	{
 		//NOTE: Compute swap-change *IGNORING* K (consider the entire ranked list)
 		int[] relCount = new int[rl.size()];
@@ -127,17 +136,10 @@ public class APScorer extends MetricScorer {
 		else
 			rdCount = count;
 
-		double[][] changes = new double[rl.size()][];
-		for(int i=0;i<rl.size();i++)
-		{
-			changes[i] = new double[rl.size()];
-			Arrays.fill(changes[i], 0);
-		}
-		
 		if(rdCount == 0 || count == 0)
-			return changes;//all "0"
+			return;//all "0"
 		
-		for(int i=0;i<rl.size()-1;i++)
+		for(int i=0;i<Math.min(rl.size()-1, limit);i++)
 		{
 			for(int j=i+1;j<rl.size();j++)
 			{
@@ -152,9 +154,8 @@ public class APScorer extends MetricScorer {
 					change += ((double)(-relCount[j]*diff)) / (j+1);
 					//It is equivalent to:  change += ((double)(relCount[j]*labels[i] - relCount[j]*labels[j])) / (j+1);
 				}
-				changes[j][i] = changes[i][j] = change/rdCount;				
+				listener.swapChange(i, j, change/rdCount);
 			}
 		}
-		return changes;
 	}
 }
@@ -60,6 +60,10 @@ public class BestAtKScorer extends MetricScorer {
 		}
 		return max_i;
 	}
+	public int getRankingDepth()
+	{
+		return k;
+	}
 	public String name()
 	{
 		return "Best@"+k;
@@ -29,59 +29,108 @@ public abstract class CORRScorer extends MetricScorer {
 		this.k = 0;
 	}
 
+	//reusable buffers of score(RankList), one set per thread
+	protected ThreadLocal<CorrelationAccumulator> accumulator = new ThreadLocal<CorrelationAccumulator>() {
+		protected CorrelationAccumulator initialValue()
+		{
+			return newAccumulator();
+		}
+	};
+	//same for swapChange(), kept apart so that a listener can score lists
+	protected ThreadLocal<CorrelationAccumulator> swapAccumulator = new ThreadLocal<CorrelationAccumulator>() {
+		protected CorrelationAccumulator initialValue()
+		{
+			return newAccumulator();
+		}
+	};
+
     /**
-     * The scoring calculation to use
+     * The scoring calculation to use (commons-math). This is the reference for the accumulator.
      */
     public abstract double scorer(double[] known, double[] pred);
 
+    /**
+     * @return A new accumulator computing this correlation, which is 0 if all labels are the same.
+     */
+    public abstract CorrelationAccumulator newAccumulator();
+
 	/**
 	 * Compute correlation of a single list
 	 */
 	public double score(RankList rl)
 	{
-        double[] known = new double[rl.size()];
-        double[] pred = new double[rl.size()];
-
-        double first_label = rl.get(0).getLabel();
-        boolean all_same = true;
-
-		for(int i = 0; i < rl.size(); i++)
-		{
-            known[i] = rl.get(i).getLabel();
-            if (first_label != known[i])
-                all_same = false;
-
-            pred[i] = rl.get(i).getCached();
-		}
-
-        if (all_same)
-            return 0;
-
-        return scorer(known, pred);
+		CorrelationAccumulator acc = accumulator.get();
+		acc.reset();
+		acc.add(rl);
+		return acc.score();
 	}
 
 	public double[][] swapChange(RankList rl)
 	{
 		double[][] changes = new double[rl.size()][rl.size()];
-
-        // check if the list has all of the same labels
-        double first_label = rl.get(0).getLabel();
-        boolean all_same = true;
-		for(int i = 1; i < rl.size(); i++)
-            if (first_label != rl.get(i).getLabel())
-                all_same = false;
-        if (all_same)
-            return changes;
-
-        double init_corr = score(rl);
-        // Calculate changes upon swaps
-		for(int i = 0; i < rl.size() - 1; i++)
-			for(int j = i + 1; j < rl.size(); j++) {
-                rl.swap(i, j); // do swap
-		        changes[j][i] = changes[i][j] = score(rl)/init_corr;
-                rl.swap(i, j); // swap back
-            }
-
+		fillSwapChanges(rl, changes);
 		return changes;
-    }
+	}
+	public void swapChange(RankList rl, double[][] changes)
+	{
+		fillSwapChanges(rl, changes);
+	}
+	/**
+	 * Change in the correlation when the documents at positions i and j exchange their predictions (i.e. their place in the ranking).
+	 * Only the two cross products x[i]*y[i] and x[j]*y[j] change, so with the variances computed once, each pair is O(1):
+	 * delta = -(x[i] - x[j]) * (y[i] - y[j]) / sqrt(sum((x - mean(x))^2) * sum((y - mean(y))^2))
+	 * This holds for Spearman's rho too since exchanging two predictions exchanges their ranks.
+	 */
+	public void swapChange(RankList rl, int limit, SwapChangeListener listener)
+	{
+		CorrelationAccumulator acc = swapAccumulator.get();
+		acc.reset();
+		acc.add(rl);
+		int n = acc.size();
+		//values the correlation is computed from (e.g. ranks for Spearman's rho), in buffers of the accumulator
+		double[] known = acc.labelValues();
+		double[] pred = acc.predictionValues();
+
+		double mk = 0;
+		double mp = 0;
+		for(int i = 0; i < n; i++)
+		{
+			mk += known[i];
+			mp += pred[i];
+		}
+		mk /= n;
+		mp /= n;
+		double vk = 0;
+		double vp = 0;
+		for(int i = 0; i < n; i++)
+		{
+			vk += (known[i] - mk) * (known[i] - mk);
+			vp += (pred[i] - mp) * (pred[i] - mp);
+		}
+		// the correlation is not defined if the labels are all the same
+		if (!(vk > 0))
+			return;
+		if (!(vp > 0))
+		{
+			// all predictions are the same (e.g. before the first tree of LambdaMART): use the ranking itself as the prediction,
+			// otherwise there would never be any change to learn from
+			mp = (n - 1) / 2.0;
+			vp = 0;
+			for(int i = 0; i < n; i++)
+			{
+				pred[i] = n - 1 - i;
+				vp += (pred[i] - mp) * (pred[i] - mp);
+			}
+		}
+
+		double norm = Math.sqrt(vk * vp);
+		int end = Math.min(limit, n - 1);
+		for(int i = 0; i < end; i++)
+			for(int j = i + 1; j < n; j++)
+			{
+				double delta = (pred[i] - pred[j]) * (known[i] - known[j]);
+				if(delta != 0)
+					listener.swapChange(i, j, -delta / norm);
+			}
+	}
 }
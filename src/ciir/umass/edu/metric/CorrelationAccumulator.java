@@ -0,0 +1,139 @@
+/*===============================================================================
+ * Copyright (c) 2010-2016 University of Massachusetts.  All Rights Reserved.
+ *
+ * Use of the RankLib package is subject to the terms of the software license set
+ * forth in the LICENSE file included with this software, and also available at
+ * http://people.cs.umass.edu/~vdang/ranklib_license.html
+ *===============================================================================
+ */
+
+package ciir.umass.edu.metric;
+
+import ciir.umass.edu.learning.RankList;
+import ciir.umass.edu.utilities.MergeSorter;
+
+import java.util.Arrays;
+
+/**
+ * Collects the (label, prediction) pairs of a ranked list, in ranking order, and computes a correlation between them.
+ * The buffers are kept across {@link #reset()} so that scoring many lists with the same accumulator does not allocate.
+ * An accumulator is not thread-safe: use one per thread.
+ */
+public abstract class CorrelationAccumulator {
+	protected double[] labels = new double[64];
+	protected double[] predictions = new double[64];
+	protected int n = 0;
+
+	//buffers for rank()
+	private int[] idx = null;
+	private int[] tmp = null;
+	private int[] ph = null;
+
+	public void add(double label, double prediction)
+	{
+		if(n == labels.length)
+		{
+			labels = Arrays.copyOf(labels, n * 2);
+			predictions = Arrays.copyOf(predictions, n * 2);
+		}
+		labels[n] = label;
+		predictions[n] = prediction;
+		n++;
+	}
+	/**
+	 * Add the label and the cached prediction of every document of @rl, in order.
+	 */
+	public void add(RankList rl)
+	{
+		for(int i=0;i<rl.size();i++)
+			add(rl.get(i).getLabel(), rl.get(i).getCached());
+	}
+	public int size()
+	{
+		return n;
+	}
+	public void reset()
+	{
+		n = 0;
+	}
+	/**
+	 * @return The correlation between the labels and the predictions added since the last {@link #reset()}.
+	 */
+	public abstract double score();
+	/**
+	 * @return The values the correlation is computed from for the labels (e.g. their ranks for Spearman's rho), by default the labels themselves.
+	 * The first {@link #size()} entries are valid until the accumulator changes.
+	 */
+	public double[] labelValues()
+	{
+		return labels;
+	}
+	/**
+	 * @return Same as {@link #labelValues()} for the predictions.
+	 */
+	public double[] predictionValues()
+	{
+		return predictions;
+	}
+
+	protected static boolean allSame(double[] v, int n)
+	{
+		for(int i=1;i<n;i++)
+			if(v[i] != v[0])
+				return false;
+		return true;
+	}
+	/**
+	 * Pearson's r between the first @n values of @x and @y. NaN if either of them is constant (same as commons-math).
+	 */
+	protected static double pearson(double[] x, double[] y, int n)
+	{
+		double mx = 0;
+		double my = 0;
+		for(int i=0;i<n;i++)
+		{
+			mx += x[i];
+			my += y[i];
+		}
+		mx /= n;
+		my /= n;
+		double sxy = 0;
+		double sxx = 0;
+		double syy = 0;
+		for(int i=0;i<n;i++)
+		{
+			double dx = x[i] - mx;
+			double dy = y[i] - my;
+			sxy += dx * dy;
+			sxx += dx * dx;
+			syy += dy * dy;
+		}
+		return sxy / Math.sqrt(sxx * syy);
+	}
+	/**
+	 * Write into @ranks the rank (from 1) of each of the first @n values of @v. Tied values get the average of their ranks
+	 * (same as commons-math NaturalRanking).
+	 */
+	protected void rank(double[] v, int n, double[] ranks)
+	{
+		if(n == 0)
+			return;
+		if(idx == null || idx.length < n)
+		{
+			idx = new int[v.length];
+			tmp = new int[v.length];
+			ph = new int[v.length/2+3];
+		}
+		MergeSorter.sort(v, 0, n-1, true, idx, tmp, ph);
+		for(int i=0;i<n;)
+		{
+			int j = i + 1;
+			while(j < n && v[idx[j]] == v[idx[i]])
+				j++;
+			double r = (i + 1 + j) / 2.0;
+			for(int k=i;k<j;k++)
+				ranks[idx[k]] = r;
+			i = j;
+		}
+	}
+}
@@ -14,36 +14,27 @@ import ciir.umass.edu.utilities.SimpleMath;
 
 public class DCGScorer extends MetricScorer {
 	
-	protected static double[] discount = null;//cache
-	protected static double[] gain = null;//cache
+	//caches, shared by all scorers (and threads): they are only ever replaced by larger, fully filled copies
+	protected static volatile double[] discount = null;
+	protected static volatile double[] gain = null;
+	static {
+		double[] d = new double[5000];
+		for(int i=0;i<d.length;i++)
+			d[i] = 1.0/SimpleMath.logBase2(i+2);
+		double[] g = new double[6];
+		for(int i=0;i<g.length;i++)
+			g[i] = (1<<i) - 1;//2^i - 1
+		discount = d;
+		gain = g;
+	}
 	
 	public DCGScorer()
 	{
 		this.k = 10;
-		//init cache if we haven't already done so
-		if(discount == null)
-		{
-			discount = new double[5000];
-			for(int i=0;i<discount.length;i++)
-				discount[i] = 1.0/SimpleMath.logBase2(i+2);
-			gain = new double[6];
-			for(int i=0;i<6;i++)
-				gain[i] = (1<<i) - 1;//2^i-1
-		}
 	}
 	public DCGScorer(int k)
 	{
 		this.k = k;
-		//init cache if we haven't already done so
-		if(discount == null)
-		{
-			discount = new double[5000];
-			for(int i=0;i<discount.length;i++)
-				discount[i] = 1.0/SimpleMath.logBase2(i+2);
-			gain = new double[6];
-			for(int i=0;i<6;i++)
-				gain[i] = (1<<i) - 1;//2^i - 1
-		}
 	}
 	public MetricScorer copy()
 	{
@@ -66,19 +57,29 @@ public class DCGScorer extends MetricScorer {
 	}
 	public double[][] swapChange(RankList rl)
 	{
-		int[] rel = getRelevanceLabels(rl);
-		int size = (rl.size() > k) ? k : rl.size();
-		double[][] changes = new double[rl.size()][];
-		for(int i=0;i<rl.size();i++)
-			changes[i] = new double[rl.size()];
-		
-		//for(int i=0;i<rl.size()-1;i++)//ignore K, compute changes from the entire ranked list
-		for(int i=0;i<size;i++)
-			for(int j=i+1;j<rl.size();j++)
-				changes[j][i] = changes[i][j] = (discount(i) - discount(j)) * (gain(rel[i]) - gain(rel[j]));
-
+		double[][] changes = new double[rl.size()][rl.size()];
+		swapChange(rl, changes);
 		return changes;
 	}
+	public void swapChange(RankList rl, double[][] changes)
+	{
+		fillSwapChanges(rl, changes);
+	}
+	public void swapChange(RankList rl, int limit, SwapChangeListener listener)
+	{
+		int n = rl.size();
+		int size = Math.min((n > k) ? k : n, limit);
+		for(int i=0;i<size;i++)
+		{
+			double gi = gain((int)rl.get(i).getLabel());
+			for(int j=i+1;j<n;j++)
+				listener.swapChange(i, j, (discount(i) - discount(j)) * (gi - gain((int)rl.get(j).getLabel())));
+		}
+	}
+	public int getRankingDepth()
+	{
+		return k;
+	}
 	public String name()
 	{
 		return "DCG@"+k;
@@ -95,34 +96,47 @@ public class DCGScorer extends MetricScorer {
 	//lazy caching
 	protected double discount(int index)
 	{
-		if(index < discount.length)
-			return discount[index];
-		
-		//we need to expand our cache
-		int cacheSize = discount.length + 1000;
+		double[] d = discount;
+		if(index < d.length)
+			return d[index];
+		return expandDiscount(index);
+	}
+	protected double gain(int rel)
+	{
+		double[] g = gain;
+		if(rel < g.length)
+			return g[rel];
+		return expandGain(rel);
+	}
+	//we need to expand our cache. The new array is filled before being published, so readers never see a partial one.
+	private static synchronized double expandDiscount(int index)
+	{
+		double[] d = discount;
+		if(index < d.length)//another thread already did it
+			return d[index];
+		int cacheSize = d.length + 1000;
 		while(cacheSize <= index)
 			cacheSize += 1000;
 		double[] tmp = new double[cacheSize];
-		System.arraycopy(discount, 0, tmp, 0, discount.length);
-		for(int i=discount.length;i<tmp.length;i++)
+		System.arraycopy(d, 0, tmp, 0, d.length);
+		for(int i=d.length;i<tmp.length;i++)
 			tmp[i] = 1.0/SimpleMath.logBase2(i+2);
 		discount = tmp;
-		return discount[index];
+		return tmp[index];
 	}
-	protected double gain(int rel)
+	private static synchronized double expandGain(int rel)
 	{
-		if(rel < gain.length)
-			return gain[rel];
-		
-		//we need to expand our cache
-		int cacheSize = gain.length + 10;
+		double[] g = gain;
+		if(rel < g.length)
+			return g[rel];
+		int cacheSize = g.length + 10;
 		while(cacheSize <= rel)
 			cacheSize += 10;
 		double[] tmp = new double[cacheSize];
-		System.arraycopy(gain, 0, tmp, 0, gain.length);
-		for(int i=gain.length;i<tmp.length;i++)
+		System.arraycopy(g, 0, tmp, 0, g.length);
+		for(int i=g.length;i<tmp.length;i++)
 			tmp[i] = (1<<i) - 1;//2^i - 1
 		gain = tmp;
-		return gain[rel];
+		return tmp[rel];
 	}
 }
@@ -10,7 +10,6 @@
 package ciir.umass.edu.metric;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 
 import ciir.umass.edu.learning.RankList;
@@ -60,6 +59,10 @@ public class ERRScorer extends MetricScorer {
 		}
 		return s;
 	}
+	public int getRankingDepth()
+	{
+		return k;
+	}
 	public String name()
 	{
 		return "ERR@" + k;
@@ -69,6 +72,16 @@ public class ERRScorer extends MetricScorer {
 		return (double)((1<<rel)-1) / MAX;// (2^rel - 1)/MAX;
 	}
 	public double[][] swapChange(RankList rl)
+	{
+		double[][] changes = new double[rl.size()][rl.size()];
+		swapChange(rl, changes);
+		return changes;
+	}
+	public void swapChange(RankList rl, double[][] changes)
+	{
+		fillSwapChanges(rl, changes);
+	}
+	public void swapChange(RankList rl, int limit, SwapChangeListener listener)
 	{
 		int size = (rl.size() > k) ? k : rl.size();
 		int[] labels = new int[rl.size()];
@@ -84,14 +97,8 @@ public class ERRScorer extends MetricScorer {
 			p *= np[i];
 		}
 		
-		double[][] changes = new double[rl.size()][];
-		for(int i=0;i<rl.size();i++)
-		{
-			changes[i] = new double[rl.size()];
-			Arrays.fill(changes[i], 0);
-		}
 		//for(int i=0;i<rl.size()-1;i++)//ignore K, compute changes from the entire ranked list
-		for(int i=0;i<size;i++)
+		for(int i=0;i<Math.min(size, limit);i++)
 		{
 			double v1 = 1.0/(i+1) * (i==0?1:np[i-1]);
 			double change = 0;
@@ -110,9 +117,8 @@ public class ERRScorer extends MetricScorer {
 					}
 					change += (np[j-1]*(1.0 - R[j]) * R[i]/(1.0 - R[i]) - np[j-1] * R[j]) / (j+1);
 				}
-				changes[j][i] = changes[i][j] = change;
+				listener.swapChange(i, j, change);
 			}
 		}
-		return changes;
 	}
 }
@@ -11,11 +11,17 @@
 
 package ciir.umass.edu.metric;
 
+import ciir.umass.edu.learning.DataPoint;
+import ciir.umass.edu.learning.DenseDataPoint;
 import ciir.umass.edu.learning.RankList;
+import ciir.umass.edu.utilities.MyThreadPool;
+import ciir.umass.edu.utilities.WorkerThread;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
-import java.lang.ArithmeticException;
+import java.util.Random;
 
 /**
  * @author saladi
@@ -28,6 +34,14 @@ public class KTAUScorer extends MetricScorer {
 
 	public HashMap<String, Integer> relDocCount = null;
 
+	//reusable buffers of score(RankList), one set per thread
+	protected ThreadLocal<CorrelationAccumulator> accumulator = new ThreadLocal<CorrelationAccumulator>() {
+		protected CorrelationAccumulator initialValue()
+		{
+			return newAccumulator();
+		}
+	};
+
     public KTAUScorer()
     {
 
@@ -50,16 +64,22 @@ public class KTAUScorer extends MetricScorer {
     		return super.score(rl);
         else
         {
-            int[] stats = new int[2];
-            int nominator = 0;
-            int denominator = 0;
+            long nominator = 0;
+            long denominator = 0;
 
+            //the counts are integers, so summing them in any order (after a parallel pass) gives the same result
+            long[][] stats = new long[rl.size()][];
+            if(runParallel(rl.size()))
+                MyThreadPool.getInstance().execute(new PairWorker(this, rl, stats), rl.size());
+            else
+                countTotalMisorderedPairs(rl, stats, 0, rl.size()-1);
     		for(int i = 0; i < rl.size(); i++)
             {
-                stats = countTotalMisorderedPairs(rl.get(i));
-                nominator += stats[0] - 2 * stats[1];
-                denominator += stats[0];
+                nominator += stats[i][0] - 2 * stats[i][1];
+                denominator += stats[i][0];
             }
+            if (denominator == 0)
+                return 0;
     		return (double)nominator/denominator;
         }
 	}
@@ -70,15 +90,59 @@ public class KTAUScorer extends MetricScorer {
 	 */
 	public double score(RankList rl)
 	{
-        try {
-            int[] stats = countTotalMisorderedPairs(rl);
-            // System.out.println("total_pairs:" + stats[0] + "; misord:" + stats[1]);
-            return 1 - 2.0 * stats[1] / stats[0];
-        } catch (ArithmeticException e) {
-            // if no valid pairs (i.e. divide by zero), then this grouping
-            // is not informative
-            return 0;
-        }
+		CorrelationAccumulator acc = accumulator.get();
+		acc.reset();
+		acc.add(rl);
+		return acc.score();
+	}
+	/**
+	 * @return A new accumulator computing the same KTAU as {@link #score(RankList)}: the documents are expected to be added in ranking order,
+	 * and only their labels are used.
+	 */
+	public CorrelationAccumulator newAccumulator()
+	{
+		return new CorrelationAccumulator() {
+			private double[] a = new double[0];
+			private double[] tmp = new double[0];
+
+			public double score()
+			{
+				if (a.length < n)
+				{
+					a = new double[labels.length];
+					tmp = new double[labels.length];
+				}
+				long[] stats = countTotalMisorderedPairs(labels, n, a, tmp);
+				// if no valid pairs (i.e. divide by zero), then this grouping
+				// is not informative
+				if (stats[0] == 0)
+					return 0;
+				return 1 - 2.0 * stats[1] / stats[0];
+			}
+		};
+	}
+	/**
+	 * Kendall's tau-a of a single list, taking the positions in the list as the prediction:
+	 * (concordant - discordant) / (total number of pairs).
+	 */
+	public double tauA(RankList rl)
+	{
+		long n0 = pairs(rl.size());
+		if(n0 == 0)
+			return 0;
+		long[] stats = countTotalMisorderedPairs(rl);
+		return (double)(stats[0] - 2 * stats[1]) / n0;
+	}
+	/**
+	 * Kendall's tau-b of a single list, taking the positions in the list as the prediction (which then has no ties):
+	 * (concordant - discordant) / sqrt((total number of pairs) * (number of pairs not tied in label)).
+	 */
+	public double tauB(RankList rl)
+	{
+		long[] stats = countTotalMisorderedPairs(rl);
+		if(stats[0] == 0)
+			return 0;
+		return (stats[0] - 2 * stats[1]) / Math.sqrt((double)pairs(rl.size()) * stats[0]);
 	}
 
     /**
@@ -86,69 +150,314 @@ public class KTAUScorer extends MetricScorer {
      * rl must be in order of the prediction for correct calculation of misordered
      * pairs (smaller index = higher ranking)
     */
-    public int[] countTotalMisorderedPairs(RankList rl) {
+    public long[] countTotalMisorderedPairs(RankList rl) {
         // 0: total pairs; 1: misordered pairs
-		int[] stats = {0, 0};
+		long[] stats = {0, 0};
 
-		for(int k = 0; k < rl.size() - 1; k++)
-			for(int l = k + 1; l < rl.size(); l++)
-				if(rl.get(k).getLabel() != rl.get(l).getLabel()) {
-					stats[0]++;
-    				if(rl.get(k).getLabel() < rl.get(l).getLabel())
-    					stats[1]++;
-                }
-		return stats;
+		int n = rl.size();
+		double[] labels = new double[n];
+		for(int k = 0; k < n; k++)
+			labels[k] = rl.get(k).getLabel();
+		return countTotalMisorderedPairs(labels, n, new double[n], new double[n]);
     }
+	protected void countTotalMisorderedPairs(List<RankList> rl, long[][] stats, int start, int end)
+	{
+		for(int i = start; i <= end; i++)
+			stats[i] = countTotalMisorderedPairs(rl.get(i));
+	}
+	/**
+	 * Same as {@link #countTotalMisorderedPairs(RankList)} for the first @n @labels (in ranking order), using the buffers @a and @tmp
+	 * (of at least @n elements).
+	 */
+	protected static long[] countTotalMisorderedPairs(double[] labels, int n, double[] a, double[] tmp)
+	{
+		long[] stats = {0, 0};
+		//a pair (k, l), k < l, is misordered iff label(k) < label(l), i.e. -label(k) > -label(l): an inversion of the negated labels
+		for(int k = 0; k < n; k++)
+			a[k] = -labels[k];
+		stats[1] = countInversions(a, tmp, 0, n);
+		//a is now sorted ==> pairs with the same label are next to each other
+		stats[0] = pairs(n) - countTiedPairs(a, n);
+		return stats;
+	}
+
+	/**
+	 * Kendall's tau-a between @x and @y (e.g. labels and predictions): (concordant - discordant) / (total number of pairs).
+	 */
+	public static double tauA(double[] x, double[] y)
+	{
+		long[] s = knight(x, y);
+		if(s[0] == 0)
+			return 0;
+		return (double)(s[0] - s[1] - s[2] + s[3] - 2 * s[4]) / s[0];
+	}
+	/**
+	 * Kendall's tau-b between @x and @y, which accounts for ties in both of them: (concordant - discordant) / sqrt((n0 - n1) * (n0 - n2)),
+	 * where n0 is the total number of pairs, n1 and n2 the number of pairs tied in @x and @y respectively.
+	 */
+	public static double tauB(double[] x, double[] y)
+	{
+		long[] s = knight(x, y);
+		double d = Math.sqrt((double)(s[0] - s[1]) * (s[0] - s[2]));
+		if(d == 0)
+			return 0;
+		return (s[0] - s[1] - s[2] + s[3] - 2 * s[4]) / d;
+	}
+	/**
+	 * Knight's O(n log n) algorithm. Sort by @x then @y, count the ties, then count the discordant pairs as the number of swaps made by a
+	 * merge sort of @y.
+	 * @return {n0, n1, n2, n3, nd}: total number of pairs, pairs tied in @x, pairs tied in @y, pairs tied in both, discordant pairs.
+	 */
+	protected static long[] knight(double[] x, double[] y)
+	{
+		int n = x.length;
+		int[] idx = new int[n];
+		int[] tmp = new int[n];
+		for(int i = 0; i < n; i++)
+			idx[i] = i;
+		//both sorts are stable ==> sorted by x, then by y
+		sort(idx, y, tmp, 0, n);
+		sort(idx, x, tmp, 0, n);
+
+		long n1 = 0;
+		long n3 = 0;
+		for(int i = 0; i < n;)
+		{
+			int j = i + 1;
+			while(j < n && x[idx[j]] == x[idx[i]])
+				j++;
+			n1 += pairs(j - i);
+			for(int a = i; a < j;)
+			{
+				int b = a + 1;
+				while(b < j && y[idx[b]] == y[idx[a]])
+					b++;
+				n3 += pairs(b - a);
+				a = b;
+			}
+			i = j;
+		}
+
+		double[] ys = new double[n];
+		for(int i = 0; i < n; i++)
+			ys[i] = y[idx[i]];
+		//pairs tied in x are already in increasing order of y, so all the swaps are between discordant pairs
+		long nd = countInversions(ys, new double[n], 0, n);
+		long n2 = countTiedPairs(ys, n);
+		return new long[]{pairs(n), n1, n2, n3, nd};
+	}
+	/**
+	 * Sort a[lo, hi) in ascending order (merge sort).
+	 * @return The number of pairs i &lt; j such that a[i] &gt; a[j] in the original order.
+	 */
+	protected static long countInversions(double[] a, double[] tmp, int lo, int hi)
+	{
+		if(hi - lo < 2)
+			return 0;
+		int mid = (lo + hi) >>> 1;
+		long count = countInversions(a, tmp, lo, mid) + countInversions(a, tmp, mid, hi);
+		if(a[mid-1] <= a[mid])//already in order
+			return count;
+		int i = lo;
+		int j = mid;
+		int k = lo;
+		while(i < mid && j < hi)
+		{
+			if(a[j] < a[i])
+			{
+				//a[j] is smaller than all of a[i..mid)
+				count += mid - i;
+				tmp[k++] = a[j++];
+			}
+			else
+				tmp[k++] = a[i++];
+		}
+		while(i < mid)
+			tmp[k++] = a[i++];
+		while(j < hi)
+			tmp[k++] = a[j++];
+		System.arraycopy(tmp, lo, a, lo, hi - lo);
+		return count;
+	}
+	/**
+	 * Stable merge sort of idx[lo, hi) in ascending order of key[idx[.]].
+	 */
+	private static void sort(int[] idx, double[] key, int[] tmp, int lo, int hi)
+	{
+		if(hi - lo < 2)
+			return;
+		int mid = (lo + hi) >>> 1;
+		sort(idx, key, tmp, lo, mid);
+		sort(idx, key, tmp, mid, hi);
+		if(key[idx[mid-1]] <= key[idx[mid]])
+			return;
+		int i = lo;
+		int j = mid;
+		int k = lo;
+		while(i < mid && j < hi)
+			tmp[k++] = (key[idx[j]] < key[idx[i]]) ? idx[j++] : idx[i++];
+		while(i < mid)
+			tmp[k++] = idx[i++];
+		while(j < hi)
+			tmp[k++] = idx[j++];
+		System.arraycopy(tmp, lo, idx, lo, hi - lo);
+	}
+	/**
+	 * @param a Sorted array.
+	 * @return Number of pairs of equal values in the first @n values of @a.
+	 */
+	private static long countTiedPairs(double[] a, int n)
+	{
+		long count = 0;
+		for(int i = 0; i < n;)
+		{
+			int j = i + 1;
+			while(j < n && a[j] == a[i])
+				j++;
+			count += pairs(j - i);
+			i = j;
+		}
+		return count;
+	}
+	private static long pairs(long n)
+	{
+		return n * (n - 1) / 2;
+	}
 
+	public double[][] swapChange(RankList rl)
+	{
+		double[][] changes = new double[rl.size()][rl.size()];
+		fillSwapChanges(rl, changes);
+		return changes;
+	}
+	public void swapChange(RankList rl, double[][] changes)
+	{
+		fillSwapChanges(rl, changes);
+	}
     /**
      * higher label is better, lower index is better
+     * Swapping positions i &lt; j (labels a and b) only changes the pair (i, j) itself and the pairs made of i or j and a position m in between
+     * (label c): (concordant - discordant) changes by -2 * sign(a - b) * (1 + #{c == a} + #{c == b} + 2 * #{min(a, b) &lt; c &lt; max(a, b)}).
+     * The number of valid pairs does not change, so the change in KTAU is that divided by the number of valid pairs.
      */
-	public double[][] swapChange(RankList rl)
+	public void swapChange(RankList rl, int limit, SwapChangeListener listener)
 	{
-		byte[][] is_ord = new byte[rl.size()][rl.size()];
-		double[][] changes = new double[rl.size()][rl.size()];
+		int n = rl.size();
+		//map the labels to their rank among the distinct labels
+		double[] labels = new double[n];
+		for(int i = 0; i < n; i++)
+			labels[i] = rl.get(i).getLabel();
+		double[] distinct = labels.clone();
+		Arrays.sort(distinct);
+		int nLabels = 0;
+		for(int i = 0; i < n; i++)
+			if(nLabels == 0 || distinct[i] != distinct[nLabels-1])
+				distinct[nLabels++] = distinct[i];
+		int[] rank = new int[n];
+		long[] count = new long[nLabels];
+		for(int i = 0; i < n; i++)
+			count[rank[i] = Arrays.binarySearch(distinct, 0, nLabels, labels[i])]++;
 
-        // fill with initial ordering
-        // init_tau is actually concordant - disconcorant pairs, i.e. Kendall's distance
-        double init_kend = 0;
-		for(int i = 0; i < rl.size() - 1; i++)
-			for(int j = i + 1; j < rl.size(); j++)
-				if(rl.get(i).getLabel() > rl.get(j).getLabel())
-                    init_kend += is_ord[i][j] = 1;
-                else if (rl.get(i).getLabel() < rl.get(j).getLabel())
-                    init_kend += is_ord[i][j] = -1;
-
-        // Calculate changes upon swaps
-		for(int i = 0; i < rl.size() - 1; i++)
-			for(int j = i + 1; j < rl.size(); j++) {
-                rl.swap(i, j); // do swap
-
-                // recalculate change in ordering
-                int delta = 0;
-        		for(int k = i + 1; k < rl.size(); k++) // for row i
-                    delta += calcChange(is_ord[i][k], rl.get(i).getLabel(), rl.get(k).getLabel());
-        		for(int k = 0; k < i; k++) // for col i
-                    delta += calcChange(is_ord[k][i], rl.get(k).getLabel(), rl.get(i).getLabel());
-        		for(int k = j + 1; k < rl.size(); k++) // for row j
-                    delta += calcChange(is_ord[j][k], rl.get(j).getLabel(), rl.get(k).getLabel());
-        		for(int k = 0; k < j; k++) // for col j
-                    delta += calcChange(is_ord[k][j], rl.get(k).getLabel(), rl.get(j).getLabel());
-
-                // overcounting of pair i, j
-                delta -= calcChange(is_ord[i][j], rl.get(i).getLabel(), rl.get(j).getLabel());
-
-		        changes[j][i] = changes[i][j] = delta/init_kend;
-
-                rl.swap(i, j); // swap back
-            }
-		return changes;
+		long valid = pairs(n);
+		for(int r = 0; r < nLabels; r++)
+			valid -= pairs(count[r]);
+		if(valid == 0)
+			return;
+
+		//counts of the labels strictly between i and j, indexed by label rank (Fenwick tree)
+		int[] between = new int[nLabels+1];
+		int end = Math.min(limit, n - 1);
+		for(int i = 0; i < end; i++)
+		{
+			Arrays.fill(between, 0);
+			for(int j = i + 1; j < n; j++)
+			{
+				if(rank[i] != rank[j])
+				{
+					int lo = Math.min(rank[i], rank[j]);
+					int hi = Math.max(rank[i], rank[j]);
+					//#{lo <= c <= hi} + #{lo < c < hi}
+					long w = 1 + countBelow(between, hi + 1) - countBelow(between, lo) + countBelow(between, hi) - countBelow(between, lo + 1);
+					listener.swapChange(i, j, ((rank[i] > rank[j]) ? -2.0 : 2.0) * w / valid);
+				}
+				for(int r = rank[j] + 1; r <= nLabels; r += r & (-r))
+					between[r]++;
+			}
+		}
+	}
+	/**
+	 * @return Number of labels in the Fenwick tree @tree whose rank is &lt; @r.
+	 */
+	private static long countBelow(int[] tree, int r)
+	{
+		long c = 0;
+		for(; r > 0; r -= r & (-r))
+			c += tree[r];
+		return c;
 	}
 
-    public int calcChange(int orig, float higher_score, float lower_score) {
-        if (orig == 1 && higher_score < lower_score)
-            return -2;
-        else if (orig == -1 && higher_score > lower_score)
-            return 2;
-        return 0;
-    }
+	/**
+	 * Microbenchmark of {@link #countTotalMisorderedPairs(RankList)} against the former O(n^2) implementation.
+	 * Usage: KTAUScorer [list size] [number of distinct labels] [repetitions]
+	 */
+	public static void main(String[] args)
+	{
+		int n = (args.length > 0) ? Integer.parseInt(args[0]) : 50000;
+		int nLabels = (args.length > 1) ? Integer.parseInt(args[1]) : 5;
+		int reps = (args.length > 2) ? Integer.parseInt(args[2]) : 3;
+
+		Random rd = new Random(1);
+		List<DataPoint> dps = new ArrayList<DataPoint>();
+		for(int i = 0; i < n; i++)
+			dps.add(new DenseDataPoint(rd.nextInt(nLabels) + " qid:1 1:" + rd.nextFloat()));
+		RankList rl = new RankList(dps);
+		KTAUScorer scorer = new KTAUScorer();
+
+		long[] stats = null;
+		long start = System.nanoTime();
+		for(int r = 0; r < reps; r++)
+			stats = scorer.countTotalMisorderedPairs(rl);
+		double fast = (System.nanoTime() - start) / 1e9 / reps;
+
+		long[] ref = null;
+		start = System.nanoTime();
+		for(int r = 0; r < reps; r++)
+			ref = countTotalMisorderedPairsQuadratic(rl);
+		double slow = (System.nanoTime() - start) / 1e9 / reps;
+
+		System.out.println("n=" + n + " valid pairs=" + stats[0] + " misordered=" + stats[1] + " KTAU=" + scorer.score(rl) + " tau-a=" + scorer.tauA(rl) + " tau-b=" + scorer.tauB(rl));
+		System.out.println("merge sort: " + fast + "s; nested loops: " + slow + "s" + ((stats[0] == ref[0] && stats[1] == ref[1]) ? "" : " [MISMATCH: " + ref[0] + " " + ref[1] + "]"));
+	}
+	static class PairWorker extends WorkerThread {
+		KTAUScorer scorer = null;
+		List<RankList> rl = null;
+		long[][] stats = null;
+
+		PairWorker(KTAUScorer scorer, List<RankList> rl, long[][] stats)
+		{
+			this.scorer = scorer;
+			this.rl = rl;
+			this.stats = stats;
+		}
+		public void run()
+		{
+			scorer.countTotalMisorderedPairs(rl, stats, start, end);
+		}
+		public WorkerThread clone()
+		{
+			return new PairWorker(scorer, rl, stats);
+		}
+	}
+	private static long[] countTotalMisorderedPairsQuadratic(RankList rl)
+	{
+		long[] stats = {0, 0};
+		for(int k = 0; k < rl.size() - 1; k++)
+			for(int l = k + 1; l < rl.size(); l++)
+				if(rl.get(k).getLabel() != rl.get(l).getLabel()) {
+					stats[0]++;
+					if(rl.get(k).getLabel() < rl.get(l).getLabel())
+						stats[1]++;
+				}
+		return stats;
+	}
 }
@@ -10,7 +10,10 @@
 package ciir.umass.edu.metric;
 
 import ciir.umass.edu.learning.RankList;
+import ciir.umass.edu.utilities.MyThreadPool;
+import ciir.umass.edu.utilities.WorkerThread;
 
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -19,6 +22,20 @@ import java.util.List;
  */
 public abstract class MetricScorer {
 
+	//Score the ranked lists of score(List<RankList>) in parallel on the thread pool. The per-list scores are still summed in list order,
+	//so the result is exactly the same as the sequential one.
+	public static boolean parallelScoring = false;
+	//...but only for at least this many lists
+	public static int minParallelLists = 32;
+
+	//relevance labels of the list being scored by all the scorers of a MultiMetricScorer (in the current thread), extracted only once
+	private static final ThreadLocal<SharedLabels> sharedLabels = new ThreadLocal<SharedLabels>() {
+		protected SharedLabels initialValue()
+		{
+			return new SharedLabels();
+		}
+	};
+
 	/** The depth parameter, or how deep of a ranked list to use to score the measure. */
 	protected int k = 10;
 	
@@ -39,6 +56,22 @@ public abstract class MetricScorer {
 	public int getK()
 	{
 		return k;
+	}
+	/**
+	 * Number of top positions of a ranked list that the measure depends on, or 0 if it depends on the whole list.
+	 * Rankers only need to sort that many documents before scoring (see {@link ciir.umass.edu.learning.Ranker#rank(RankList, int)}).
+	 */
+	public int getRankingDepth()
+	{
+		return 0;
+	}
+	/**
+	 * Tell the scorer which ranked lists it is going to score over and over (e.g. the training data), so that it can precompute what it
+	 * needs for each of them once. The lists are then recognized by their ID. Nothing to do by default.
+	 */
+	public void bind(List<RankList> samples)
+	{
+		
 	}
 	public void loadExternalRelevanceJudgment(String qrelFile)
 	{
@@ -47,21 +80,138 @@ public abstract class MetricScorer {
 	public double score(List<RankList> rl)
 	{
 		double score = 0.0;
-		for(int i=0;i<rl.size();i++)
-			score += score(rl.get(i));
+		if(runParallel(rl.size()))
+		{
+			double[] scores = new double[rl.size()];
+			MyThreadPool.getInstance().execute(new ScoreWorker(this, rl, scores), rl.size());
+			for(int i=0;i<rl.size();i++)
+				score += scores[i];
+		}
+		else
+		{
+			for(int i=0;i<rl.size();i++)
+				score += score(rl.get(i));
+		}
 		return score/rl.size();
 	}
+	protected void score(List<RankList> rl, double[] scores, int start, int end)
+	{
+		for(int i=start;i<=end;i++)
+			scores[i] = score(rl.get(i));
+	}
+	/**
+	 * @return Whether @nLists ranked lists should be scored in parallel (see {@link #parallelScoring}). Never from inside a worker thread of
+	 * the pool, which could dead-lock it.
+	 */
+	protected static boolean runParallel(int nLists)
+	{
+		if(!parallelScoring || nLists < minParallelLists)
+			return false;
+		MyThreadPool p = MyThreadPool.getInstance();
+		return p.size() > 1 && !p.isWorkerThread();
+	}
 	
+	/**
+	 * NOTE: the returned array may be shared with other scorers (see {@link MultiMetricScorer}), so do not modify it.
+	 */
 	protected int[] getRelevanceLabels(RankList rl)
 	{
+		SharedLabels s = sharedLabels.get();
+		if(s.rl == rl)
+			return s.labels;
 		int[] rel = new int[rl.size()];
 		for(int i=0;i<rl.size();i++)
 			rel[i] = (int)rl.get(i).getLabel();
 		return rel;
 	}
 	
+	/**
+	 * Until {@link #unshareRelevanceLabels()}, all scorers used in the current thread extract the relevance labels of @rl only once.
+	 * @rl must not be modified in the meantime.
+	 */
+	protected static void shareRelevanceLabels(RankList rl)
+	{
+		SharedLabels s = sharedLabels.get();
+		s.rl = null;
+		int[] rel = new int[rl.size()];
+		for(int i=0;i<rl.size();i++)
+			rel[i] = (int)rl.get(i).getLabel();
+		s.labels = rel;
+		s.rl = rl;
+	}
+	protected static void unshareRelevanceLabels()
+	{
+		SharedLabels s = sharedLabels.get();
+		s.rl = null;
+		s.labels = null;
+	}
+	
 	public abstract double score(RankList rl);
 	public abstract MetricScorer copy();
 	public abstract String name();
 	public abstract double[][] swapChange(RankList rl);
+	/**
+	 * Same as {@link #swapChange(RankList)}, but the changes are written into the first rl.size() rows and columns of @changes
+	 * (which must be at least that large) instead of a newly allocated matrix, so that the buffer can be re-used across ranked lists.
+	 */
+	public void swapChange(RankList rl, double[][] changes)
+	{
+		double[][] c = swapChange(rl);
+		for(int i=0;i<c.length;i++)
+			System.arraycopy(c[i], 0, changes[i], 0, c[i].length);
+	}
+	/**
+	 * Truncated version of {@link #swapChange(RankList)}: report to @listener the change of each pair of positions (i, j), with i &lt; j and i &lt; @limit,
+	 * whose swap may change the metric. Pairs that are not reported have no change. Scorers with a cut-off only need O(k.n) work instead of filling
+	 * an n x n matrix. By default, this is computed from the full matrix.
+	 */
+	public void swapChange(RankList rl, int limit, SwapChangeListener listener)
+	{
+		double[][] changes = swapChange(rl);
+		int end = Math.min(limit, rl.size()-1);
+		for(int i=0;i<end;i++)
+			for(int j=i+1;j<rl.size();j++)
+				listener.swapChange(i, j, changes[i][j]);
+	}
+	/**
+	 * Implementation of {@link #swapChange(RankList, double[][])} for scorers that implement {@link #swapChange(RankList, int, SwapChangeListener)}.
+	 */
+	protected void fillSwapChanges(RankList rl, final double[][] changes)
+	{
+		int n = rl.size();
+		for(int i=0;i<n;i++)
+			Arrays.fill(changes[i], 0, n, 0);
+		swapChange(rl, n, new SwapChangeListener() {
+			public void swapChange(int i, int j, double change)
+			{
+				changes[i][j] = changes[j][i] = change;
+			}
+		});
+	}
+
+	static class ScoreWorker extends WorkerThread {
+		MetricScorer scorer = null;
+		List<RankList> rl = null;
+		double[] scores = null;
+
+		ScoreWorker(MetricScorer scorer, List<RankList> rl, double[] scores)
+		{
+			this.scorer = scorer;
+			this.rl = rl;
+			this.scores = scores;
+		}
+		public void run()
+		{
+			scorer.score(rl, scores, start, end);
+		}
+		public WorkerThread clone()
+		{
+			return new ScoreWorker(scorer, rl, scores);
+		}
+	}
+
+	private static class SharedLabels {
+		RankList rl = null;
+		int[] labels = null;
+	}
 }
@@ -9,7 +9,9 @@
 
 package ciir.umass.edu.metric;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 
 /**
  * @author vdang
@@ -42,8 +44,16 @@ public class MetricScorerFactory {
 		s.setK(k);
 		return s;
 	}
-	public MetricScorer createScorer(String metric)//e.g.: metric = "NDCG@5"
+	public MetricScorer createScorer(String metric)//e.g.: metric = "NDCG@5", or "NDCG@5,ERR@10,MAP" for several metrics at once
 	{
+		if(metric.indexOf(",") != -1)
+		{
+			List<MetricScorer> scorers = new ArrayList<MetricScorer>();
+			for(String m : metric.split(","))
+				if(m.trim().length() > 0)
+					scorers.add(createScorer(m.trim()));
+			return new MultiMetricScorer(scorers);
+		}
 		int k = -1;
 		String m = "";
 		MetricScorer s = null;
@@ -0,0 +1,179 @@
+/*===============================================================================
+ * Copyright (c) 2010-2016 University of Massachusetts.  All Rights Reserved.
+ *
+ * Use of the RankLib package is subject to the terms of the software license set
+ * forth in the LICENSE file included with this software, and also available at
+ * http://people.cs.umass.edu/~vdang/ranklib_license.html
+ *===============================================================================
+ */
+
+package ciir.umass.edu.metric;
+
+import ciir.umass.edu.learning.RankList;
+import ciir.umass.edu.utilities.MyThreadPool;
+import ciir.umass.edu.utilities.RankLibError;
+import ciir.umass.edu.utilities.WorkerThread;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Evaluate ranked lists with several measures at once (e.g. -metric2T NDCG@5,NDCG@10,ERR@10,MAP). Each list only needs to be ranked once
+ * (up to the deepest cut-off of the measures), and its relevance labels are extracted once for all the measures.
+ * When used as a single measure (e.g. for training), this behaves as its first measure.
+ */
+public class MultiMetricScorer extends MetricScorer {
+
+	protected List<MetricScorer> scorers = null;
+
+	public MultiMetricScorer(List<MetricScorer> scorers)
+	{
+		if(scorers.size() == 0)
+			throw RankLibError.create("Error in MultiMetricScorer::MultiMetricScorer(): at least one metric is needed.");
+		this.scorers = scorers;
+	}
+	public List<MetricScorer> getScorers()
+	{
+		return scorers;
+	}
+	public int size()
+	{
+		return scorers.size();
+	}
+
+	/**
+	 * @return The score of @rl in each of the measures.
+	 */
+	public double[] scoreAll(RankList rl)
+	{
+		double[] s = new double[scorers.size()];
+		if(rl.size() > 0)
+			shareRelevanceLabels(rl);
+		try {
+			for(int i=0;i<scorers.size();i++)
+				s[i] = scorers.get(i).score(rl);
+		}
+		finally {
+			unshareRelevanceLabels();
+		}
+		return s;
+	}
+	/**
+	 * Score the ranked lists in parallel.
+	 * @return scores[i][j]: the score of rl[i] in the j-th measure.
+	 */
+	public double[][] scoreAll(List<RankList> rl)
+	{
+		double[][] scores = new double[rl.size()][];
+		MyThreadPool p = MyThreadPool.getInstance();
+		if(p.size() == 1 || p.isWorkerThread() || rl.size() < 2)
+			scoreAll(rl, scores, 0, rl.size()-1);
+		else
+			p.execute(new Worker(this, rl, scores), rl.size());
+		return scores;
+	}
+	protected void scoreAll(List<RankList> rl, double[][] scores, int start, int end)
+	{
+		for(int i=start;i<=end;i++)
+			scores[i] = scoreAll(rl.get(i));
+	}
+	/**
+	 * @return score(rl) of each measure, e.g. KTAU pools its pairs over all the lists instead of averaging them.
+	 */
+	public double[] scoreEach(List<RankList> rl)
+	{
+		double[] s = new double[scorers.size()];
+		for(int i=0;i<scorers.size();i++)
+			s[i] = scorers.get(i).score(rl);
+		return s;
+	}
+
+	public double score(RankList rl)
+	{
+		return scorers.get(0).score(rl);
+	}
+	public double score(List<RankList> rl)
+	{
+		return scorers.get(0).score(rl);
+	}
+	/**
+	 * The deepest cut-off of all the measures (0 if any of them needs the whole list).
+	 */
+	public int getRankingDepth()
+	{
+		int depth = 0;
+		for(int i=0;i<scorers.size();i++)
+		{
+			int d = scorers.get(i).getRankingDepth();
+			if(d <= 0)
+				return 0;
+			depth = Math.max(depth, d);
+		}
+		return depth;
+	}
+	public int getK()
+	{
+		return scorers.get(0).getK();
+	}
+	public void bind(List<RankList> samples)
+	{
+		for(int i=0;i<scorers.size();i++)
+			scorers.get(i).bind(samples);
+	}
+	public void loadExternalRelevanceJudgment(String qrelFile)
+	{
+		for(int i=0;i<scorers.size();i++)
+			scorers.get(i).loadExternalRelevanceJudgment(qrelFile);
+	}
+	public MetricScorer copy()
+	{
+		List<MetricScorer> l = new ArrayList<MetricScorer>();
+		for(int i=0;i<scorers.size();i++)
+		{
+			MetricScorer s = scorers.get(i).copy();
+			s.setK(scorers.get(i).getK());
+			l.add(s);
+		}
+		return new MultiMetricScorer(l);
+	}
+	public String name()
+	{
+		String name = "";
+		for(int i=0;i<scorers.size();i++)
+			name += ((i>0)?",":"") + scorers.get(i).name();
+		return name;
+	}
+	public double[][] swapChange(RankList rl)
+	{
+		return scorers.get(0).swapChange(rl);
+	}
+	public void swapChange(RankList rl, double[][] changes)
+	{
+		scorers.get(0).swapChange(rl, changes);
+	}
+	public void swapChange(RankList rl, int limit, SwapChangeListener listener)
+	{
+		scorers.get(0).swapChange(rl, limit, listener);
+	}
+
+	class Worker extends WorkerThread {
+		MultiMetricScorer scorer = null;
+		List<RankList> rl = null;
+		double[][] scores = null;
+
+		Worker(MultiMetricScorer scorer, List<RankList> rl, double[][] scores)
+		{
+			this.scorer = scorer;
+			this.rl = rl;
+			this.scores = scores;
+		}
+		public void run()
+		{
+			scorer.scoreAll(rl, scores, start, end);
+		}
+		public WorkerThread clone()
+		{
+			return new Worker(scorer, rl, scores);
+		}
+	}
+}
@@ -11,33 +11,36 @@ package ciir.umass.edu.metric;
 
 import ciir.umass.edu.learning.RankList;
 import ciir.umass.edu.utilities.RankLibError;
-import ciir.umass.edu.utilities.Sorter;
 
 import java.io.BufferedReader;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * @author vdang
  */
 public class NDCGScorer extends DCGScorer {
 	
-	protected HashMap<String, Double>  idealGains = null;
+	//ideal DCG from external relevance judgments, and of the lists scored without being bound (computed lazily, shared by all threads)
+	protected Map<String, Double>  idealGains = null;
+	//ideal DCG of the lists the scorer is bound to
+	protected volatile Binding binding = null;
 	
 	public NDCGScorer()
 	{
 		super();
-		idealGains = new HashMap<>();
+		idealGains = new ConcurrentHashMap<>();
 	}
 	public NDCGScorer(int k)
 	{
 		super(k);
-		idealGains = new HashMap<>();
+		idealGains = new ConcurrentHashMap<>();
 	}
 	public MetricScorer copy()
 	{
@@ -107,49 +110,73 @@ public class NDCGScorer extends DCGScorer {
 		
 		int[] rel = getRelevanceLabels(rl);
 		
-		double ideal = 0;
-		Double d = idealGains.get(rl.getID());
-		if(d != null)
-			ideal = d;
-		else
-		{
-			ideal = getIdealDCG(rel, size);
-			idealGains.put(rl.getID(), ideal);
-		}
+		double ideal = getIdealDCG(rl);
 		
 		if(ideal <= 0.0)//I mean precisely "="
 			return 0.0;
 		
 		return getDCG(rel, size)/ideal;
 	}
-	public double[][] swapChange(RankList rl)
+	/**
+	 * Precompute the ideal DCG of every list in @samples, so that scoring them (e.g. in LambdaMART, once per list per iteration, from all
+	 * worker threads) does not need to sort their labels or to look up a shared cache.
+	 */
+	public void bind(List<RankList> samples)
 	{
-		int size = (rl.size() > k) ? k : rl.size();
-		//compute the ideal ndcg
-		int[] rel = getRelevanceLabels(rl);
-		double ideal = 0;
-		Double d = idealGains.get(rl.getID());
-		if(d != null)
-			ideal = d;
-		else
+		Binding b = new Binding(samples.size());
+		for(int i=0;i<samples.size();i++)
 		{
-			ideal = getIdealDCG(rel, size);
-			//idealGains.put(rl.getID(), ideal);//DO *NOT* do caching here. It's not thread-safe.
+			RankList rl = samples.get(i);
+			b.sizes[i] = rl.size();
+			if(rl.size() == 0)
+				continue;
+			b.idealDCG[i] = getIdealDCG(rl);
+			b.ordinals.put(rl.getID(), i);
 		}
-		
-		double[][] changes = new double[rl.size()][];
-		for(int i=0;i<rl.size();i++)
+		binding = b;
+	}
+	/**
+	 * Ideal DCG at k of @rl, computed from the whole list: external relevance judgments first, then the lists the scorer is bound to,
+	 * then the lazy cache.
+	 */
+	protected double getIdealDCG(RankList rl)
+	{
+		String id = rl.getID();
+		Binding b = binding;
+		if(b != null)
 		{
-			changes[i] = new double[rl.size()];
-			Arrays.fill(changes[i], 0);
+			Integer o = b.ordinals.get(id);
+			if(o != null && b.sizes[o] == rl.size())//different lists (e.g. training and validation) may share the same ID
+				return b.idealDCG[o];
 		}
+		Double d = idealGains.get(id);
+		if(d == null)
+		{
+			int size = k;
+			if(k > rl.size() || k <= 0)
+				size = rl.size();
+			d = getIdealDCG(getRelevanceLabels(rl), size);
+			idealGains.put(id, d);//if several threads get here at the same time, they all put the same value
+		}
+		return d;
+	}
+	public void swapChange(RankList rl, int limit, SwapChangeListener listener)
+	{
+		int n = rl.size();
+		if(n == 0)
+			return;
+		int size = (n > k) ? k : n;
+		double ideal = getIdealDCG(rl);
+		if(!(ideal > 0))
+			return;
 		
+		size = Math.min(size, limit);
 		for(int i=0;i<size;i++)
-			for(int j=i+1;j<rl.size();j++)
-				if(ideal > 0)
-					changes[j][i] = changes[i][j] = (discount(i) - discount(j)) * (gain(rel[i]) - gain(rel[j])) / ideal;
-
-		return changes;
+		{
+			double gi = gain((int)rl.get(i).getLabel());
+			for(int j=i+1;j<n;j++)
+				listener.swapChange(i, j, (discount(i) - discount(j)) * (gi - gain((int)rl.get(j).getLabel())) / ideal);
+		}
 	}
 	public String name()
 	{
@@ -158,10 +185,39 @@ public class NDCGScorer extends DCGScorer {
 	
 	private double getIdealDCG(int[] rel, int topK)
 	{
-		int[] idx = Sorter.sort(rel, false);
+		if(rel.length == 0)
+			return 0;
+		//labels are small integers: count them instead of sorting them
+		int min = Integer.MAX_VALUE;
+		int max = Integer.MIN_VALUE;
+		for(int i=0;i<rel.length;i++)
+		{
+			min = Math.min(min, rel[i]);
+			max = Math.max(max, rel[i]);
+		}
+		int[] count = new int[max-min+1];
+		for(int i=0;i<rel.length;i++)
+			count[rel[i]-min]++;
 		double dcg = 0;
-		for(int i=0;i<topK;i++)
-			dcg += gain(rel[idx[i]]) * discount(i);
+		int i = 0;
+		for(int r=max;r>=min && i<topK;r--)
+			for(int c=0;c<count[r-min] && i<topK;c++)
+				dcg += gain(r) * discount(i++);
 		return dcg;
 	}
+
+	/**
+	 * Ideal DCG of the lists the scorer is bound to. Never modified once published, so all threads can read it.
+	 */
+	protected static class Binding {
+		Map<String, Integer> ordinals = new HashMap<>();//list ID => ordinal
+		double[] idealDCG = null;
+		int[] sizes = null;
+
+		Binding(int n)
+		{
+			idealDCG = new double[n];
+			sizes = new int[n];
+		}
+	}
 }
@@ -37,4 +37,16 @@ public class PEARScorer extends CORRScorer {
     {
         return pear.correlation(known, pred);
     }
+
+    public CorrelationAccumulator newAccumulator()
+    {
+        return new CorrelationAccumulator() {
+            public double score()
+            {
+                if (allSame(labels, n))
+                    return 0;
+                return pearson(labels, predictions, n);
+            }
+        };
+    }
 }
@@ -9,7 +9,6 @@
 
 package ciir.umass.edu.metric;
 
-import java.util.Arrays;
 
 import ciir.umass.edu.learning.RankList;
 
@@ -45,11 +44,25 @@ public class PrecisionScorer extends MetricScorer {
 	{
 		return new PrecisionScorer();
 	}
+	public int getRankingDepth()
+	{
+		return k;
+	}
 	public String name()
 	{
 		return "P@"+k;
 	}
 	public double[][] swapChange(RankList rl)
+	{
+		double[][] changes = new double[rl.size()][rl.size()];
+		swapChange(rl, changes);
+		return changes;
+	}
+	public void swapChange(RankList rl, double[][] changes)
+	{
+		fillSwapChanges(rl, changes);
+	}
+	public void swapChange(RankList rl, int limit, SwapChangeListener listener)
 	{
 		int size = (rl.size() > k) ? k : rl.size();
 		/*int relCount = 0;
@@ -57,22 +70,14 @@ public class PrecisionScorer extends MetricScorer {
 			if(rl.get(i).getLabel() > 0.0)//relevant
 				relCount++;*/
 		
-		double[][] changes = new double[rl.size()][];
-		for(int i=0;i<rl.size();i++)
-		{
-			changes[i] = new double[rl.size()];
-			Arrays.fill(changes[i], 0);
-		}
-		
-		for(int i=0;i<size;i++)
+		for(int i=0;i<Math.min(size, limit);i++)
 		{
 			for(int j=size;j<rl.size();j++)
 			{
 				int c = getBinaryRelevance(rl.get(j).getLabel()) - getBinaryRelevance(rl.get(i).getLabel()); 
-				changes[i][j] = changes[j][i] = ((float)c)/size;
+				listener.swapChange(i, j, ((float)c)/size);
 			}
 		}			
-		return changes;
 	}
 	private int getBinaryRelevance(float label)
 	{
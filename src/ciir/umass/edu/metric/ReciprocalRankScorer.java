@@ -37,6 +37,10 @@ public class ReciprocalRankScorer extends MetricScorer {
 	{
 		return new ReciprocalRankScorer();
 	}
+	public int getRankingDepth()
+	{
+		return k;
+	}
 	public String name()
 	{
 		return "RR@"+k;
@@ -37,4 +37,37 @@ public class SPEARScorer extends CORRScorer {
     {
         return pear.correlation(known, pred);
     }
+
+    public CorrelationAccumulator newAccumulator()
+    {
+        return new CorrelationAccumulator() {
+            private double[] labelRanks = new double[0];
+            private double[] predictionRanks = new double[0];
+
+            public double score()
+            {
+                if (allSame(labels, n))
+                    return 0;
+                return pearson(labelValues(), predictionValues(), n);
+            }
+
+            /**
+             * Spearman's rho is Pearson's r of the ranks (ties get their average rank, as in {@link SpearmansCorrelation})
+             */
+            public double[] labelValues()
+            {
+                if (labelRanks.length < n)
+                    labelRanks = new double[labels.length];
+                rank(labels, n, labelRanks);
+                return labelRanks;
+            }
+            public double[] predictionValues()
+            {
+                if (predictionRanks.length < n)
+                    predictionRanks = new double[labels.length];
+                rank(predictions, n, predictionRanks);
+                return predictionRanks;
+            }
+        };
+    }
 }
@@ -0,0 +1,22 @@
+/*===============================================================================
+ * Copyright (c) 2010-2016 University of Massachusetts.  All Rights Reserved.
+ *
+ * Use of the RankLib package is subject to the terms of the software license set
+ * forth in the LICENSE file included with this software, and also available at
+ * http://people.cs.umass.edu/~vdang/ranklib_license.html
+ *===============================================================================
+ */
+
+package ciir.umass.edu.metric;
+
+/**
+ * Receives the swap changes reported by {@link MetricScorer#swapChange(ciir.umass.edu.learning.RankList, int, SwapChangeListener)}.
+ */
+public interface SwapChangeListener {
+	/**
+	 * @param i Position of the first document in the ranked list.
+	 * @param j Position of the second document (j &gt; i).
+	 * @param change Change in the metric if the two documents are swapped.
+	 */
+	public void swapChange(int i, int j, double change);
+}
@@ -134,8 +134,16 @@ public class MergeSorter {
 	public static int[] sort(double[] list, int begin, int end, boolean asc)
 	{
 		int len = end - begin + 1;
-		int[] idx = new int[len];
-		int[] tmp = new int[len];
+		return sort(list, begin, end, asc, new int[len], new int[len], new int[len/2+3]);
+	}
+	/**
+	 * Same as {@link #sort(double[], int, int, boolean)}, but with caller-provided buffers so that nothing is allocated:
+	 * @idx and @tmp must hold at least end-begin+1 elements, and @ph at least (end-begin+1)/2+3.
+	 * @return @idx, whose first end-begin+1 elements are the sorted indexes.
+	 */
+	public static int[] sort(double[] list, int begin, int end, boolean asc, int[] idx, int[] tmp, int[] ph)
+	{
+		int len = end - begin + 1;
 		for(int i=begin;i<=end;i++)
 			idx[i-begin] = i;
 		
@@ -144,13 +152,12 @@ public class MergeSorter {
 		int j=0;
 		int k=0;
 		int start= 0;
-		int[] ph = new int[len/2+3];
 		ph[0] = 0;
 		int p=1;
 		do {
 			start = i-1;
-			while(i < idx.length && ((asc && list[begin+i] >= list[begin+i-1]) || (!asc && list[begin+i] <= list[begin+i-1]))) i++;
-			if(i == idx.length)
+			while(i < len && ((asc && list[begin+i] >= list[begin+i-1]) || (!asc && list[begin+i] <= list[begin+i-1]))) i++;
+			if(i == len)
 			{
 				System.arraycopy(idx, start, tmp, k, i-start);
 				k = i;
@@ -158,20 +165,20 @@ public class MergeSorter {
 			else
 			{
 				j=i+1;
-				while(j < idx.length && ((asc && list[begin+j] >= list[begin+j-1]) || (!asc && list[begin+j] <= list[begin+j-1]))) j++;
+				while(j < len && ((asc && list[begin+j] >= list[begin+j-1]) || (!asc && list[begin+j] <= list[begin+j-1]))) j++;
 				merge(list, idx, start, i-1, i, j-1, tmp, k, asc);
 				i = j+1;
 				k=j;				
 			}
 			ph[p++] = k;
-		}while(k < idx.length);
-		System.arraycopy(tmp, 0, idx, 0, idx.length);
+		}while(k < len);
+		System.arraycopy(tmp, 0, idx, 0, len);
 		
 		//subsequent iterations
 		while(p > 2)
 		{
 			if(p % 2 == 0)
-				ph[p++] = idx.length;
+				ph[p++] = len;
 			k=0;
 			int np = 1;
 			for(int w=0;w<p-1;w+=2)
@@ -181,10 +188,83 @@ public class MergeSorter {
 				ph[np++] = k;				
 			}
 			p = np;
-			System.arraycopy(tmp, 0, idx, 0, idx.length);
+			System.arraycopy(tmp, 0, idx, 0, len);
 		}		
 		return idx;
 	}
+	/**
+	 * Same as {@link #sort(double[], int, int, boolean)} in descending order, but only the first @k indexes are sorted: they are the same
+	 * as with the full sort (ties are kept in their original order), and the other indexes follow in their original order.
+	 * The top @k are selected with a bounded heap in O(n.log(k)). If @k &lt;= 0 or is not small compared to the list, this is a full sort.
+	 */
+	public static int[] sortTop(double[] list, int begin, int end, int k)
+	{
+		int len = end - begin + 1;
+		if(k <= 0 || k >= len/2)
+			return sort(list, begin, end, false);
+
+		//min-heap of the best k so far, rooted at the worst of them (lowest value, then highest index)
+		int[] heap = new int[k];
+		int size = 0;
+		for(int i=begin;i<=end;i++)
+		{
+			if(size < k)
+			{
+				int c = size++;
+				while(c > 0)
+				{
+					int parent = (c - 1) / 2;
+					if(!worse(list, i, heap[parent]))
+						break;
+					heap[c] = heap[parent];
+					c = parent;
+				}
+				heap[c] = i;
+			}
+			else if(list[i] > list[heap[0]])//ties are not better since they come later
+				siftDown(list, heap, size, i);
+		}
+
+		int[] idx = new int[len];
+		boolean[] top = new boolean[len];
+		//pop the worst first
+		for(int p=k-1;p>=0;p--)
+		{
+			idx[p] = heap[0];
+			top[heap[0]-begin] = true;
+			if(p > 0)
+				siftDown(list, heap, p, heap[p]);
+		}
+		int p = k;
+		for(int i=begin;i<=end;i++)
+			if(!top[i-begin])
+				idx[p++] = i;
+		return idx;
+	}
+	private static boolean worse(double[] list, int a, int b)
+	{
+		return list[a] < list[b] || (list[a] == list[b] && a > b);
+	}
+	/**
+	 * Replace the root of @heap (of @size elements) with @x and restore the heap.
+	 */
+	private static void siftDown(double[] list, int[] heap, int size, int x)
+	{
+		int c = 0;
+		while(true)
+		{
+			int child = 2 * c + 1;
+			if(child >= size)
+				break;
+			if(child + 1 < size && worse(list, heap[child+1], heap[child]))
+				child++;
+			if(!worse(list, heap[child], x))
+				break;
+			heap[c] = heap[child];
+			c = child;
+		}
+		heap[c] = x;
+	}
 	private static void merge(double[] list, int[] idx, int s1, int e1, int s2, int e2, int[] tmp, int l, boolean asc)
 	{
 		int i=s1;
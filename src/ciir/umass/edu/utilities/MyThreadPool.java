@@ -22,6 +22,7 @@ import java.util.concurrent.TimeUnit;
 public class MyThreadPool extends ThreadPoolExecutor {
 
 	private final Semaphore semaphore;
+	private final ThreadLocal<Boolean> workerThread = new ThreadLocal<Boolean>();
 	private int size = 0;
 	
 	private MyThreadPool(int size)
@@ -102,6 +103,19 @@ public class MyThreadPool extends ThreadPoolExecutor {
 			throw RankLibError.create("Error in MyThreadPool.execute(): ", ex);
 		}
 	}
+	/**
+	 * @return true if the calling thread belongs to the pool. Tasks running in the pool must not submit work to it and wait for it (see {@link #await()}).
+	 */
+	public boolean isWorkerThread()
+	{
+		return workerThread.get() != null;
+	}
+	
+	protected void beforeExecute(Thread t, Runnable r)
+	{
+		super.beforeExecute(t, r);
+		workerThread.set(Boolean.TRUE);
+	}
 	protected void afterExecute(Runnable r, Throwable t)
 	{
 		super.afterExecute(r, t);
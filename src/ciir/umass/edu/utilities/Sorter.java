@@ -8,426 +8,223 @@
  */
 
 package ciir.umass.edu.utilities;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
-import java.util.ArrayList;
+import java.util.Random;
 /**
  * This class contains the implementation of some simple sorting algorithms.
+ * All of them are stable: elements with the same value keep their original order.
  * @author Van Dang
  * @version 1.3 (July 29, 2008)
  */
 public class Sorter {
 	/**
-	 * Sort a double array using Interchange sort.
+	 * Sort a double array using Merge sort.
 	 * @param sortVal The double array to be sorted. 
 	 * @param asc TRUE to sort ascendingly, FALSE to sort descendingly.
 	 * @return The sorted indexes.
 	 */
 	public static int[] sort(double[] sortVal, boolean asc)
 	{
-		int[] freqIdx = new int[sortVal.length];
-		for(int i=0;i<sortVal.length;i++)
-			freqIdx[i] = i;
-		for(int i=0;i<sortVal.length-1;i++)
-		{
-			int max = i;
-			for(int j=i+1;j<sortVal.length;j++)
-			{
-				if(asc)
-				{
-					if(sortVal[freqIdx[max]] > sortVal[freqIdx[j]])
-						max = j;
-				}
-				else
-				{
-					if(sortVal[freqIdx[max]] <  sortVal[freqIdx[j]])
-						max = j;
-				}
-			}
-			//swap
-			int tmp = freqIdx[i];
-			freqIdx[i] = freqIdx[max];
-			freqIdx[max] = tmp;
-		}
-		return freqIdx;
+		if(sortVal.length < 2)
+			return identity(sortVal.length);
+		return MergeSorter.sort(sortVal, asc);
 	}
 	public static int[] sort(float[] sortVal, boolean asc)
 	{
-		int[] freqIdx = new int[sortVal.length];
-		for(int i=0;i<sortVal.length;i++)
-			freqIdx[i] = i;
-		for(int i=0;i<sortVal.length-1;i++)
-		{
-			int max = i;
-			for(int j=i+1;j<sortVal.length;j++)
-			{
-				if(asc)
-				{
-					if(sortVal[freqIdx[max]] > sortVal[freqIdx[j]])
-						max = j;
-				}
-				else
-				{
-					if(sortVal[freqIdx[max]] <  sortVal[freqIdx[j]])
-						max = j;
-				}
-			}
-			//swap
-			int tmp = freqIdx[i];
-			freqIdx[i] = freqIdx[max];
-			freqIdx[max] = tmp;
-		}
-		return freqIdx;
+		if(sortVal.length < 2)
+			return identity(sortVal.length);
+		return MergeSorter.sort(sortVal, asc);
 	}
 	/**
-	 * Sort an integer array using Quick Sort.
+	 * Sort an integer array using Counting sort if the values are within a small range (e.g. relevance labels), Merge sort otherwise.
 	 * @param sortVal The integer array to be sorted.
 	 * @param asc TRUE to sort ascendingly, FALSE to sort descendingly.
 	 * @return The sorted indexes.
 	 */
 	public static int[] sort(int[] sortVal, boolean asc)
 	{
-		return qSort(sortVal, asc);
+		int n = sortVal.length;
+		if(n < 2)
+			return identity(n);
+		int min = sortVal[0];
+		int max = sortVal[0];
+		for(int i=1;i<n;i++)
+		{
+			if(min > sortVal[i])
+				min = sortVal[i];
+			else if(max < sortVal[i])
+				max = sortVal[i];
+		}
+		long range = (long)max - min + 1;
+		if(range > Math.max(1024, 2L * n))
+		{
+			double[] v = new double[n];//exact: any int is a double
+			for(int i=0;i<n;i++)
+				v[i] = sortVal[i];
+			return MergeSorter.sort(v, asc);
+		}
+
+		//start[v]: first position of value (min+v) in the sorted order
+		int[] start = new int[(int)range + 1];
+		for(int i=0;i<n;i++)
+			start[asc ? sortVal[i] - min + 1 : max - sortVal[i] + 1]++;
+		for(int v=1;v<start.length;v++)
+			start[v] += start[v-1];
+		int[] idx = new int[n];
+		for(int i=0;i<n;i++)
+			idx[start[asc ? sortVal[i] - min : max - sortVal[i]]++] = i;
+		return idx;
 	}
 	/**
-	 * Sort an integer array using Quick Sort.
+	 * Sort a list of integers (see {@link #sort(int[], boolean)}).
 	 * @param sortVal The integer array to be sorted.
 	 * @param asc TRUE to sort ascendingly, FALSE to sort descendingly.
 	 * @return The sorted indexes.
 	 */
 	public static int[] sort(List<Integer> sortVal, boolean asc)
 	{
-		return qSort(sortVal, asc);
+		int[] v = new int[sortVal.size()];
+		for(int i=0;i<v.length;i++)
+			v[i] = sortVal.get(i);
+		return sort(v, asc);
 	}
 	public static int[] sortString(List<String> sortVal, boolean asc)
 	{
-		return qSortString(sortVal, asc);
-	}
-	/**
-	 * Sort an long array using Quick Sort.
-	 * @param sortVal The long array to be sorted.
-	 * @param asc TRUE to sort ascendingly, FALSE to sort descendingly.
-	 * @return The sorted indexes.
-	 */
-	public static int[] sortLong(List<Long> sortVal, boolean asc)
-	{
-		return qSortLong(sortVal, asc);
-	}
-	/**
-	 * Sort an double array using Quick Sort.
-	 * @param sortVal The double array to be sorted.
-	 * @return The sorted indexes.
-	 */
-	public static int[] sortDesc(List<Double> sortVal)
-	{
-		return qSortDouble(sortVal, false);
-	}
-	
-	private static long count = 0;
-	/**
-	 * Quick sort internal
-	 * @param l The list to sort.
-	 * @param asc Ascending/Descendingly parameter.
-	 * @return The sorted indexes.
-	 */
-	private static int[] qSort(List<Integer> l, boolean asc)
-	{
-		count = 0;
-		int[] idx = new int[l.size()];
-		List<Integer> idxList = new ArrayList<Integer>();
-		for(int i=0;i<l.size();i++)
-			idxList.add(i);
-		//System.out.print("Sorting...");
-		idxList = qSort(l, idxList, asc);
-		for(int i=0;i<l.size();i++)
-			idx[i] = idxList.get(i);
-		//System.out.println("[Done.]");
-		return idx;
-	}
-	private static int[] qSortString(List<String> l, boolean asc)
-	{
-		count = 0;
-		int[] idx = new int[l.size()];
-		List<Integer> idxList = new ArrayList<Integer>();
-		for(int i=0;i<l.size();i++)
-			idxList.add(i);
 		System.out.print("Sorting...");
-		idxList = qSortString(l, idxList, asc);
-		for(int i=0;i<l.size();i++)
-			idx[i] = idxList.get(i);
+		int[] idx = sortComparable(sortVal, asc);
 		System.out.println("[Done.]");
 		return idx;
 	}
 	/**
-	 * Quick sort internal
-	 * @param l The list to sort.
-	 * @param asc Ascending/Descendingly parameter.
+	 * Sort a list of longs.
+	 * @param sortVal The long array to be sorted.
+	 * @param asc TRUE to sort ascendingly, FALSE to sort descendingly.
 	 * @return The sorted indexes.
 	 */
-	private static int[] qSortLong(List<Long> l, boolean asc)
+	public static int[] sortLong(List<Long> sortVal, boolean asc)
 	{
-		count = 0;
-		int[] idx = new int[l.size()];
-		List<Integer> idxList = new ArrayList<Integer>();
-		for(int i=0;i<l.size();i++)
-			idxList.add(i);
 		System.out.print("Sorting...");
-		idxList = qSortLong(l, idxList, asc);
-		for(int i=0;i<l.size();i++)
-			idx[i] = idxList.get(i);
+		int[] idx = sortComparable(sortVal, asc);
 		System.out.println("[Done.]");
 		return idx;
 	}
 	/**
-	 * Quick sort internal
-	 * @param l The list to sort.
-	 * @param asc Ascending/Descendingly parameter.
+	 * Sort a list of doubles in descending order.
+	 * @param sortVal The double array to be sorted.
 	 * @return The sorted indexes.
 	 */
-	private static int[] qSortDouble(List<Double> l, boolean asc)
+	public static int[] sortDesc(List<Double> sortVal)
 	{
-		count = 0;
-		int[] idx = new int[l.size()];
-		List<Integer> idxList = new ArrayList<Integer>();
-		for(int i=0;i<l.size();i++)
-			idxList.add(i);
-		//System.out.print("Sorting...");
-		idxList = qSortDouble(l, idxList, asc);
-		for(int i=0;i<l.size();i++)
-			idx[i] = idxList.get(i);
-		//System.out.println("[Done.]");
-		return idx;
+		double[] v = new double[sortVal.size()];
+		for(int i=0;i<v.length;i++)
+			v[i] = sortVal.get(i);
+		return sort(v, false);
 	}
-	/**
-	 * Sort an integer array using Quick Sort.
-	 * @param l The integer array to be sorted.
-	 * @param asc TRUE to sort ascendingly, FALSE to sort descendingly.
-	 * @return The sorted indexes.
-	 */
-	private static int[] qSort(int[] l, boolean asc)
+
+	private static int[] identity(int n)
 	{
-		count = 0;
-		int[] idx = new int[l.length];
-		List<Integer> idxList = new ArrayList<Integer>();
-		for(int i=0;i<l.length;i++)
-			idxList.add(i);
-		//System.out.print("Sorting...");
-		idxList = qSort(l, idxList, asc);
-		for(int i=0;i<l.length;i++)
-			idx[i] = idxList.get(i);
-		//System.out.println("[Done.]");
+		int[] idx = new int[n];
+		for(int i=0;i<n;i++)
+			idx[i] = i;
 		return idx;
 	}
 	/**
-	 * Quick sort internal.
-	 * @param l
-	 * @param idxList
-	 * @param asc
-	 * @return  The sorted indexes.
-	 */
-	private static List<Integer> qSort(List<Integer> l, List<Integer> idxList, boolean asc)
-	{
-		int mid = idxList.size()/2;
-		List<Integer> left = new ArrayList<Integer>();
-		List<Integer> right = new ArrayList<Integer>();
-		List<Integer> pivot = new ArrayList<Integer>();
-		for(int i=0;i<idxList.size();i++)
-		{
-			if(l.get(idxList.get(i)) > l.get(idxList.get(mid)))
-			{
-				if(asc)
-					right.add(idxList.get(i));
-				else
-					left.add(idxList.get(i));
-			}
-			else if(l.get(idxList.get(i)) < l.get(idxList.get(mid)))
-			{
-				if(asc)
-					left.add(idxList.get(i));
-				else
-					right.add(idxList.get(i));
-			}
-			else
-				pivot.add(idxList.get(i));
-		}
-		count++;
-		if(left.size() > 1)
-			left = qSort(l, left, asc);
-		count++;
-		if(right.size() > 1)
-			right = qSort(l, right, asc);
-		List<Integer> newIdx = new ArrayList<Integer>();
-		newIdx.addAll(left);
-		newIdx.addAll(pivot);
-		newIdx.addAll(right);
-		return newIdx;
-	}
-	private static List<Integer> qSortString(List<String> l, List<Integer> idxList, boolean asc)
-	{
-		int mid = idxList.size()/2;
-		List<Integer> left = new ArrayList<Integer>();
-		List<Integer> right = new ArrayList<Integer>();
-		List<Integer> pivot = new ArrayList<Integer>();
-		for(int i=0;i<idxList.size();i++)
-		{
-			if(l.get(idxList.get(i)).compareTo(l.get(idxList.get(mid)))>0)
-			{
-				if(asc)
-					right.add(idxList.get(i));
-				else
-					left.add(idxList.get(i));
-			}
-			else if(l.get(idxList.get(i)).compareTo(l.get(idxList.get(mid)))<0)
-			{
-				if(asc)
-					left.add(idxList.get(i));
-				else
-					right.add(idxList.get(i));
-			}
-			else
-				pivot.add(idxList.get(i));
-		}
-		count++;
-		if(left.size() > 1)
-			left = qSortString(l, left, asc);
-		count++;
-		if(right.size() > 1)
-			right = qSortString(l, right, asc);
-		List<Integer> newIdx = new ArrayList<Integer>();
-		newIdx.addAll(left);
-		newIdx.addAll(pivot);
-		newIdx.addAll(right);
-		return newIdx;
-	}
-	/**
-	 * Quick sort internal.
-	 * @param l
-	 * @param idxList
-	 * @param asc
-	 * @return The sorted indexes.
+	 * Stable sort of the indexes of @l (Arrays.sort on objects is a merge sort).
 	 */
-	private static List<Integer> qSort(int[] l, List<Integer> idxList, boolean asc)
+	private static <T extends Comparable<T>> int[] sortComparable(final List<T> l, final boolean asc)
 	{
-		int mid = idxList.size()/2;
-		List<Integer> left = new ArrayList<Integer>();
-		List<Integer> right = new ArrayList<Integer>();
-		List<Integer> pivot = new ArrayList<Integer>();
-		for(int i=0;i<idxList.size();i++)
-		{
-			if(l[idxList.get(i)] > l[idxList.get(mid)])
+		Integer[] idx = new Integer[l.size()];
+		for(int i=0;i<idx.length;i++)
+			idx[i] = i;
+		Arrays.sort(idx, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b)
 			{
-				if(asc)
-					right.add(idxList.get(i));
-				else
-					left.add(idxList.get(i));
-			}
-			else if(l[idxList.get(i)] < l[idxList.get(mid)])
-			{
-				if(asc)
-					left.add(idxList.get(i));
-				else
-					right.add(idxList.get(i));
+				int c = l.get(a).compareTo(l.get(b));
+				return asc ? c : -c;
 			}
-			else
-				pivot.add(idxList.get(i));
-		}
-		count++;
-		if(left.size() > 1)
-			left = qSort(l, left, asc);
-		count++;
-		if(right.size() > 1)
-			right = qSort(l, right, asc);
-		List<Integer> newIdx = new ArrayList<Integer>();
-		newIdx.addAll(left);
-		newIdx.addAll(pivot);
-		newIdx.addAll(right);
-		return newIdx;
+		});
+		int[] r = new int[idx.length];
+		for(int i=0;i<idx.length;i++)
+			r[i] = idx[i];
+		return r;
 	}
+
 	/**
-	 * Quick sort internal.
-	 * @param l
-	 * @param idxList
-	 * @param asc
-	 * @return  The sorted indexes.
+	 * Microbenchmark against the former O(n^2) interchange sort.
+	 * Usage: Sorter [list size] [number of distinct labels] [repetitions]
 	 */
-	private static List<Integer> qSortDouble(List<Double> l, List<Integer> idxList, boolean asc)
+	public static void main(String[] args)
 	{
-		int mid = idxList.size()/2;
-		List<Integer> left = new ArrayList<Integer>();
-		List<Integer> right = new ArrayList<Integer>();
-		List<Integer> pivot = new ArrayList<Integer>();
-		for(int i=0;i<idxList.size();i++)
+		int n = (args.length > 0) ? Integer.parseInt(args[0]) : 10000;
+		int nLabels = (args.length > 1) ? Integer.parseInt(args[1]) : 5;
+		int reps = (args.length > 2) ? Integer.parseInt(args[2]) : 5;
+
+		Random rd = new Random(1);
+		double[] d = new double[n];
+		int[] labels = new int[n];
+		for(int i=0;i<n;i++)
 		{
-			if(l.get(idxList.get(i)) > l.get(idxList.get(mid)))
-			{
-				if(asc)
-					right.add(idxList.get(i));
-				else
-					left.add(idxList.get(i));
-			}
-			else if(l.get(idxList.get(i)) < l.get(idxList.get(mid)))
-			{
-				if(asc)
-					left.add(idxList.get(i));
-				else
-					right.add(idxList.get(i));
-			}
-			else
-				pivot.add(idxList.get(i));
+			d[i] = rd.nextDouble();
+			labels[i] = rd.nextInt(nLabels);
 		}
-		count++;
-		if(left.size() > 1)
-			left = qSortDouble(l, left, asc);
-		count++;
-		if(right.size() > 1)
-			right = qSortDouble(l, right, asc);
-		List<Integer> newIdx = new ArrayList<Integer>();
-		newIdx.addAll(left);
-		newIdx.addAll(pivot);
-		newIdx.addAll(right);
-		return newIdx;
-	}
-	/**
-	 * Quick sort internal.
-	 * @param l
-	 * @param idxList
-	 * @param asc
-	 * @return The sorted indexes.
-	 */
-	private static List<Integer> qSortLong(List<Long> l, List<Integer> idxList, boolean asc)
-	{
-		int mid = idxList.size()/2;
-		List<Integer> left = new ArrayList<Integer>();
-		List<Integer> right = new ArrayList<Integer>();
-		List<Integer> pivot = new ArrayList<Integer>();
-		for(int i=0;i<idxList.size();i++)
+		double[] l = new double[n];
+		for(int i=0;i<n;i++)
+			l[i] = labels[i];
+
+		int[] a = null;
+		int[] b = null;
+		long start = System.nanoTime();
+		for(int r=0;r<reps;r++)
+			a = sort(d, false);
+		double mergeTime = (System.nanoTime() - start) / 1e9 / reps;
+		start = System.nanoTime();
+		for(int r=0;r<reps;r++)
+			b = interchangeSort(d, false);
+		double oldTime = (System.nanoTime() - start) / 1e9 / reps;
+		System.out.println("double[] n=" + n + ": merge sort " + mergeTime + "s; interchange sort " + oldTime + "s" + (sameValues(d, a, b) ? "" : " [MISMATCH]"));
+
+		start = System.nanoTime();
+		for(int r=0;r<reps;r++)
+			a = sort(labels, false);
+		double countingTime = (System.nanoTime() - start) / 1e9 / reps;
+		start = System.nanoTime();
+		for(int r=0;r<reps;r++)
+			b = interchangeSort(l, false);
+		oldTime = (System.nanoTime() - start) / 1e9 / reps;
+		System.out.println("int[] labels n=" + n + ": counting sort " + countingTime + "s; interchange sort " + oldTime + "s" + (sameValues(l, a, b) ? "" : " [MISMATCH]"));
+	}
+	private static boolean sameValues(double[] v, int[] a, int[] b)
+	{
+		for(int i=0;i<v.length;i++)
+			if(v[a[i]] != v[b[i]])
+				return false;
+		return true;
+	}
+	private static int[] interchangeSort(double[] sortVal, boolean asc)
+	{
+		int[] freqIdx = identity(sortVal.length);
+		for(int i=0;i<sortVal.length-1;i++)
 		{
-			if(l.get(idxList.get(i)) > l.get(idxList.get(mid)))
-			{
-				if(asc)
-					right.add(idxList.get(i));
-				else
-					left.add(idxList.get(i));
-			}
-			else if(l.get(idxList.get(i)) < l.get(idxList.get(mid)))
+			int max = i;
+			for(int j=i+1;j<sortVal.length;j++)
 			{
 				if(asc)
-					left.add(idxList.get(i));
+				{
+					if(sortVal[freqIdx[max]] > sortVal[freqIdx[j]])
+						max = j;
+				}
 				else
-					right.add(idxList.get(i));
+				{
+					if(sortVal[freqIdx[max]] <  sortVal[freqIdx[j]])
+						max = j;
+				}
 			}
-			else
-				pivot.add(idxList.get(i));
+			int tmp = freqIdx[i];
+			freqIdx[i] = freqIdx[max];
+			freqIdx[max] = tmp;
 		}
-		count++;
-		if(left.size() > 1)
-			left = qSortLong(l, left, asc);
-		count++;
-		if(right.size() > 1)
-			right = qSortLong(l, right, asc);
-		List<Integer> newIdx = new ArrayList<Integer>();
-		newIdx.addAll(left);
-		newIdx.addAll(pivot);
-		newIdx.addAll(right);
-		return newIdx;
+		return freqIdx;
 	}
 }
@@ -0,0 +1,188 @@
+package ciir.umass.edu.features;
+
+import ciir.umass.edu.eval.Evaluator;
+import ciir.umass.edu.learning.DataPoint;
+import ciir.umass.edu.learning.RANKER_TYPE;
+import ciir.umass.edu.learning.RankList;
+import ciir.umass.edu.utilities.TmpFile;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the binary cache written with -cache reads back exactly like the text file it was made from.
+ */
+public class BinaryFeatureFileTest {
+  // DataPoint keeps the largest feature id ever read in a global, so this stays within the 2 features used by the other tests
+  private static final String[] DATA = {
+      "2 qid:1 1:0.5 2:-1.25 # doc1",
+      "0 qid:1 2:0.75 # doc2 with a:colon",
+      "1 qid:1 1:1e-3 # doc3",
+      "0 qid:2 1:0.1 2:0.2 # doc4",
+      "3 qid:2 2:7",
+      "0 qid:3 1:-0.123456789 # doc6",
+  };
+
+  private static final String[] CHANGED = {
+      "1 qid:7 1:9 2:8 # changed1",
+      "0 qid:7 2:1 # changed2",
+  };
+
+  @Test
+  public void testDenseRoundTrip() throws IOException {
+    checkRoundTrip(false);
+  }
+
+  @Test
+  public void testSparseRoundTrip() throws IOException {
+    checkRoundTrip(true);
+  }
+
+  @Test
+  public void testStreamingConvert() throws IOException {
+    try (TmpFile dataFile = new TmpFile();
+         TmpFile fromLists = new TmpFile();
+         TmpFile fromText = new TmpFile()) {
+      File bin = new File(BinaryFeatureFile.cacheName(dataFile.getPath()));
+      synchronized (DataPoint.class) {
+        boolean oldCache = Evaluator.cacheInput;
+        try {
+          write(dataFile, DATA);
+          dataFile.get().setLastModified(System.currentTimeMillis() - 60000);
+          List<RankList> text = FeatureManager.readInput(dataFile.getPath());
+
+          // streaming the text file gives the same file as writing the lists loaded in memory
+          BinaryFeatureFile.write(text, fromLists.getPath());
+          BinaryFeatureFile.convert(dataFile.getPath(), fromText.getPath());
+          assertArrayEquals(Files.readAllBytes(fromLists.get().toPath()), Files.readAllBytes(fromText.get().toPath()));
+
+          // openInput() with -cache writes the binary copy, then reads from it
+          Evaluator.cacheInput = true;
+          Evaluator ev = new Evaluator(RANKER_TYPE.COOR_ASCENT, "MAP", "MAP");
+          List<RankList> streamed = new ArrayList<>();
+          try (RankListReader in = ev.openInput(dataFile.getPath())) {
+            assertTrue(BinaryFeatureFile.isFresh(dataFile.getPath()));
+            while (in.hasNext()) {
+              streamed.add(in.next());
+            }
+          }
+          assertSameLists(text, streamed);
+          assertArrayEquals(Files.readAllBytes(fromText.get().toPath()), Files.readAllBytes(bin.toPath()));
+        } finally {
+          Evaluator.cacheInput = oldCache;
+          bin.delete();
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testStaleCacheIgnored() throws IOException {
+    try (TmpFile dataFile = new TmpFile()) {
+      File text = dataFile.get();
+      File bin = new File(BinaryFeatureFile.cacheName(dataFile.getPath()));
+      synchronized (DataPoint.class) {
+        boolean oldCache = Evaluator.cacheInput;
+        try {
+          write(dataFile, DATA);
+          text.setLastModified(System.currentTimeMillis() - 60000);
+          Evaluator.cacheInput = true;
+          Evaluator ev = new Evaluator(RANKER_TYPE.COOR_ASCENT, "MAP", "MAP");
+          ev.readInput(dataFile.getPath());
+          assertTrue(BinaryFeatureFile.isFresh(dataFile.getPath()));
+
+          // the text file changes after the cache was written: the cache must not be used anymore
+          write(dataFile, CHANGED);
+          bin.setLastModified(text.lastModified() - 60000);
+          assertFalse(BinaryFeatureFile.isFresh(dataFile.getPath()));
+
+          Evaluator.cacheInput = false;
+          assertSameLists(FeatureManager.readInput(dataFile.getPath()), ev.readInput(dataFile.getPath()));
+          assertEquals("7", ev.readInput(dataFile.getPath()).get(0).getID());
+
+          // with -cache, the stale copy is replaced
+          text.setLastModified(System.currentTimeMillis() - 60000);
+          Evaluator.cacheInput = true;
+          ev.readInput(dataFile.getPath());
+          assertTrue(BinaryFeatureFile.isFresh(dataFile.getPath()));
+          Evaluator.cacheInput = false;
+          assertSameLists(FeatureManager.readInput(dataFile.getPath()), ev.readInput(dataFile.getPath()));
+        } finally {
+          Evaluator.cacheInput = oldCache;
+          bin.delete();
+        }
+      }
+    }
+  }
+
+  private static void checkRoundTrip(boolean sparse) throws IOException {
+    try (TmpFile dataFile = new TmpFile()) {
+      File bin = new File(BinaryFeatureFile.cacheName(dataFile.getPath()));
+      synchronized (DataPoint.class) {
+        boolean oldCache = Evaluator.cacheInput;
+        boolean oldSparse = Evaluator.useSparseRepresentation;
+        try {
+          write(dataFile, DATA);
+          dataFile.get().setLastModified(System.currentTimeMillis() - 60000);
+          Evaluator.useSparseRepresentation = sparse;
+          Evaluator.cacheInput = true;
+          Evaluator ev = new Evaluator(RANKER_TYPE.COOR_ASCENT, "MAP", "MAP");
+
+          List<RankList> text = FeatureManager.readInput(dataFile.getPath(), false, sparse);
+          // the first read writes the cache, the second one reads it
+          assertSameLists(text, ev.readInput(dataFile.getPath()));
+          assertTrue(bin.isFile());
+          assertTrue(BinaryFeatureFile.isFresh(dataFile.getPath()));
+          assertSameLists(text, ev.readInput(dataFile.getPath()));
+          assertSameLists(text, BinaryFeatureFile.read(bin.getPath(), false, sparse));
+        } finally {
+          Evaluator.cacheInput = oldCache;
+          Evaluator.useSparseRepresentation = oldSparse;
+          bin.delete();
+        }
+      }
+    }
+  }
+
+  private static void write(TmpFile file, String[] lines) throws IOException {
+    try (PrintWriter out = file.getWriter()) {
+      for (String line : lines) {
+        out.println(line);
+      }
+    }
+  }
+
+  static void assertSameLists(List<RankList> expected, List<RankList> actual) {
+    assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      RankList e = expected.get(i);
+      RankList a = actual.get(i);
+      assertEquals(e.getID(), a.getID());
+      assertEquals(e.size(), a.size());
+      for (int j = 0; j < e.size(); j++) {
+        assertSameDataPoint(e.get(j), a.get(j));
+      }
+    }
+  }
+
+  static void assertSameDataPoint(DataPoint expected, DataPoint actual) {
+    assertEquals(expected.getID(), actual.getID());
+    assertEquals(expected.getLabel(), actual.getLabel(), 0.0f);
+    assertEquals(expected.getDescription(), actual.getDescription());
+    // vectors may differ in length only by trailing unknown (NaN) features
+    float[] e = expected.getFeatureVector();
+    float[] a = actual.getFeatureVector();
+    for (int f = 1; f < Math.max(e.length, a.length); f++) {
+      float ef = (f < e.length) ? e[f] : Float.NaN;
+      float af = (f < a.length) ? a[f] : Float.NaN;
+      assertEquals("feature " + f + " of " + expected, Float.floatToIntBits(ef), Float.floatToIntBits(af));
+    }
+  }
+}
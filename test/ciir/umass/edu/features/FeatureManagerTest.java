@@ -0,0 +1,102 @@
+package ciir.umass.edu.features;
+
+import ciir.umass.edu.learning.DataPoint;
+import ciir.umass.edu.learning.RankList;
+import ciir.umass.edu.utilities.TmpFile;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static ciir.umass.edu.features.BinaryFeatureFileTest.assertSameLists;
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the parallel reader splits files on query boundaries and returns the lists of the sequential reader, in order.
+ */
+public class FeatureManagerTest {
+  // Query "big" holds most of the file, so the evenly spaced split points fall in the middle of it; "a" comes back after it.
+  private static final String[] QIDS = {"a", "big", "c", "norel", "a", "e"};
+  private static final int[] SIZES = {5, 400, 7, 6, 3, 40};
+
+  @Test
+  public void testReadInputParallelDense() throws IOException {
+    List<RankList> lists = checkParallel(QIDS, SIZES, false, false);
+    assertEquals(6, lists.size());
+    assertEquals("a", lists.get(0).getID());
+    assertEquals(400, lists.get(1).size());
+    assertEquals("a", lists.get(4).getID());
+  }
+
+  @Test
+  public void testReadInputParallelSparse() throws IOException {
+    assertEquals(6, checkParallel(QIDS, SIZES, true, false).size());
+  }
+
+  @Test
+  public void testReadInputParallelMustHaveRelDoc() throws IOException {
+    List<RankList> lists = checkParallel(QIDS, SIZES, false, true);
+    assertEquals(5, lists.size());
+    assertEquals("a", lists.get(3).getID());
+  }
+
+  @Test
+  public void testReadInputParallelSingleQuery() throws IOException {
+    List<RankList> lists = checkParallel(new String[]{"only"}, new int[]{600}, false, false);
+    assertEquals(1, lists.size());
+    assertEquals(600, lists.get(0).size());
+  }
+
+  @Test
+  public void testReadInputParallelPrefixIds() throws IOException {
+    // ids that are prefixes of each other must still be told apart
+    List<RankList> lists = checkParallel(new String[]{"1", "10", "1", "11", "110"}, new int[]{50, 120, 60, 90, 70}, false, false);
+    assertEquals(5, lists.size());
+    assertEquals("10", lists.get(1).getID());
+    assertEquals("110", lists.get(4).getID());
+  }
+
+  private static void writeData(TmpFile dataFile, String[] qids, int[] sizes) throws IOException {
+    try (PrintWriter out = dataFile.getWriter()) {
+      Random rand = new Random(42);
+      for (int q = 0; q < qids.length; q++) {
+        for (int i = 0; i < sizes[q]; i++) {
+          int label = qids[q].equals("norel") ? 0 : rand.nextInt(3);
+          out.println(label + " qid:" + qids[q] + " 1:" + rand.nextFloat() + " 2:" + rand.nextGaussian() + " # " + qids[q] + i);
+        }
+      }
+    }
+  }
+
+  /**
+   * @return The lists read by both readers, once they have been checked to be the same.
+   */
+  private static List<RankList> checkParallel(String[] qids, int[] sizes, boolean sparse, boolean mustHaveRelDoc) throws IOException {
+    try (TmpFile dataFile = new TmpFile()) {
+      writeData(dataFile, qids, sizes);
+
+      List<RankList> expected = new ArrayList<>();
+      synchronized (DataPoint.class) {
+        try (RankListReader in = new RankListReader(dataFile.getPath(), mustHaveRelDoc, sparse)) {
+          while (in.hasNext()) {
+            expected.add(in.next());
+          }
+        }
+
+        long oldChunkSize = FeatureManager.parallelChunkSize;
+        try {
+          FeatureManager.parallelChunkSize = 512;
+          assertTrue(dataFile.get().length() > 8 * FeatureManager.parallelChunkSize);
+          List<RankList> actual = FeatureManager.readInputParallel(dataFile.getPath(), mustHaveRelDoc, sparse);
+          assertSameLists(expected, actual);
+        } finally {
+          FeatureManager.parallelChunkSize = oldChunkSize;
+        }
+      }
+      return expected;
+    }
+  }
+}
@@ -0,0 +1,84 @@
+package ciir.umass.edu.learning;
+
+import ciir.umass.edu.utilities.TmpFile;
+import org.junit.Test;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the byte-level DataPointParser gives the same data points as DataPoint(String).
+ */
+public class DataPointParserTest {
+  // DataPoint keeps the largest feature id ever read in a global, so this stays within the 2 features used by the other tests
+  private static final String[] LINES = {
+      "2 qid:10 1:0.5 2:1.25 # doc:a:b",
+      "1 qid:10 1:1e-3 2:2.5E+2",
+      "0 qid:10 1:-7.5e-8 2:1E5 # exponents",
+      "3 qid:11 1:0.123456789 2:-3.14159265358979 # more than 7 digits",
+      "1 qid:11 1:16777217 2:-123456789.25",
+      "0 qid:12",
+      "1 qid:12 # no features, url=http://x.org:80/",
+      "4 qid:13 1:-2 2:-0.000001",
+      "1 qid:14 1:0.5 # caf\u00e9",
+      "0 qid:\u00e9t\u00e9 2:1 # na\u00efve r\u00e9sum\u00e9",
+      "0 qid:13 2:3.4e38 # last line, no line terminator",
+  };
+
+  @Test
+  public void testDenseCRLF() throws IOException {
+    check(false, "\r\n");
+  }
+
+  @Test
+  public void testSparseCRLF() throws IOException {
+    check(true, "\r\n");
+  }
+
+  @Test
+  public void testDenseLF() throws IOException {
+    check(false, "\n");
+  }
+
+  private static void check(boolean sparse, String eol) throws IOException {
+    try (TmpFile dataFile = new TmpFile()) {
+      StringBuilder text = new StringBuilder();
+      for (int i = 0; i < LINES.length; i++) {
+        text.append(LINES[i]);
+        if (i < LINES.length - 1) {
+          text.append(eol);
+        }
+      }
+      try (OutputStream out = new FileOutputStream(dataFile.get())) {
+        out.write(text.toString().getBytes(StandardCharsets.UTF_8));
+      }
+
+      synchronized (DataPoint.class) {
+        try (DataPointParser parser = new DataPointParser(dataFile.getPath(), sparse)) {
+          for (String line : LINES) {
+            // the text reader decodes files as ASCII: each non-ASCII byte becomes U+FFFD
+            String ascii = new String(line.getBytes(StandardCharsets.UTF_8), StandardCharsets.US_ASCII);
+            DataPoint expected = sparse ? new SparseDataPoint(ascii) : new DenseDataPoint(ascii);
+            DataPoint actual = parser.next();
+            assertNotNull(line, actual);
+            assertEquals(line, expected.getClass(), actual.getClass());
+            assertEquals(line, expected.getID(), actual.getID());
+            assertEquals(line, expected.getLabel(), actual.getLabel(), 0.0f);
+            assertEquals(line, expected.getDescription(), actual.getDescription());
+            float[] e = expected.getFeatureVector();
+            float[] a = actual.getFeatureVector();
+            assertEquals(line, e.length, a.length);
+            for (int f = 1; f < e.length; f++) {
+              assertEquals(line + " (feature " + f + ")", Float.floatToIntBits(e[f]), Float.floatToIntBits(a[f]));
+            }
+          }
+          assertNull(parser.next());
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,114 @@
+package ciir.umass.edu.metric;
+
+import ciir.umass.edu.learning.DataPoint;
+import ciir.umass.edu.learning.DenseDataPoint;
+import ciir.umass.edu.learning.RankList;
+import org.apache.commons.math3.stat.correlation.KendallsCorrelation;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the correlation scorers against commons-math.
+ */
+public class CorrelationScorerTest {
+
+  // Random lists with plenty of ties, some with constant labels or predictions.
+  private static List<RankList> randomLists(Random rand, int count) {
+    List<RankList> lists = new ArrayList<>();
+    for (int t = 0; t < count; t++) {
+      int n = 2 + rand.nextInt(t % 10 == 0 ? 300 : 30);
+      List<DataPoint> dps = new ArrayList<>();
+      for (int i = 0; i < n; i++) {
+        DataPoint dp = new DenseDataPoint((t % 7 == 0 ? 1 : rand.nextInt(4)) + " qid:" + t + " 1:0");
+        dp.setCached(t % 5 == 0 ? 2 : (t % 2 == 0 ? rand.nextInt(5) : rand.nextGaussian()));
+        dps.add(dp);
+      }
+      lists.add(new RankList(dps));
+    }
+    return lists;
+  }
+
+  @Test
+  public void testCorrelationsMatchCommonsMath() {
+    Random rand = new Random(42);
+    for (CORRScorer scorer : new CORRScorer[]{new PEARScorer(), new SPEARScorer()}) {
+      for (RankList rl : randomLists(rand, 200)) {
+        double[] known = new double[rl.size()];
+        double[] pred = new double[rl.size()];
+        boolean allSame = true;
+        for (int i = 0; i < rl.size(); i++) {
+          known[i] = rl.get(i).getLabel();
+          pred[i] = rl.get(i).getCached();
+          allSame &= known[i] == known[0];
+        }
+        double expected = allSame ? 0 : scorer.scorer(known, pred);
+        assertEquals(scorer.name(), expected, scorer.score(rl), 1e-10);
+      }
+    }
+  }
+
+  @Test
+  public void testSwapChangesMatchRescoring() {
+    Random rand = new Random(7);
+    for (CORRScorer scorer : new CORRScorer[]{new PEARScorer(), new SPEARScorer()}) {
+      for (RankList rl : randomLists(rand, 100)) {
+        int n = rl.size();
+        boolean labelsSame = true;
+        boolean predsSame = true;
+        for (int i = 0; i < n; i++) {
+          labelsSame &= rl.get(i).getLabel() == rl.get(0).getLabel();
+          predsSame &= rl.get(i).getCached() == rl.get(0).getCached();
+        }
+        double[][] changes = scorer.swapChange(rl);
+        if (labelsSame || predsSame) {
+          // no change at all, or changes of the ranking itself (checked by the learners)
+          continue;
+        }
+        double before = scorer.score(rl);
+        for (int i = 0; i < n; i++) {
+          for (int j = i + 1; j < n; j++) {
+            double ci = rl.get(i).getCached();
+            rl.get(i).setCached(rl.get(j).getCached());
+            rl.get(j).setCached(ci);
+            assertEquals(scorer.name(), scorer.score(rl) - before, changes[i][j], 1e-10);
+            rl.get(j).setCached(rl.get(i).getCached());
+            rl.get(i).setCached(ci);
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testKendallsTau() {
+    Random rand = new Random(42);
+    KTAUScorer scorer = new KTAUScorer();
+    for (RankList rl : randomLists(rand, 200)) {
+      // reference: the definition used by KTAUScorer (positions in the list are the prediction)
+      long valid = 0;
+      long misordered = 0;
+      for (int k = 0; k < rl.size(); k++)
+        for (int l = k + 1; l < rl.size(); l++)
+          if (rl.get(k).getLabel() != rl.get(l).getLabel()) {
+            valid++;
+            if (rl.get(k).getLabel() < rl.get(l).getLabel())
+              misordered++;
+          }
+      assertEquals(valid == 0 ? 0 : 1 - 2.0 * misordered / valid, scorer.score(rl), 1e-12);
+
+      double[] known = new double[rl.size()];
+      double[] pred = new double[rl.size()];
+      for (int i = 0; i < rl.size(); i++) {
+        known[i] = rl.get(i).getLabel();
+        pred[i] = rl.get(i).getCached();
+      }
+      double expected = new KendallsCorrelation().correlation(known, pred);
+      assertEquals(Double.isNaN(expected) ? 0 : expected, KTAUScorer.tauB(known, pred), 1e-12);
+    }
+  }
+}
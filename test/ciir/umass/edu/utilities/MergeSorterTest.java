@@ -0,0 +1,74 @@
+package ciir.umass.edu.utilities;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks MergeSorter.sortTop against the full descending sort.
+ */
+public class MergeSorterTest {
+  @Test
+  public void testSortTopWithTies() {
+    Random rand = new Random(13);
+    for (int n : new int[]{1, 2, 5, 31, 200}) {
+      double[] list = new double[n];
+      for (int i = 0; i < n; i++) {
+        list[i] = rand.nextInt(4);//lots of ties
+      }
+      for (int k = 0; k <= n + 2; k++) {
+        checkSortTop(list, 0, n - 1, k);
+      }
+    }
+  }
+
+  @Test
+  public void testSortTopDistinct() {
+    Random rand = new Random(7);
+    double[] list = new double[500];
+    for (int i = 0; i < list.length; i++) {
+      list[i] = rand.nextGaussian();
+    }
+    for (int k : new int[]{1, 3, 10, 100, 249, 250, 499, 500, 1000}) {
+      checkSortTop(list, 0, list.length - 1, k);
+    }
+  }
+
+  @Test
+  public void testSortTopRange() {
+    Random rand = new Random(3);
+    double[] list = new double[100];
+    for (int i = 0; i < list.length; i++) {
+      list[i] = rand.nextInt(10);
+    }
+    for (int k : new int[]{1, 5, 20, 60, 100}) {
+      checkSortTop(list, 10, 69, k);
+    }
+  }
+
+  private static void checkSortTop(double[] list, int begin, int end, int k) {
+    int len = end - begin + 1;
+    int[] full = MergeSorter.sort(list, begin, end, false);
+    int[] top = MergeSorter.sortTop(list, begin, end, k);
+    String msg = "n=" + len + " k=" + k;
+    assertEquals(msg, len, top.length);
+
+    // k <= 0, or k not small compared to the list, is a full sort
+    int nTop = (k <= 0 || k >= len / 2) ? len : k;
+    assertArrayEquals(msg, Arrays.copyOf(full, nTop), Arrays.copyOf(top, nTop));
+
+    // every index appears once, and the ones after the top k are in their original order
+    boolean[] seen = new boolean[len];
+    for (int i = 0; i < len; i++) {
+      assertTrue(msg, top[i] >= begin && top[i] <= end);
+      assertFalse(msg, seen[top[i] - begin]);
+      seen[top[i] - begin] = true;
+      if (i > nTop) {
+        assertTrue(msg, top[i - 1] < top[i]);
+      }
+    }
+  }
+}
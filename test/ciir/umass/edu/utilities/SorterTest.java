@@ -0,0 +1,115 @@
+package ciir.umass.edu.utilities;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the Sorter methods against a reference stable sort of the indexes, with ties.
+ */
+public class SorterTest {
+  private static final int[] SIZES = {0, 1, 2, 3, 17, 500};
+
+  @Test
+  public void testSortDouble() {
+    Random rand = new Random(1);
+    for (int n : SIZES) {
+      double[] v = new double[n];
+      Double[] ref = new Double[n];
+      for (int i = 0; i < n; i++) {
+        v[i] = (rand.nextBoolean() ? rand.nextInt(5) : rand.nextGaussian());
+        ref[i] = v[i];
+      }
+      assertArrayEquals(reference(ref, true), Sorter.sort(v, true));
+      assertArrayEquals(reference(ref, false), Sorter.sort(v, false));
+      assertArrayEquals(reference(ref, false), Sorter.sortDesc(Arrays.asList(ref)));
+    }
+  }
+
+  @Test
+  public void testSortFloat() {
+    Random rand = new Random(2);
+    for (int n : SIZES) {
+      float[] v = new float[n];
+      Float[] ref = new Float[n];
+      for (int i = 0; i < n; i++) {
+        v[i] = (rand.nextBoolean() ? rand.nextInt(5) : rand.nextFloat());
+        ref[i] = v[i];
+      }
+      assertArrayEquals(reference(ref, true), Sorter.sort(v, true));
+      assertArrayEquals(reference(ref, false), Sorter.sort(v, false));
+    }
+  }
+
+  @Test
+  public void testSortInt() {
+    Random rand = new Random(3);
+    for (int n : SIZES) {
+      // small range (counting sort), negative values, and a range too wide for counting sort
+      for (int range : new int[]{1, 5, 1 << 30}) {
+        int[] v = new int[n];
+        Integer[] ref = new Integer[n];
+        for (int i = 0; i < n; i++) {
+          v[i] = rand.nextInt(range) - range / 2;
+          ref[i] = v[i];
+        }
+        if (range > 5 && n > 1) {
+          v[0] = Integer.MIN_VALUE;
+          v[n - 1] = Integer.MAX_VALUE;
+          ref[0] = v[0];
+          ref[n - 1] = v[n - 1];
+        }
+        assertArrayEquals(reference(ref, true), Sorter.sort(v, true));
+        assertArrayEquals(reference(ref, false), Sorter.sort(v, false));
+        assertArrayEquals(reference(ref, true), Sorter.sort(Arrays.asList(ref), true));
+      }
+    }
+  }
+
+  @Test
+  public void testSortComparable() {
+    Random rand = new Random(4);
+    for (int n : SIZES) {
+      List<String> s = new ArrayList<>();
+      List<Long> l = new ArrayList<>();
+      for (int i = 0; i < n; i++) {
+        s.add("s" + rand.nextInt(4));
+        l.add((long) rand.nextInt(4) << 40);
+      }
+      assertArrayEquals(reference(s.toArray(new String[0]), true), Sorter.sortString(s, true));
+      assertArrayEquals(reference(s.toArray(new String[0]), false), Sorter.sortString(s, false));
+      assertArrayEquals(reference(l.toArray(new Long[0]), true), Sorter.sortLong(l, true));
+      assertArrayEquals(reference(l.toArray(new Long[0]), false), Sorter.sortLong(l, false));
+    }
+  }
+
+  /**
+   * Indexes of @values sorted by value, ties broken by index.
+   */
+  private static <T extends Comparable<T>> int[] reference(final T[] values, final boolean asc) {
+    Integer[] idx = new Integer[values.length];
+    for (int i = 0; i < idx.length; i++) {
+      idx[i] = i;
+    }
+    Arrays.sort(idx, new Comparator<Integer>() {
+      public int compare(Integer a, Integer b) {
+        int c = values[a].compareTo(values[b]);
+        if (!asc) {
+          c = -c;
+        }
+        return (c != 0) ? c : Integer.compare(a, b);
+      }
+    });
+    int[] r = new int[idx.length];
+    for (int i = 0; i < r.length; i++) {
+      r[i] = idx[i];
+    }
+    return r;
+  }
+}